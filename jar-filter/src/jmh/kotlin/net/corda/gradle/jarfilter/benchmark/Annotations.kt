@@ -0,0 +1,32 @@
+@file:JvmName("Annotations")
+package net.corda.gradle.jarfilter.benchmark
+
+import net.corda.gradle.jarfilter.FilterAnnotations
+import net.corda.gradle.jarfilter.toDescriptors
+import kotlin.annotation.AnnotationRetention.BINARY
+import kotlin.annotation.AnnotationTarget.*
+
+@Retention(BINARY)
+@Target(CLASS, CONSTRUCTOR, FUNCTION, PROPERTY, PROPERTY_GETTER, PROPERTY_SETTER, FIELD)
+annotation class DeleteMe
+
+@Retention(BINARY)
+@Target(CONSTRUCTOR, FUNCTION, PROPERTY_GETTER, PROPERTY_SETTER)
+annotation class StubMeOut
+
+@Retention(BINARY)
+@Target(CLASS, FUNCTION, PROPERTY, FIELD)
+annotation class RemoveMe
+
+val FILTER_ANNOTATIONS = FilterAnnotations.Values(
+    forDelete = setOf(DeleteMe::class.java.name),
+    forStub = setOf(StubMeOut::class.java.name),
+    forRemove = setOf(RemoveMe::class.java.name),
+    forSanitise = setOf(DeleteMe::class.java.name)
+)
+
+val FOR_DELETE: Set<String> = toDescriptors(FILTER_ANNOTATIONS.forDelete)
+val FOR_STUB: Set<String> = toDescriptors(FILTER_ANNOTATIONS.forStub)
+val FOR_REMOVE: Set<String> = toDescriptors(FILTER_ANNOTATIONS.forRemove)
+val FOR_SANITISE: Set<String> = toDescriptors(FILTER_ANNOTATIONS.forSanitise)
+val FOR_FILTERING: Set<String> = FOR_DELETE + FOR_STUB + FOR_REMOVE
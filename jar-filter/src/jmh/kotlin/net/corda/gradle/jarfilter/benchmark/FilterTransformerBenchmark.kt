@@ -0,0 +1,46 @@
+package net.corda.gradle.jarfilter.benchmark
+
+import net.corda.gradle.jarfilter.FILTER_FLAGS
+import net.corda.gradle.jarfilter.FilterTransformer
+import net.corda.gradle.jarfilter.MetadataCache
+import net.corda.gradle.jarfilter.UnwantedCache
+import org.gradle.api.logging.Logger
+import org.gradle.api.logging.Logging
+import org.objectweb.asm.ClassReader
+import org.objectweb.asm.ClassWriter
+import org.objectweb.asm.ClassWriter.COMPUTE_MAXS
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.infra.Blackhole
+
+/**
+ * One filter pass over every class in the JAR.
+ */
+@State(Scope.Benchmark)
+open class FilterTransformerBenchmark : SyntheticJarState() {
+    private val logger: Logger = Logging.getLogger(FilterTransformerBenchmark::class.java)
+
+    @Benchmark
+    fun filter(throughput: Throughput, blackhole: Blackhole) {
+        val unwantedElements = UnwantedCache()
+        val metadataCache = MetadataCache()
+        for (bytecode in classes) {
+            val reader = ClassReader(bytecode)
+            val writer = ClassWriter(reader, COMPUTE_MAXS)
+            val transformer = FilterTransformer(
+                visitor = writer,
+                logger = logger,
+                importExtra = { null },
+                removeAnnotations = FOR_REMOVE,
+                deleteAnnotations = FOR_DELETE,
+                stubAnnotations = FOR_STUB,
+                unwantedElements = unwantedElements,
+                metadataCache = metadataCache
+            )
+            reader.accept(transformer, FILTER_FLAGS)
+            blackhole.consume(writer.toByteArray())
+            throughput.record(bytecode)
+        }
+    }
+}
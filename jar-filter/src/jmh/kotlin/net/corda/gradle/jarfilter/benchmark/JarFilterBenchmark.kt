@@ -0,0 +1,55 @@
+package net.corda.gradle.jarfilter.benchmark
+
+import net.corda.gradle.jarfilter.Compression
+import net.corda.gradle.jarfilter.JarFilterParameters
+import net.corda.gradle.jarfilter.JarFilterWork
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.State
+
+/**
+ * The whole filter, i.e. what the `JarFilter` task does for each of its JARs.
+ */
+@State(Scope.Benchmark)
+open class JarFilterBenchmark : SyntheticJarState() {
+    @Param("false", "true")
+    @JvmField
+    var parallel: Boolean = false
+
+    @Param("best", "fast")
+    @JvmField
+    var compression: String = ""
+
+    @Benchmark
+    fun filterJar(throughput: Throughput) {
+        JarFilterWork(JarFilterParameters(
+            source = sourceJar.toFile(),
+            target = workDir.resolve("filtered.jar").toFile(),
+            temporaryDir = workDir.toFile(),
+            cacheFile = null,
+            reportFile = null,
+            exportPlanFile = null,
+            importPlanFile = null,
+            traceFile = null,
+            traceCapacity = 0,
+            annotations = FILTER_ANNOTATIONS,
+            configHash = "",
+            maxPasses = 5,
+            preserveTimestamps = true,
+            hardLinks = false,
+            verbose = false,
+            parallel = parallel,
+            maxInFlight = 256,
+            spillThreshold = 256L * 1024 * 1024,
+            offHeap = false,
+            fixMetadata = true,
+            abi = false,
+            compression = Compression.of(compression),
+            parallelDeflate = parallel,
+            parallelism = Runtime.getRuntime().availableProcessors(),
+            permitKey = null
+        )).run()
+        throughput.recordAll(classes)
+    }
+}
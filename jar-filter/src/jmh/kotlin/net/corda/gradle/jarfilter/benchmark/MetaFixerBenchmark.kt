@@ -0,0 +1,38 @@
+package net.corda.gradle.jarfilter.benchmark
+
+import net.corda.gradle.jarfilter.MetaFixerVisitor
+import net.corda.gradle.jarfilter.execute
+import net.corda.gradle.jarfilter.fixMetadata
+import org.gradle.api.logging.Logger
+import org.gradle.api.logging.Logging
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.infra.Blackhole
+
+/**
+ * Aligns the [kotlin.Metadata] of every class in the JAR with its byte-code.
+ * The [fixMetadata] benchmark is what the tasks do, which rewrites only those
+ * classes whose metadata is stale. The [rewrite] benchmark always rewrites
+ * every class using the [MetaFixerVisitor].
+ */
+@State(Scope.Benchmark)
+open class MetaFixerBenchmark : SyntheticJarState() {
+    private val logger: Logger = Logging.getLogger(MetaFixerBenchmark::class.java)
+
+    @Benchmark
+    fun fixMetadata(throughput: Throughput, blackhole: Blackhole) {
+        for (bytecode in classes) {
+            blackhole.consume(bytecode.fixMetadata(logger, classNames))
+            throughput.record(bytecode)
+        }
+    }
+
+    @Benchmark
+    fun rewrite(throughput: Throughput, blackhole: Blackhole) {
+        for (bytecode in classes) {
+            blackhole.consume(bytecode.execute({ writer -> MetaFixerVisitor(writer, logger, classNames) }))
+            throughput.record(bytecode)
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package net.corda.gradle.jarfilter.benchmark
+
+import net.corda.gradle.jarfilter.FILTER_FLAGS
+import net.corda.gradle.jarfilter.SanitisingTransformer
+import org.gradle.api.logging.Logger
+import org.gradle.api.logging.Logging
+import org.objectweb.asm.ClassReader
+import org.objectweb.asm.ClassWriter
+import org.objectweb.asm.ClassWriter.COMPUTE_MAXS
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.infra.Blackhole
+
+/**
+ * Sanitises the primary constructor of every class in the JAR.
+ */
+@State(Scope.Benchmark)
+open class SanitisingTransformerBenchmark : SyntheticJarState() {
+    private val logger: Logger = Logging.getLogger(SanitisingTransformerBenchmark::class.java)
+
+    @Benchmark
+    fun sanitise(throughput: Throughput, blackhole: Blackhole) {
+        for (bytecode in classes) {
+            val reader = ClassReader(bytecode)
+            val writer = ClassWriter(reader, COMPUTE_MAXS)
+            reader.accept(SanitisingTransformer(writer, logger, FOR_SANITISE, mutableMapOf()), FILTER_FLAGS)
+            blackhole.consume(writer.toByteArray())
+            throughput.record(bytecode)
+        }
+    }
+}
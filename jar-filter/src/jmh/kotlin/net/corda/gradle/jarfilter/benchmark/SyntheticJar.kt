@@ -0,0 +1,93 @@
+package net.corda.gradle.jarfilter.benchmark
+
+import net.corda.gradle.jarfilter.AnnotationRemover
+import net.corda.gradle.jarfilter.toPathFormat
+import net.corda.gradle.unwanted.*
+import org.gradle.api.logging.Logger
+import org.gradle.api.logging.Logging
+import org.objectweb.asm.ClassReader
+import org.objectweb.asm.ClassWriter
+import org.objectweb.asm.commons.ClassRemapper
+import org.objectweb.asm.commons.SimpleRemapper
+import java.io.InputStream
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+private const val GENERATED_PACKAGE = "net/corda/gradle/jarfilter/generated"
+
+/**
+ * A JAR of [classCount] classes for the benchmarks, which are copies of the template classes
+ * under new names. Only the fraction [annotationDensity] of these copies keep their filtering
+ * annotations, and the others pass through the filter unchanged. The JAR also contains the
+ * `jar-filter:unwanteds` interfaces that these classes implement.
+ */
+class SyntheticJar(private val classCount: Int, private val annotationDensity: Double) {
+    private companion object {
+        private val logger: Logger = Logging.getLogger(SyntheticJar::class.java)
+        private val remover = AnnotationRemover(logger, FOR_FILTERING)
+
+        private val templates = listOf(
+            UnwantedFunTemplate::class.java,
+            UnwantedValTemplate::class.java,
+            UnwantedVarTemplate::class.java,
+            OverloadedTemplate::class.java
+        )
+
+        private val interfaces = listOf(
+            HasUnwantedFun::class.java,
+            HasUnwantedVal::class.java,
+            HasUnwantedVar::class.java,
+            HasInt::class.java,
+            HasLong::class.java,
+            HasString::class.java,
+            HasAll::class.java
+        )
+
+        private val Class<*>.resourceName: String get() = "${name.toPathFormat}.class"
+        private val Class<*>.bytecode: ByteArray get() = classLoader.getResourceAsStream(resourceName).use(InputStream::readBytes)
+    }
+
+    /**
+     * This JAR's entries in order, by entry name.
+     */
+    val entries: Map<String, ByteArray> = LinkedHashMap<String, ByteArray>().apply {
+        for (type in interfaces) {
+            put(type.resourceName, type.bytecode)
+        }
+        for (index in 0 until classCount) {
+            val template = templates[index % templates.size]
+            val className = "$GENERATED_PACKAGE/${template.simpleName}$index"
+            put("$className.class", generate(template, className, isAnnotated(index / templates.size)))
+        }
+    }
+
+    val classes: List<ByteArray> get() = entries.values.toList()
+    val classNames: Set<String> get() = entries.keys.mapTo(LinkedHashSet()) { it.removeSuffix(".class") }
+
+    /**
+     * Spreads the annotated copies evenly throughout the JAR, so that
+     * each round of copies is either annotated or not as a whole.
+     */
+    private fun isAnnotated(round: Int): Boolean {
+        return ((round + 1) * annotationDensity).toInt() > (round * annotationDensity).toInt()
+    }
+
+    private fun generate(template: Class<*>, className: String, isAnnotated: Boolean): ByteArray {
+        val writer = ClassWriter(0)
+        ClassReader(template.bytecode).accept(ClassRemapper(writer, SimpleRemapper(template.name.toPathFormat, className)), 0)
+        val bytecode = writer.toByteArray()
+        return if (isAnnotated) bytecode else remover.remove(bytecode)
+    }
+
+    fun writeTo(path: Path) {
+        ZipOutputStream(Files.newOutputStream(path)).use { jar ->
+            for ((name, bytecode) in entries) {
+                jar.putNextEntry(ZipEntry(name))
+                jar.write(bytecode)
+                jar.closeEntry()
+            }
+        }
+    }
+}
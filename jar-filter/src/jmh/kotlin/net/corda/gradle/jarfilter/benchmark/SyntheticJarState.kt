@@ -0,0 +1,50 @@
+package net.corda.gradle.jarfilter.benchmark
+
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import java.nio.file.Files
+import java.nio.file.Path
+
+/**
+ * The benchmarks' shared state, i.e. a [SyntheticJar] whose size
+ * and annotation density are JMH parameters. JMH only accepts
+ * these [Param] fields because this class is also a [State].
+ */
+@State(Scope.Benchmark)
+abstract class SyntheticJarState {
+    @Param("100", "1000")
+    @JvmField
+    var classCount: Int = 0
+
+    @Param("0.1", "0.5", "1.0")
+    @JvmField
+    var annotationDensity: Double = 0.0
+
+    lateinit var classes: List<ByteArray>
+        private set
+    lateinit var classNames: Set<String>
+        private set
+    lateinit var workDir: Path
+        private set
+    lateinit var sourceJar: Path
+        private set
+
+    @Setup(Level.Trial)
+    fun createJar() {
+        val jar = SyntheticJar(classCount, annotationDensity)
+        classes = jar.classes
+        classNames = jar.classNames
+        workDir = Files.createTempDirectory("jar-filter-jmh")
+        sourceJar = workDir.resolve("synthetic.jar")
+        jar.writeTo(sourceJar)
+    }
+
+    @TearDown(Level.Trial)
+    fun deleteJar() {
+        workDir.toFile().deleteRecursively()
+    }
+}
@@ -0,0 +1,45 @@
+@file:JvmName("Templates")
+@file:Suppress("UNUSED")
+package net.corda.gradle.jarfilter.benchmark
+
+import net.corda.gradle.unwanted.*
+
+/*
+ * The classes inside each synthetic JAR are copies of these templates.
+ */
+
+class UnwantedFunTemplate(private val prefix: String) : HasUnwantedFun, HasString {
+    @DeleteMe
+    override fun unwantedFun(str: String): String = "$prefix:$str"
+
+    fun wantedFun(str: String): String = "[${unwantedFun(str)}]"
+
+    override fun stringData(): String = prefix
+}
+
+class UnwantedValTemplate(private val value: String) : HasUnwantedVal, HasLong {
+    override val unwantedVal: String
+        @StubMeOut get() = "<$value>"
+
+    override fun longData(): Long = value.length.toLong()
+}
+
+@RemoveMe
+class UnwantedVarTemplate(@DeleteMe override var unwantedVar: String) : HasUnwantedVar, HasInt {
+    override fun intData(): Int = unwantedVar.length
+
+    @RemoveMe
+    fun describe(): String = "UnwantedVar"
+}
+
+class OverloadedTemplate @DeleteMe @JvmOverloads constructor(
+    private val data: String,
+    private val number: Int = 0,
+    private val flag: Boolean = false
+) : HasAll {
+    @StubMeOut
+    override fun intData(): Int = number
+
+    override fun longData(): Long = number.toLong()
+    override fun stringData(): String = if (flag) data else ""
+}
@@ -0,0 +1,37 @@
+package net.corda.gradle.jarfilter.benchmark
+
+import org.openjdk.jmh.annotations.AuxCounters
+import org.openjdk.jmh.annotations.AuxCounters.Type.OPERATIONS
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+
+/**
+ * JMH reports these counters as rates, i.e. classes/sec and bytes/sec,
+ * alongside each benchmark's own operations/sec.
+ */
+@State(Scope.Thread)
+@AuxCounters(OPERATIONS)
+open class Throughput {
+    @JvmField
+    var classes: Long = 0
+
+    @JvmField
+    var bytes: Long = 0
+
+    @Setup(Level.Iteration)
+    fun reset() {
+        classes = 0
+        bytes = 0
+    }
+
+    fun record(bytecode: ByteArray) {
+        ++classes
+        bytes += bytecode.size
+    }
+
+    fun recordAll(bytecodes: List<ByteArray>) {
+        bytecodes.forEach(::record)
+    }
+}
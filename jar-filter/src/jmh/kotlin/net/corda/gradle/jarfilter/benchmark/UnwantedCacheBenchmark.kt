@@ -0,0 +1,57 @@
+package net.corda.gradle.jarfilter.benchmark
+
+import net.corda.gradle.jarfilter.MethodElement
+import net.corda.gradle.jarfilter.UnwantedCache
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Threads
+import org.openjdk.jmh.infra.Blackhole
+
+/**
+ * Checks every method invocation of a filter pass against a populated [UnwantedCache]
+ * from several threads at once, as the parallel filter does. Half of these methods
+ * are unwanted. The `gc` profiler should report no allocations at all.
+ */
+@State(Scope.Benchmark)
+open class UnwantedCacheBenchmark {
+    private companion object {
+        private const val CLASS_PREFIX = "net/corda/gradle/jarfilter/generated/Example"
+        private const val METHODS_PER_CLASS = 20
+    }
+
+    @Param("100", "1000")
+    @JvmField
+    var classCount: Int = 0
+
+    private val unwantedElements = UnwantedCache()
+    private lateinit var classNames: Array<String>
+    private lateinit var methodNames: Array<String>
+    private lateinit var descriptors: Array<String>
+
+    @Setup
+    fun populateCache() {
+        classNames = Array(classCount) { index -> "$CLASS_PREFIX$index" }
+        methodNames = Array(METHODS_PER_CLASS) { index -> "method$index" }
+        descriptors = Array(METHODS_PER_CLASS) { index -> "(I)Ljava/lang/String$index;" }
+        for (className in classNames) {
+            for (index in 0 until METHODS_PER_CLASS step 2) {
+                unwantedElements.addMethod(className, MethodElement(methodNames[index], descriptors[index]))
+            }
+        }
+        unwantedElements.drainChanges()
+    }
+
+    @Benchmark
+    @Threads(4)
+    fun containsMethod(throughput: Throughput, blackhole: Blackhole) {
+        for (className in classNames) {
+            for (index in 0 until METHODS_PER_CLASS) {
+                blackhole.consume(unwantedElements.containsMethod(className, methodNames[index], descriptors[index]))
+            }
+            ++throughput.classes
+        }
+    }
+}
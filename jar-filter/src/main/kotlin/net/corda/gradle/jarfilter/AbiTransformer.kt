@@ -0,0 +1,144 @@
+package net.corda.gradle.jarfilter
+
+import kotlinx.metadata.Flag
+import kotlinx.metadata.KmClass
+import kotlinx.metadata.KmDeclarationContainer
+import kotlinx.metadata.KmPackage
+import kotlinx.metadata.jvm.getterSignature
+import kotlinx.metadata.jvm.setterSignature
+import kotlinx.metadata.jvm.signature
+import net.corda.gradle.jarfilter.TraceEvent.*
+import org.gradle.api.logging.Logger
+import org.objectweb.asm.ClassVisitor
+import org.objectweb.asm.FieldVisitor
+import org.objectweb.asm.MethodVisitor
+import org.objectweb.asm.Opcodes.*
+
+/**
+ * ASM [ClassVisitor] for the JarFilter task's ABI mode, which reduces a class to only
+ * what a compiler needs in order to compile against it. This visitor deletes private
+ * fields and methods and the static initialiser, and stubs out every other method.
+ * However, an inline Kotlin function keeps its byte-code because the Kotlin compiler
+ * copies this byte-code into its callers. The [kotlin.Metadata] annotation is fixed
+ * afterwards by the [MetaFixerVisitor].
+ *
+ * Anonymous, local and synthetic classes are not part of the ABI. This visitor
+ * identifies them, but the task decides whether to delete them.
+ */
+class AbiTransformer(
+    visitor: ClassVisitor,
+    logger: Logger,
+    override val metadataCache: MetadataCache?,
+    private val trace: Trace = Trace(logger)
+) : KotlinBeforeProcessor(ASM7, visitor, logger, mutableMapOf()) {
+    private val _inlineMethods: MutableSet<MethodElement> = mutableSetOf()
+    val inlineMethods: Set<MethodElement> get() = _inlineMethods
+
+    var className: String = "(unknown)"
+        private set
+
+    /**
+     * The class that declares this anonymous, local or synthetic class,
+     * which is empty if we don't know. This is null for any other class.
+     */
+    var nonApiOwner: String? = null
+        private set
+
+    /**
+     * The method that declares this anonymous or local class, if any.
+     */
+    var enclosingMethod: MethodElement? = null
+        private set
+
+    val hasInlineFunctions: Boolean get() = _inlineMethods.isNotEmpty()
+
+    override fun visit(version: Int, access: Int, clsName: String, signature: String?, superName: String?, interfaces: Array<String>?) {
+        className = clsName
+        trace.event(CLASS, clsName)
+        if ((access and ACC_SYNTHETIC) != 0) {
+            nonApiOwner = ""
+        }
+        super.visit(version, access, clsName, signature, superName, interfaces)
+    }
+
+    override fun visitOuterClass(outerName: String, methodName: String?, methodDescriptor: String?) {
+        // Only anonymous and local classes have an enclosing method attribute.
+        nonApiOwner = outerName
+        if (methodName != null && methodDescriptor != null) {
+            enclosingMethod = MethodElement(methodName, methodDescriptor)
+        }
+        super.visitOuterClass(outerName, methodName, methodDescriptor)
+    }
+
+    override fun visitInnerClass(clsName: String, outerName: String?, innerName: String?, access: Int) {
+        if (clsName == className) {
+            if (nonApiOwner == "" && outerName != null) {
+                nonApiOwner = outerName
+            }
+        } else if ((outerName == null || innerName == null || (access and ACC_SYNTHETIC) != 0) && !hasInlineFunctions) {
+            trace.event(DELETED_NON_API_CLASS_REFERENCE, clsName)
+            return
+        }
+        super.visitInnerClass(clsName, outerName, innerName, access)
+    }
+
+    override fun visitField(access: Int, fieldName: String, descriptor: String, signature: String?, value: Any?): FieldVisitor? {
+        if ((access and ACC_PRIVATE) != 0) {
+            trace.event(DELETED_PRIVATE_FIELD, fieldName, descriptor)
+            return null
+        }
+        return super.visitField(access, fieldName, descriptor, signature, value)
+    }
+
+    override fun visitMethod(access: Int, methodName: String, descriptor: String, signature: String?, exceptions: Array<String>?): MethodVisitor? {
+        val method = MethodElement(methodName, descriptor, access)
+        if ((access and ACC_PRIVATE) != 0 || method.isClassConstructor) {
+            trace.event(DELETED_METHOD, methodName, descriptor)
+            return null
+        }
+
+        val mv = super.visitMethod(access, methodName, descriptor, signature, exceptions) ?: return null
+        return when {
+            (access and (ACC_ABSTRACT or ACC_NATIVE)) != 0 -> mv
+            _inlineMethods.contains(method) -> {
+                trace.event(KEPT_INLINE_METHOD, methodName, descriptor)
+                mv
+            }
+            method.isVoidFunction -> VoidStubMethodAdapter(api, mv, emptySet())
+            else -> ThrowingStubMethodAdapter(api, mv, emptySet())
+        }
+    }
+
+    /**
+     * Identifies the inline functions, but leaves the metadata unchanged.
+     */
+    override fun processClassMetadata(kmClass: KmClass): KmClass? {
+        addInlineMethods(kmClass, "L${kmClass.name.toInternalName()};")
+        return null
+    }
+
+    override fun processPackageMetadata(kmPackage: KmPackage): KmPackage? {
+        addInlineMethods(kmPackage, "")
+        return null
+    }
+
+    private fun addInlineMethods(container: KmDeclarationContainer, classDescriptor: String) {
+        for (function in container.functions) {
+            if (Flag.Function.IS_INLINE(function.flags)) {
+                val method = function.signature?.toMethodElement() ?: continue
+                _inlineMethods.add(method)
+
+                // The synthetic "$default" method also contains the byte-code to be inlined.
+                method.asKotlinDefaultFunction(classDescriptor)?.also { _inlineMethods.add(it) }
+            }
+        }
+        for (property in container.properties) {
+            if (Flag.PropertyAccessor.IS_INLINE(property.getterFlags)) {
+                property.getterSignature?.also { _inlineMethods.add(it.toMethodElement()) }
+            }
+            if (Flag.PropertyAccessor.IS_INLINE(property.setterFlags)) {
+                property.setterSignature?.also { _inlineMethods.add(it.toMethodElement()) }
+            }
+        }
+    }
+}
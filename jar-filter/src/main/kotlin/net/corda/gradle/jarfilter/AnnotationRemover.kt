@@ -0,0 +1,186 @@
+package net.corda.gradle.jarfilter
+
+import net.corda.gradle.jarfilter.TraceEvent.*
+import org.gradle.api.logging.Logger
+import org.objectweb.asm.ClassReader
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+
+private const val RUNTIME_VISIBLE_ANNOTATIONS = "RuntimeVisibleAnnotations"
+private const val RUNTIME_INVISIBLE_ANNOTATIONS = "RuntimeInvisibleAnnotations"
+
+/**
+ * Removes the given annotations from a class, and from its fields and methods, by splicing
+ * them out of the class file's annotation attributes. Unlike [FilterTransformer], this does
+ * not rebuild the constant pool or the methods' byte-code, and so [JarFilterTask] uses it
+ * instead whenever it has no annotated elements to delete or stub out.
+ *
+ * The annotations' entries are left in the constant pool, which the JVM allows.
+ */
+class AnnotationRemover(
+    logger: Logger,
+    private val descriptors: Set<String>,
+    private val trace: Trace = Trace(logger)
+) {
+    /**
+     * Returns [bytecode] itself if the class contains none of our annotations.
+     */
+    fun remove(bytecode: ByteArray): ByteArray {
+        return ClassPatcher(bytecode).patch()
+    }
+
+    private inner class ClassPatcher(private val bytecode: ByteArray) {
+        private val reader = ClassReader(bytecode)
+        private val buffer = CharArray(reader.maxStringLength)
+        private val output = ByteArrayOutputStream(bytecode.size)
+        private val data = DataOutputStream(output)
+        private var copied = 0
+        private var isModified = false
+
+        fun patch(): ByteArray {
+            val className = reader.className
+            trace.event(CLASS, className)
+
+            // Skip the access flags, this class, the superclass and the interfaces.
+            var offset = reader.header + 6
+            offset += 2 + 2 * reader.readUnsignedShort(offset)
+
+            offset = patchMembers(offset) { name, descriptor, annotation ->
+                trace.event(REMOVED_FIELD_ANNOTATION, annotation, name, descriptor)
+            }
+            offset = patchMembers(offset) { name, descriptor, annotation ->
+                trace.event(REMOVED_METHOD_ANNOTATION, annotation, name, descriptor)
+            }
+            patchAttributes(offset) { annotation ->
+                trace.event(REMOVED_ANNOTATION, annotation)
+            }
+
+            return if (isModified) {
+                output.write(bytecode, copied, bytecode.size - copied)
+                output.toByteArray()
+            } else {
+                bytecode
+            }
+        }
+
+        /**
+         * Patches the fields or methods table at this [offset], and returns the offset of whatever follows it.
+         */
+        private fun patchMembers(offset: Int, onRemove: (String, String, String) -> Unit): Int {
+            var memberCount = reader.readUnsignedShort(offset)
+            var next = offset + 2
+            while (memberCount-- > 0) {
+                val name = reader.readUTF8(next + 2, buffer)
+                val descriptor = reader.readUTF8(next + 4, buffer)
+                next = patchAttributes(next + 6) { annotation -> onRemove(name, descriptor, annotation) }
+            }
+            return next
+        }
+
+        /**
+         * Rewrites the attributes table at this [offset], and returns the offset of whatever follows it.
+         * An annotations attribute that no longer contains any annotations is removed altogether.
+         */
+        private fun patchAttributes(offset: Int, onRemove: (String) -> Unit): Int {
+            val attributeCount = reader.readUnsignedShort(offset)
+            val patched = arrayOfNulls<ByteArray>(attributeCount)
+            val ends = IntArray(attributeCount)
+            var removedCount = 0
+            var start = offset + 2
+            for (idx in 0 until attributeCount) {
+                val name = reader.readUTF8(start, buffer)
+                val end = start + 6 + reader.readInt(start + 2)
+                if (name == RUNTIME_VISIBLE_ANNOTATIONS || name == RUNTIME_INVISIBLE_ANNOTATIONS) {
+                    patched[idx] = patchAnnotations(start, onRemove)?.also { attribute ->
+                        if (attribute.isEmpty()) {
+                            ++removedCount
+                        }
+                    }
+                }
+                ends[idx] = end
+                start = end
+            }
+
+            if (patched.any { it != null }) {
+                flushTo(offset)
+                data.writeShort(attributeCount - removedCount)
+                copied = offset + 2
+                for (idx in 0 until attributeCount) {
+                    val replacement = patched[idx] ?: continue
+                    flushTo(if (idx == 0) offset + 2 else ends[idx - 1])
+                    output.write(replacement)
+                    copied = ends[idx]
+                }
+                isModified = true
+            }
+            return start
+        }
+
+        /**
+         * Returns the whole attribute without our annotations, which is empty if there are none
+         * left. Or returns null if this attribute doesn't contain any of our annotations.
+         */
+        private fun patchAnnotations(attributeStart: Int, onRemove: (String) -> Unit): ByteArray? {
+            val annotationCount = reader.readUnsignedShort(attributeStart + 6)
+            val kept = ByteArrayOutputStream()
+            var keptCount = 0
+            var start = attributeStart + 8
+            for (idx in 0 until annotationCount) {
+                val descriptor = reader.readUTF8(start, buffer)
+                val end = skipAnnotation(start)
+                if (descriptor in descriptors) {
+                    onRemove(descriptor)
+                } else {
+                    kept.write(bytecode, start, end - start)
+                    ++keptCount
+                }
+                start = end
+            }
+
+            return when (keptCount) {
+                annotationCount -> null
+                0 -> byteArrayOf()
+                else -> ByteArrayOutputStream(kept.size() + 8).also { attribute ->
+                    DataOutputStream(attribute).apply {
+                        write(bytecode, attributeStart, 2)
+                        writeInt(kept.size() + 2)
+                        writeShort(keptCount)
+                        kept.writeTo(this)
+                    }
+                }.toByteArray()
+            }
+        }
+
+        private fun skipAnnotation(offset: Int): Int {
+            var pairCount = reader.readUnsignedShort(offset + 2)
+            var next = offset + 4
+            while (pairCount-- > 0) {
+                next = skipElementValue(next + 2)
+            }
+            return next
+        }
+
+        private fun skipElementValue(offset: Int): Int {
+            return when (bytecode[offset].toChar()) {
+                'e' -> offset + 5
+                '@' -> skipAnnotation(offset + 1)
+                '[' -> {
+                    var valueCount = reader.readUnsignedShort(offset + 1)
+                    var next = offset + 3
+                    while (valueCount-- > 0) {
+                        next = skipElementValue(next)
+                    }
+                    next
+                }
+                else -> offset + 3
+            }
+        }
+
+        private fun flushTo(offset: Int) {
+            if (offset > copied) {
+                output.write(bytecode, copied, offset - copied)
+                copied = offset
+            }
+        }
+    }
+}
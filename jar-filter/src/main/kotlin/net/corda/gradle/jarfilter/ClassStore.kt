@@ -0,0 +1,125 @@
+package net.corda.gradle.jarfilter
+
+import java.io.Closeable
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption.DELETE_ON_CLOSE
+import java.nio.file.StandardOpenOption.READ
+import java.nio.file.StandardOpenOption.WRITE
+
+/**
+ * Holds the latest byte-code for each of a JAR's classes between JarFilter's
+ * passes, so that these passes don't need to write and then reread the JAR.
+ * The byte-code is held in memory, either on or off the heap, until its total
+ * size would exceed [spillThreshold]. Any more classes are then "spilled" into
+ * a temporary file inside [spillDir], which is deleted when the store closes.
+ *
+ * This class is not thread-safe, and should only be used by the pass's own thread.
+ */
+class ClassStore(
+    private val spillDir: Path,
+    private val spillThreshold: Long,
+    private val isOffHeap: Boolean
+) : Closeable {
+    private val slots = LinkedHashMap<String, Slot>()
+    private val modified = HashSet<String>()
+    private var spillFile: FileChannel? = null
+    private var spillSize: Long = 0
+    private var memorySize: Long = 0
+
+    /**
+     * The names of the stored entries, in the order that they were first added.
+     */
+    val names: Set<String> get() = slots.keys
+
+    val spilledCount: Int get() = slots.values.count { it is SpilledSlot }
+
+    @Throws(IOException::class)
+    operator fun get(name: String): ByteArray {
+        return when (val slot = slots[name] ?: throw NoSuchElementException(name)) {
+            is HeapSlot -> slot.data
+            is DirectSlot -> ByteArray(slot.size).also { data ->
+                slot.buffer.duplicate().get(data)
+            }
+            is SpilledSlot -> ByteArray(slot.size).also { data ->
+                val buffer = ByteBuffer.wrap(data)
+                var position = slot.position
+                while (buffer.hasRemaining()) {
+                    val count = spillFile!!.read(buffer, position)
+                    if (count < 0) {
+                        throw IOException("Spilled entry $name is truncated")
+                    }
+                    position += count
+                }
+            }
+        }
+    }
+
+    /**
+     * Stores the byte-code for entry [name], replacing any previous
+     * byte-code. An empty array marks a deleted class. Replaced
+     * entries are assumed to have been modified.
+     */
+    @Throws(IOException::class)
+    operator fun set(name: String, data: ByteArray) {
+        slots[name]?.also { old ->
+            if (old !is SpilledSlot) {
+                memorySize -= old.size
+            }
+            modified.add(name)
+        }
+        slots[name] = if (data.isEmpty() || memorySize + data.size <= spillThreshold) {
+            memorySize += data.size
+            if (isOffHeap && data.isNotEmpty()) {
+                DirectSlot(ByteBuffer.allocateDirect(data.size).put(data).flip() as ByteBuffer)
+            } else {
+                HeapSlot(data)
+            }
+        } else {
+            spill(data)
+        }
+    }
+
+    fun isDeleted(name: String): Boolean = slots[name]?.size == 0
+
+    fun isModified(name: String): Boolean = modified.contains(name)
+
+    @Throws(IOException::class)
+    private fun spill(data: ByteArray): SpilledSlot {
+        val channel = spillFile ?: FileChannel.open(Files.createTempFile(spillDir, "classes-", ".spill"), READ, WRITE, DELETE_ON_CLOSE).also {
+            spillFile = it
+        }
+        val slot = SpilledSlot(spillSize, data.size)
+        val buffer = ByteBuffer.wrap(data)
+        while (buffer.hasRemaining()) {
+            spillSize += channel.write(buffer, spillSize)
+        }
+        return slot
+    }
+
+    @Throws(IOException::class)
+    override fun close() {
+        slots.clear()
+        modified.clear()
+        memorySize = 0
+        spillFile?.close()
+        spillFile = null
+    }
+}
+
+private sealed class Slot {
+    abstract val size: Int
+}
+
+private class HeapSlot(val data: ByteArray) : Slot() {
+    override val size: Int get() = data.size
+}
+
+private class DirectSlot(val buffer: ByteBuffer) : Slot() {
+    override val size: Int get() = buffer.remaining()
+}
+
+private class SpilledSlot(val position: Long, override val size: Int) : Slot()
@@ -0,0 +1,25 @@
+package net.corda.gradle.jarfilter
+
+import org.gradle.api.InvalidUserDataException
+import java.util.zip.Deflater.BEST_COMPRESSION
+import java.util.zip.Deflater.BEST_SPEED
+import java.util.zip.Deflater.DEFAULT_COMPRESSION
+
+/**
+ * How [JarWriter] compresses those entries whose contents it writes, rather than
+ * copies "as is" from another JAR. A [STORED] entry is not compressed at all.
+ */
+enum class Compression(val level: Int) {
+    BEST(BEST_COMPRESSION),
+    DEFAULT(DEFAULT_COMPRESSION),
+    FAST(BEST_SPEED),
+    STORED(0);
+
+    companion object {
+        @JvmStatic
+        fun of(name: String): Compression {
+            return values().find { it.name.equals(name, ignoreCase = true) }
+                ?: throw InvalidUserDataException("Unknown compression '$name', expected one of: ${values().joinToString()}")
+        }
+    }
+}
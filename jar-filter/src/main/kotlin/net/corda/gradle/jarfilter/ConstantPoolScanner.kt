@@ -0,0 +1,106 @@
+package net.corda.gradle.jarfilter
+
+import org.objectweb.asm.ClassReader
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+
+private const val CONSTANT_UTF8 = 1
+private const val CONSTANT_CLASS = 7
+
+/**
+ * What a class's constant pool tells us about it, without visiting its members.
+ * [classReferences] contains every other class which this class names, which
+ * includes its supertypes, its inner and outer classes, and the owners of every
+ * method and field that it uses. [descriptors] contains those of the scanner's
+ * annotation descriptors that this class mentions.
+ */
+class ConstantPoolSummary(
+    val className: String,
+    val supertypes: List<String>,
+    val classReferences: Set<String>,
+    val descriptors: Set<String>
+) {
+    fun mentionsAny(candidates: Set<String>): Boolean = descriptors.any(candidates::contains)
+}
+
+/**
+ * Scans a class's constant pool for the given annotation [descriptors], and for the names
+ * of all the classes it refers to. A class whose constant pool does not contain any of
+ * our annotations, or any unwanted class, cannot contain anything for JarFilter to do.
+ */
+class ConstantPoolScanner(descriptors: Set<String>) {
+    /**
+     * The descriptors encoded as they would appear inside the
+     * constant pool, grouped by their encoded lengths.
+     */
+    private val encodedDescriptors: Map<Int, List<Pair<String, ByteArray>>> = descriptors
+        .map { descriptor -> descriptor to descriptor.toModifiedUTF8() }
+        .groupBy { it.second.size }
+
+    fun scan(bytecode: ByteArray): ConstantPoolSummary {
+        val reader = ClassReader(bytecode)
+        val className = reader.className
+        val buffer = CharArray(reader.maxStringLength)
+        val classReferences = LinkedHashSet<String>()
+        val foundDescriptors = LinkedHashSet<String>()
+
+        for (i in 1 until reader.itemCount) {
+            val offset = reader.getItem(i)
+            if (offset == 0) {
+                // The second half of a long or double value.
+                continue
+            }
+            when (reader.readByte(offset - 1)) {
+                CONSTANT_CLASS -> {
+                    val referenceName = reader.readUTF8(offset, buffer).toClassName()
+                    if (referenceName != null && referenceName != className) {
+                        classReferences.add(referenceName)
+                    }
+                }
+                CONSTANT_UTF8 -> encodedDescriptors[reader.readUnsignedShort(offset)]?.also { candidates ->
+                    for ((descriptor, encoded) in candidates) {
+                        if (bytecode.matches(offset + 2, encoded)) {
+                            foundDescriptors.add(descriptor)
+                        }
+                    }
+                }
+            }
+        }
+
+        val supertypes = ArrayList<String>()
+        reader.superName?.also { supertypes.add(it) }
+        supertypes.addAll(reader.interfaces)
+        return ConstantPoolSummary(className, supertypes, classReferences, foundDescriptors)
+    }
+
+    private fun ByteArray.matches(offset: Int, encoded: ByteArray): Boolean {
+        for (i in encoded.indices) {
+            if (this[offset + i] != encoded[i]) {
+                return false
+            }
+        }
+        return true
+    }
+
+    /**
+     * The constant pool contains a class's name, but an array's descriptor.
+     */
+    private fun String.toClassName(): String? {
+        return if (startsWith('[')) {
+            val start = indexOf('L')
+            if (start == -1) null else substring(start + 1, length - 1)
+        } else {
+            this
+        }
+    }
+
+    /**
+     * Class files use the JVM's "modified" UTF-8 encoding.
+     */
+    private fun String.toModifiedUTF8(): ByteArray {
+        val bytes = ByteArrayOutputStream().also { output ->
+            DataOutputStream(output).use { it.writeUTF(this) }
+        }.toByteArray()
+        return bytes.copyOfRange(2, bytes.size)
+    }
+}
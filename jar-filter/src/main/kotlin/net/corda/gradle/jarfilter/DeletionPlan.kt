@@ -0,0 +1,159 @@
+package net.corda.gradle.jarfilter
+
+import org.gradle.api.InvalidUserDataException
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+
+private const val PLAN_MAGIC = 0x4A465032 // "JFP2"
+
+/**
+ * What JarFilter finally decided to do with a single class: delete it entirely,
+ * delete or stub out some of its methods, or nothing at all. The [hash] identifies
+ * the byte-code that JarFilter made these decisions for.
+ */
+class PlannedClass(
+    val entryName: String,
+    val className: String,
+    val supertypes: List<String>,
+    val hash: String,
+    val isUnwanted: Boolean,
+    val deletedMethods: List<MethodElement>,
+    val stubbedMethods: List<MethodElement>
+) {
+    val isFiltered: Boolean get() = isUnwanted || deletedMethods.isNotEmpty() || stubbedMethods.isNotEmpty()
+}
+
+/**
+ * Every class inside a single source JAR, which its file name identifies.
+ */
+class PlanSection(val source: String, val classes: List<PlannedClass>) {
+    /**
+     * The number of these classes which are identical to the classes with these [hashes].
+     */
+    fun countMatching(hashes: Map<String, String>): Int = classes.count { planned -> hashes[planned.entryName] == planned.hash }
+}
+
+/**
+ * The final contents of the [UnwantedCache] after filtering one or more JARs, plus
+ * the methods that JarFilter stubbed out, with a separate [PlanSection] for each JAR.
+ * A JarFilter task with the same [annotations] can import this plan to filter
+ * near-identical JARs without having to rediscover everything over several passes.
+ */
+class DeletionPlan(val annotations: FilterAnnotations.Values, val sections: List<PlanSection>) {
+    companion object {
+        @Throws(IOException::class)
+        fun load(file: Path): DeletionPlan {
+            return DataInputStream(BufferedInputStream(Files.newInputStream(file))).use { input ->
+                if (input.readInt() != PLAN_MAGIC) {
+                    throw InvalidUserDataException("$file is not a JarFilter deletion plan")
+                }
+                val annotations = FilterAnnotations.Values(
+                    forDelete = input.readStrings(),
+                    forStub = input.readStrings(),
+                    forRemove = input.readStrings(),
+                    forSanitise = input.readStrings()
+                )
+                val sections = (0 until input.readInt()).map {
+                    val source = input.readUTF()
+                    val classes = (0 until input.readInt()).map {
+                        val entryName = input.readUTF()
+                        val className = input.readUTF()
+                        val supertypes = input.readStrings().toList()
+                        val hash = input.readUTF()
+                        val isUnwanted = input.readBoolean()
+                        val deletedMethods = input.readMethods()
+                        val stubbedMethods = input.readMethods()
+                        PlannedClass(entryName, className, supertypes, hash, isUnwanted, deletedMethods, stubbedMethods)
+                    }
+                    PlanSection(source, classes)
+                }
+                DeletionPlan(annotations, sections)
+            }
+        }
+
+        private fun DataInputStream.readStrings(): Set<String> {
+            return (0 until readInt()).mapTo(LinkedHashSet()) { readUTF() }
+        }
+
+        private fun DataInputStream.readMethods(): List<MethodElement> {
+            return (0 until readInt()).map { MethodElement(readUTF(), readUTF()) }
+        }
+    }
+
+    @Throws(IOException::class)
+    fun save(file: Path) {
+        Files.createDirectories(file.toAbsolutePath().parent)
+        DataOutputStream(BufferedOutputStream(Files.newOutputStream(file))).use { output ->
+            output.writeInt(PLAN_MAGIC)
+            with(annotations) {
+                output.writeStrings(forDelete)
+                output.writeStrings(forStub)
+                output.writeStrings(forRemove)
+                output.writeStrings(forSanitise)
+            }
+            output.writeInt(sections.size)
+            for (section in sections) {
+                output.writeUTF(section.source)
+                output.writeInt(section.classes.size)
+                for (planned in section.classes) {
+                    output.writeUTF(planned.entryName)
+                    output.writeUTF(planned.className)
+                    output.writeStrings(planned.supertypes)
+                    output.writeUTF(planned.hash)
+                    output.writeBoolean(planned.isUnwanted)
+                    output.writeMethods(planned.deletedMethods)
+                    output.writeMethods(planned.stubbedMethods)
+                }
+            }
+        }
+    }
+
+    /**
+     * A plan only applies to the same annotations, although their order does not matter.
+     */
+    fun isFor(other: FilterAnnotations.Values): Boolean {
+        return annotations.forDelete == other.forDelete
+            && annotations.forStub == other.forStub
+            && annotations.forRemove == other.forRemove
+            && annotations.forSanitise == other.forSanitise
+    }
+
+    /**
+     * Chooses the section for the source JAR with this name, or else the section which
+     * has the most classes in common with this JAR. The JAR may have been renamed, e.g.
+     * if it is a variant of the JAR that this plan was exported for.
+     */
+    fun sectionFor(source: String, hashes: Map<String, String>): PlanSection? {
+        val named = sections.filter { section -> section.source == source }
+        return (if (named.isEmpty()) sections else named).maxBy { section -> section.countMatching(hashes) }
+    }
+
+    private fun DataOutputStream.writeStrings(strings: Collection<String>) {
+        writeInt(strings.size)
+        strings.forEach { writeUTF(it) }
+    }
+
+    private fun DataOutputStream.writeMethods(methods: List<MethodElement>) {
+        writeInt(methods.size)
+        for (method in methods) {
+            writeUTF(method.name)
+            writeUTF(method.descriptor)
+        }
+    }
+}
+
+/**
+ * The combined deletion plan for a task, which contains each of the sections
+ * that its units of work have written into these [jarPlans] files.
+ */
+@Throws(IOException::class)
+fun writeDeletionPlan(target: File, annotations: FilterAnnotations.Values, jarPlans: List<File>) {
+    val sections = jarPlans.filter(File::isFile).flatMap { DeletionPlan.load(it.toPath()).sections }
+    DeletionPlan(annotations, sections).save(target.toPath())
+}
@@ -0,0 +1,48 @@
+package net.corda.gradle.jarfilter
+
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * A reverse index from each class to the JAR entries whose byte-code refers
+ * to it in ways that [FilterTransformer] cares about, i.e. as the owner of a
+ * method or field, as an inner or outer class, or as a supertype. JarFilter
+ * uses this index to decide which classes a deletion can possibly affect.
+ *
+ * The index is populated from each class's [ConstantPoolSummary], which names
+ * every class that the byte-code refers to. It is safe for concurrent use.
+ */
+class DependencyIndex {
+    private val entries: MutableMap<String, MutableSet<String>> = ConcurrentHashMap()
+    private val referrers: MutableMap<String, MutableSet<String>> = ConcurrentHashMap()
+    private val supertypes: MutableMap<String, List<String>> = ConcurrentHashMap()
+
+    /**
+     * Records the references from the class inside [entryName].
+     */
+    fun record(entryName: String, summary: ConstantPoolSummary) {
+        entries.computeIfAbsent(summary.className) { ConcurrentHashMap.newKeySet() }.add(entryName)
+        if (summary.supertypes.isNotEmpty()) {
+            supertypes[summary.className] = summary.supertypes
+        }
+        for (className in summary.classReferences) {
+            referrers.computeIfAbsent(className) { ConcurrentHashMap.newKeySet() }.add(entryName)
+        }
+    }
+
+    /**
+     * Returns the names of those JAR entries that may need filtering again after
+     * the [UnwantedCache] entries for these classes have changed. A deleted class
+     * must also be removed from its sealed superclass's [kotlin.Metadata].
+     */
+    fun affectedBy(classNames: Collection<String>): Set<String> {
+        val affected = LinkedHashSet<String>()
+        for (className in classNames) {
+            entries[className]?.also { affected.addAll(it) }
+            referrers[className]?.also { affected.addAll(it) }
+            supertypes[className]?.forEach { supertype ->
+                entries[supertype]?.also { affected.addAll(it) }
+            }
+        }
+        return affected
+    }
+}
@@ -8,7 +8,6 @@ import kotlinx.metadata.flagsOf
 import kotlinx.metadata.jvm.JvmFieldSignature
 import kotlinx.metadata.jvm.JvmMethodSignature
 import org.objectweb.asm.Opcodes.*
-import java.util.*
 
 private const val DEFAULT_CONSTRUCTOR_MARKER = "ILkotlin/jvm/internal/DefaultConstructorMarker;"
 private const val DEFAULT_FUNCTION_MARKER = "ILjava/lang/Object;"
@@ -45,7 +44,7 @@ class MethodElement(name: String, descriptor: String, access: Int = DUMMY_ELEMEN
         other as MethodElement
         return other.name == name && other.descriptor == descriptor
     }
-    override fun hashCode(): Int = Objects.hash(name, descriptor)
+    override fun hashCode(): Int = hash
     override fun toString(): String = "MethodElement[name=$name, descriptor=$descriptor, access=$access]"
 
     val isConstructor: Boolean get() = isObjectConstructor || isClassConstructor
@@ -53,9 +52,10 @@ class MethodElement(name: String, descriptor: String, access: Int = DUMMY_ELEMEN
     val isObjectConstructor: Boolean get() = name == "<init>"
     val isVoidFunction: Boolean get() = !isConstructor && descriptor.endsWith(")V")
 
+    private val hash: Int = 31 * name.hashCode() + descriptor.hashCode()
     private val suffix: String
     val visibleName: String
-    val signature: String = name + descriptor
+    val signature: String get() = name + descriptor
 
     init {
         val idx = name.indexOf('$')
@@ -115,7 +115,9 @@ class FieldElement(name: String, descriptor: String, access: Int, val extension:
         other as FieldElement
         return other.name == name && other.extension == extension
     }
-    override fun hashCode(): Int = Objects.hash(name, extension)
+    private val hash: Int = 31 * name.hashCode() + extension.hashCode()
+
+    override fun hashCode(): Int = hash
     override fun toString(): String = "FieldElement[name=$name, descriptor=$descriptor, extension=$extension]"
 
     fun asKotlinAnnotationsMethod(newName: String) = MethodElement("$newName\$annotations", descriptor)
@@ -130,6 +132,30 @@ class FieldElement(name: String, descriptor: String, access: Int, val extension:
 
 val String.extensionType: String get() = substring(0, 1 + indexOf(')'))
 
+/**
+ * Equivalent to contains(MethodElement(name, descriptor)), but without
+ * allocating anything. These collections only hold a few elements.
+ */
+fun Collection<MethodElement>.containsMethod(name: String, descriptor: String): Boolean {
+    return any { method -> method.name == name && method.descriptor == descriptor }
+}
+
+/**
+ * Returns the element that equals MethodElement(name, descriptor), but without
+ * allocating anything. These collections only hold a few elements.
+ */
+fun Collection<MethodElement>.findMethod(name: String, descriptor: String): MethodElement? {
+    return if (isEmpty()) null else find { method -> method.name == name && method.descriptor == descriptor }
+}
+
+/**
+ * Equivalent to contains(FieldElement(name, descriptor)), but without
+ * allocating anything. These collections only hold a few elements.
+ */
+fun Collection<FieldElement>.containsField(name: String): Boolean {
+    return any { field -> field.name == name && field.extension == NO_EXTENSION }
+}
+
 /**
  * Returns a fully-qualified class name as it would exist
  * in the byte-code, e.g. as "a/b/c/ClassName$Nested".
@@ -1,9 +1,11 @@
 package net.corda.gradle.jarfilter
 
+import org.gradle.api.InvalidUserDataException
 import org.gradle.api.model.ObjectFactory
 import org.gradle.api.provider.SetProperty
 import org.gradle.api.tasks.Input
 import org.gradle.api.tasks.Internal
+import java.io.Serializable
 import javax.inject.Inject
 
 @Suppress("UnstableApiUsage")
@@ -33,5 +35,28 @@ open class FilterAnnotations @Inject constructor(objects: ObjectFactory) {
         val forStub: Set<String>,
         val forRemove: Set<String>,
         val forSanitise: Set<String>
-    )
+    ) : Serializable {
+        /**
+         * An annotation can only be assigned to one of the
+         * "remove", "delete" and "stub" roles.
+         */
+        fun checkDistinct() {
+            val allAnnotations = (forRemove + forDelete + forStub - forRemove).toMutableSet()
+            forDelete.forEach {
+                if (!allAnnotations.remove(it)) {
+                    failWith("Annotation '$it' also appears in JarFilter 'forDelete' section")
+                }
+            }
+            forStub.forEach {
+                if (!allAnnotations.remove(it)) {
+                    failWith("Annotation '$it' also appears in JarFilter 'forStub' section")
+                }
+            }
+            if (allAnnotations.isNotEmpty()) {
+                failWith("SHOULDN'T HAPPEN - Martian annotations! '${allAnnotations.joinToString()}'")
+            }
+        }
+
+        private fun failWith(message: String): Nothing = throw InvalidUserDataException(message)
+    }
 }
\ No newline at end of file
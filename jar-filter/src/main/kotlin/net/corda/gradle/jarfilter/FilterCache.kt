@@ -0,0 +1,121 @@
+package net.corda.gradle.jarfilter
+
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption.ATOMIC_MOVE
+import java.nio.file.StandardCopyOption.REPLACE_EXISTING
+import java.security.MessageDigest
+
+private const val CACHE_MAGIC = 0x4A464332 // "JFC2"
+private const val HASH_ALGORITHM = "SHA-256"
+
+fun hashOf(vararg data: ByteArray): String {
+    val digest = MessageDigest.getInstance(HASH_ALGORITHM)
+    data.forEach(digest::update)
+    return digest.digest().joinToString("") { "%02x".format(it) }
+}
+
+/**
+ * What JarFilter did with a class the last time that it filtered this JAR, i.e. the
+ * filtered byte-code and the [UnwantedCache] facts about this class. [data] is null
+ * if the class was unchanged, and empty if the class was deleted. The [supertypes]
+ * are remembered in case the class is removed from the JAR later.
+ */
+class CachedClass(
+    val entryName: String,
+    val className: String,
+    val supertypes: List<String>,
+    val hash: String,
+    val data: ByteArray?,
+    val isUnwanted: Boolean,
+    val unwantedMethods: List<MethodElement>,
+    val stubbedMethods: List<MethodElement>
+)
+
+/**
+ * A file inside the task's local state that records how JarFilter last filtered
+ * each class of a JAR. The file is only valid for the same annotation configuration,
+ * which is identified by [configHash].
+ */
+class FilterCache(private val file: Path, private val configHash: String) {
+    /**
+     * Returns the cached classes by their entry names, which is empty if the
+     * cache file is missing or was written for a different configuration.
+     */
+    @Throws(IOException::class)
+    fun load(): Map<String, CachedClass> {
+        if (!Files.isRegularFile(file)) {
+            return emptyMap()
+        }
+        return DataInputStream(BufferedInputStream(Files.newInputStream(file))).use { input ->
+            if (input.readInt() != CACHE_MAGIC || input.readUTF() != configHash) {
+                return emptyMap()
+            }
+            val count = input.readInt()
+            val classes = LinkedHashMap<String, CachedClass>(count)
+            repeat(count) {
+                val entryName = input.readUTF()
+                val className = input.readUTF()
+                val supertypes = (0 until input.readInt()).map { input.readUTF() }
+                val hash = input.readUTF()
+                val dataSize = input.readInt()
+                val data = if (dataSize < 0) null else ByteArray(dataSize).also(input::readFully)
+                val isUnwanted = input.readBoolean()
+                val unwantedMethods = (0 until input.readInt()).map {
+                    MethodElement(input.readUTF(), input.readUTF())
+                }
+                val stubbedMethods = (0 until input.readInt()).map {
+                    MethodElement(input.readUTF(), input.readUTF())
+                }
+                classes[entryName] = CachedClass(entryName, className, supertypes, hash, data, isUnwanted, unwantedMethods, stubbedMethods)
+            }
+            classes
+        }
+    }
+
+    @Throws(IOException::class)
+    fun save(classes: Collection<CachedClass>) {
+        Files.createDirectories(file.parent)
+        val temporary = Files.createTempFile(file.parent, "cache-", ".tmp")
+        try {
+            DataOutputStream(BufferedOutputStream(Files.newOutputStream(temporary))).use { output ->
+                output.writeInt(CACHE_MAGIC)
+                output.writeUTF(configHash)
+                output.writeInt(classes.size)
+                for (cached in classes) {
+                    output.writeUTF(cached.entryName)
+                    output.writeUTF(cached.className)
+                    output.writeInt(cached.supertypes.size)
+                    cached.supertypes.forEach(output::writeUTF)
+                    output.writeUTF(cached.hash)
+                    val data = cached.data
+                    if (data == null) {
+                        output.writeInt(-1)
+                    } else {
+                        output.writeInt(data.size)
+                        output.write(data)
+                    }
+                    output.writeBoolean(cached.isUnwanted)
+                    output.writeInt(cached.unwantedMethods.size)
+                    for (method in cached.unwantedMethods) {
+                        output.writeUTF(method.name)
+                        output.writeUTF(method.descriptor)
+                    }
+                    output.writeInt(cached.stubbedMethods.size)
+                    for (method in cached.stubbedMethods) {
+                        output.writeUTF(method.name)
+                        output.writeUTF(method.descriptor)
+                    }
+                }
+            }
+            Files.move(temporary, file, REPLACE_EXISTING, ATOMIC_MOVE)
+        } finally {
+            Files.deleteIfExists(temporary)
+        }
+    }
+}
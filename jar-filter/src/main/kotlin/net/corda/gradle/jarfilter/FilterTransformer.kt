@@ -3,6 +3,7 @@ package net.corda.gradle.jarfilter
 import kotlinx.metadata.ClassName
 import kotlinx.metadata.KmClass
 import kotlinx.metadata.KmPackage
+import net.corda.gradle.jarfilter.TraceEvent.*
 import org.gradle.api.InvalidUserDataException
 import org.gradle.api.logging.Logger
 import org.objectweb.asm.*
@@ -29,7 +30,10 @@ class FilterTransformer private constructor (
     private val unwantedElements: UnwantedCache,
     private val unwantedFields: MutableSet<FieldElement>,
     private val deletedMethods: MutableSet<MethodElement>,
-    private val stubbedMethods: MutableSet<MethodElement>
+    private val stubbedMethods: MutableSet<MethodElement>,
+    private val inertMethods: MutableMap<String, MutableMap<String, List<String>>>,
+    override val metadataCache: MetadataCache?,
+    private val trace: Trace
 ) : KotlinAfterProcessor(ASM7, visitor, logger, kotlinMetadata), Repeatable<FilterTransformer> {
     constructor(
         visitor: ClassVisitor,
@@ -38,7 +42,9 @@ class FilterTransformer private constructor (
         removeAnnotations: Set<String>,
         deleteAnnotations: Set<String>,
         stubAnnotations: Set<String>,
-        unwantedElements: UnwantedCache
+        unwantedElements: UnwantedCache,
+        metadataCache: MetadataCache? = null,
+        trace: Trace = Trace(logger)
     ) : this(
         visitor = visitor,
         logger = logger,
@@ -50,12 +56,33 @@ class FilterTransformer private constructor (
         unwantedElements = unwantedElements,
         unwantedFields = mutableSetOf(),
         deletedMethods = mutableSetOf(),
-        stubbedMethods = mutableSetOf()
+        stubbedMethods = mutableSetOf(),
+        inertMethods = mutableMapOf(),
+        metadataCache = metadataCache,
+        trace = trace
     )
 
     var className: String = "(unknown)"
         private set
 
+    /**
+     * Whether this visitor has written anything different from what it read.
+     * A class which is neither modified, unwanted nor has unwanted elements
+     * does not need rewriting at all.
+     */
+    var isModified: Boolean = false
+        private set
+
+    /**
+     * The number of fields and methods that this visitor has deleted or stubbed out.
+     */
+    var deletedFieldCount: Int = 0
+        private set
+    var deletedMethodCount: Int = 0
+        private set
+    var stubbedMethodCount: Int = 0
+        private set
+
     val isUnwantedClass: Boolean get() = isUnwantedClass(className)
     override val hasUnwantedElements: Boolean
         get() = unwantedFields.isNotEmpty()
@@ -79,22 +106,26 @@ class FilterTransformer private constructor (
         unwantedElements = unwantedElements,
         unwantedFields = unwantedFields,
         deletedMethods = deletedMethods,
-        stubbedMethods = stubbedMethods
+        stubbedMethods = stubbedMethods,
+        inertMethods = inertMethods,
+        metadataCache = metadataCache,
+        trace = trace
     )
 
     override fun visit(version: Int, access: Int, clsName: String, signature: String?, superName: String?, interfaces: Array<String>?) {
         className = clsName
-        logger.info("Class {}", clsName)
+        trace.event(CLASS, clsName)
         super.visit(version, access, clsName, signature, superName, interfaces)
     }
 
     override fun visitAnnotation(descriptor: String, visible: Boolean): AnnotationVisitor? {
         if (removeAnnotations.contains(descriptor)) {
-            logger.info("- Removing annotation {}", descriptor)
+            trace.event(REMOVED_ANNOTATION, descriptor)
+            isModified = true
             return null
         } else if (deleteAnnotations.contains(descriptor)) {
             if (unwantedElements.addClass(className)) {
-                logger.info("- Identified class {} as unwanted", className)
+                trace.event(UNWANTED_CLASS, className)
             }
         }
         return super.visitAnnotation(descriptor, visible)
@@ -102,23 +133,31 @@ class FilterTransformer private constructor (
 
     override fun visitField(access: Int, fieldName: String, descriptor: String, signature: String?, value: Any?): FieldVisitor? {
         val field = FieldElement(fieldName, descriptor, access)
-        logger.debug("--- field ---> {}", field)
+        trace.event(VISIT_FIELD, field)
         if (unwantedFields.contains(field)) {
-            logger.info("- Deleted field {},{}", field.name, field.descriptor)
+            trace.event(DELETED_FIELD, field.name, field.descriptor)
             unwantedFields.expire(field)
+            ++deletedFieldCount
+            isModified = true
             return null
         }
         val fv = super.visitField(access, fieldName, descriptor, signature, value) ?: return null
         return UnwantedFieldAdapter(fv, field)
     }
 
+    /**
+     * Visiting a method allocates no [MethodElement] unless the method is going to be deleted, stubbed
+     * out or analysed, because most methods are inert on every pass after the first.
+     */
     override fun visitMethod(access: Int, methodName: String, descriptor: String, signature: String?, exceptions: Array<String>?): MethodVisitor? {
-        val method = MethodElement(methodName, descriptor, access)
-        logger.debug("--- method ---> {}", method)
-        if (deletedMethods.contains(method)) {
-            logger.info("- Deleted method {}{}", method.name, method.descriptor)
-            unwantedElements.addMethod(className, method)
-            deletedMethods.expire(method)
+        trace.event(VISIT_METHOD, methodName, descriptor)
+        val deleted = deletedMethods.findMethod(methodName, descriptor)
+        if (deleted != null) {
+            trace.event(DELETED_METHOD, methodName, descriptor)
+            unwantedElements.addMethod(className, deleted)
+            deletedMethods.expire(deleted)
+            ++deletedMethodCount
+            isModified = true
             return null
         }
 
@@ -127,34 +166,53 @@ class FilterTransformer private constructor (
          * we need to replace the method's body with our "stub" code.
          */
         val mv = super.visitMethod(access, methodName, descriptor, signature, exceptions) ?: return null
-        if (stubbedMethods.contains(method)) {
-            logger.info("- Stubbed out method {}{}", method.name, method.descriptor)
-            stubbedMethods.expire(method)
-            return if (method.isVoidFunction) VoidStubMethodAdapter(mv) else ThrowingStubMethodAdapter(mv)
+        val stubbed = stubbedMethods.findMethod(methodName, descriptor)
+        if (stubbed != null) {
+            trace.event(STUBBED_METHOD, methodName, descriptor)
+            unwantedElements.addStubbedMethod(className, stubbed)
+            stubbedMethods.expire(stubbed)
+            ++stubbedMethodCount
+            isModified = true
+            return if (stubbed.isVoidFunction) {
+                VoidStubMethodAdapter(api, mv, stubAnnotations)
+            } else {
+                ThrowingStubMethodAdapter(api, mv, stubAnnotations)
+            }
         }
 
-        return UnwantedMethodAdapter(mv, method)
+        /*
+         * A method that an earlier visit found nothing to change inside can be
+         * handed straight to the writer, which may then copy its byte-code "as is".
+         */
+        val owners = inertMethods[methodName]?.get(descriptor)
+        if (owners != null && owners.none { owner -> isUnwantedClass(owner) }) {
+            return mv
+        }
+        return UnwantedMethodAdapter(mv, access, methodName, descriptor)
     }
 
     override fun visitInnerClass(clsName: String, outerName: String?, innerName: String?, access: Int) {
-        logger.debug("--- inner class {} [outer: {}, inner: {}]", clsName, outerName, innerName)
+        trace.event(VISIT_INNER_CLASS, clsName, outerName, innerName)
         if (isUnwantedClass || hasDeletedAnnotationsMethod(clsName)) {
             if (unwantedElements.addClass(clsName)) {
-                logger.info("- Deleted inner class {}", clsName)
+                trace.event(DELETED_INNER_CLASS, clsName)
             }
+            isModified = true
         } else if (isUnwantedClass(clsName)) {
-            logger.info("- Deleted reference to inner class: {}", clsName)
+            trace.event(DELETED_INNER_CLASS_REFERENCE, clsName)
+            isModified = true
         } else {
             super.visitInnerClass(clsName, outerName, innerName, access)
         }
     }
 
     override fun visitOuterClass(outerName: String, methodName: String?, methodDescriptor: String?) {
-        logger.debug("--- outer class {} [enclosing method {},{}]", outerName, methodName, methodDescriptor)
+        trace.event(VISIT_OUTER_CLASS, outerName, methodName, methodDescriptor)
         if (unwantedElements.containsMethod(outerName, methodName, methodDescriptor)) {
             if (unwantedElements.addClass(className)) {
-                logger.info("- Identified class {} as unwanted by its outer class", className)
+                trace.event(UNWANTED_BY_OUTER_CLASS, className)
             }
+            isModified = true
         } else {
             super.visitOuterClass(outerName, methodName, methodDescriptor)
         }
@@ -202,6 +260,7 @@ class FilterTransformer private constructor (
         val prefix = "$className\$"
         return ClassMetadataTransformer(
                 logger = logger,
+                trace = trace,
                 deletedFields = unwantedFields,
                 deletedFunctions = partitioned[false] ?: emptyList(),
                 deletedConstructors = partitioned[true] ?: emptyList(),
@@ -220,6 +279,7 @@ class FilterTransformer private constructor (
     override fun processPackageMetadata(kmPackage: KmPackage): KmPackage? {
         return PackageMetadataTransformer(
                 logger = logger,
+                trace = trace,
                 deletedFields = unwantedFields,
                 deletedFunctions = deletedMethods,
                 handleExtraMethod = ::delete,
@@ -245,7 +305,7 @@ class FilterTransformer private constructor (
      */
     private fun delete(target: FieldElement) {
         if (unwantedFields.add(target)) {
-            logger.debug("--- field {},{} will be deleted", target.name, target.descriptor)
+            trace.event(FIELD_FOR_DELETION, target.name, target.descriptor)
         }
     }
 
@@ -272,13 +332,13 @@ class FilterTransformer private constructor (
 
     private fun deleteExtra(target: MethodElement) {
         if (deletedMethods.add(target)) {
-            logger.info("-- also identified method {}{} for deletion", target.name, target.descriptor)
+            trace.event(EXTRA_METHOD_FOR_DELETION, target.name, target.descriptor)
         }
     }
 
     private fun stubExtra(target: MethodElement) {
         if (stubbedMethods.add(target)) {
-            logger.info("-- also identified method {}{} for stubbing out", target.name, target.descriptor)
+            trace.event(EXTRA_METHOD_FOR_STUBBING, target.name, target.descriptor)
         }
     }
 
@@ -288,11 +348,12 @@ class FilterTransformer private constructor (
     private inner class UnwantedFieldAdapter(fv: FieldVisitor, private val field: FieldElement) : FieldVisitor(api, fv) {
         override fun visitAnnotation(descriptor: String, visible: Boolean): AnnotationVisitor? {
             if (removeAnnotations.contains(descriptor)) {
-                logger.info("- Removing annotation {} from field {},{}", descriptor, field.name, field.descriptor)
+                trace.event(REMOVED_FIELD_ANNOTATION, descriptor, field.name, field.descriptor)
+                isModified = true
                 return null
             } else if (deleteAnnotations.contains(descriptor)) {
                 if (unwantedFields.add(field)) {
-                    logger.info("- Identified field {},{} as unwanted", field.name, field.descriptor)
+                    trace.event(UNWANTED_FIELD, field.name, field.descriptor)
                 }
             }
             return super.visitAnnotation(descriptor, visible)
@@ -300,44 +361,73 @@ class FilterTransformer private constructor (
     }
 
     /**
-     * Analyses the method to decide whether it should be deleted.
+     * Analyses the method to decide whether it should be deleted. A method is
+     * "inert" if it has none of our annotations and does not refer to this class,
+     * in which case it only needs analysing again if one of the other classes that
+     * it refers to becomes unwanted.
      */
-    private inner class UnwantedMethodAdapter(mv: MethodVisitor, private val method: MethodElement) : MethodVisitor(api, mv) {
+    private inner class UnwantedMethodAdapter(
+        mv: MethodVisitor,
+        private val access: Int,
+        private val name: String,
+        private val desc: String
+    ) : MethodVisitor(api, mv) {
+        private var owners: MutableSet<String>? = null
+        private var isInert = true
+
+        // Only created once we know that this method is annotated or unwanted.
+        private var element: MethodElement? = null
+        private val method: MethodElement get() = element ?: MethodElement(name, desc, access).also { element = it }
+
+        private fun addOwner(ownerName: String) {
+            if (ownerName == className) {
+                isInert = false
+            } else if (isInert) {
+                (owners ?: LinkedHashSet<String>().also { owners = it }).add(ownerName)
+            }
+        }
+
         override fun visitAnnotation(descriptor: String, visible: Boolean): AnnotationVisitor? {
             if (removeAnnotations.contains(descriptor)) {
-                logger.info("- Removing annotation {} from method {}{}", descriptor, method.name, method.descriptor)
+                trace.event(REMOVED_METHOD_ANNOTATION, descriptor, name, desc)
+                isModified = true
+                isInert = false
                 return null
             } else if (deleteAnnotations.contains(descriptor)) {
+                isInert = false
                 if (deletedMethods.add(method)) {
-                    logger.info("- Identified method {}{} for deletion", method.name, method.descriptor)
+                    trace.event(METHOD_FOR_DELETION, method.name, method.descriptor)
                 }
                 if (method.isKotlinSynthetic("annotations")) {
                     val extensionType = method.descriptor.extensionType
                     if (unwantedFields.add(FieldElement(method.visibleName, method.descriptor, extensionType))) {
-                        logger.info("-- also identified property or typealias {},{} for deletion", method.visibleName, extensionType)
+                        trace.event(PROPERTY_FOR_DELETION, method.visibleName, extensionType)
                     }
                 }
-            } else if (stubAnnotations.contains(descriptor) && (method.access and ACC_ABSTRACT) == 0) {
+            } else if (stubAnnotations.contains(descriptor) && (access and ACC_ABSTRACT) == 0) {
+                isInert = false
                 if (stubbedMethods.add(method)) {
-                    logger.info("- Identified method {}{} for stubbing out", method.name, method.descriptor)
+                    trace.event(METHOD_FOR_STUBBING, method.name, method.descriptor)
                 }
             }
             return super.visitAnnotation(descriptor, visible)
         }
 
         override fun visitMethodInsn(opcode: Int, ownerName: String, methodName: String, descriptor: String, isInterface: Boolean) {
-            if ((isUnwantedClass(ownerName) || (ownerName == className && deletedMethods.contains(MethodElement(methodName, descriptor))))
-                    && !stubbedMethods.contains(method)) {
+            addOwner(ownerName)
+            if ((isUnwantedClass(ownerName) || (ownerName == className && deletedMethods.containsMethod(methodName, descriptor)))
+                    && !stubbedMethods.containsMethod(name, desc)) {
                 if (deletedMethods.add(method)) {
-                    logger.info("- Unwanted invocation of method {},{}{} from method {}{}", ownerName, methodName, descriptor, method.name, method.descriptor)
+                    trace.event(UNWANTED_INVOCATION, ownerName, methodName, descriptor, name, desc)
                 }
             }
             super.visitMethodInsn(opcode, ownerName, methodName, descriptor, isInterface)
          }
 
         override fun visitFieldInsn(opcode: Int, ownerName: String, fieldName: String, descriptor: String) {
-            if ((isUnwantedClass(ownerName) || (ownerName == className && unwantedFields.contains(FieldElement(fieldName, descriptor))))
-                    && !stubbedMethods.contains(method)) {
+            addOwner(ownerName)
+            if ((isUnwantedClass(ownerName) || (ownerName == className && unwantedFields.containsField(fieldName)))
+                    && !stubbedMethods.containsMethod(name, desc)) {
                 if (method.isConstructor) {
                     when (opcode) {
                         GETFIELD, GETSTATIC -> {
@@ -357,66 +447,26 @@ class FilterTransformer private constructor (
                         }
                         else -> throw InvalidUserDataException("Unexpected opcode $opcode")
                     }
-                    logger.info("- Unwanted reference to field {},{},{} REMOVED from constructor {}{}",
-                                  ownerName, fieldName, descriptor, method.name, method.descriptor)
+                    trace.event(REMOVED_FIELD_REFERENCE,
+                                ownerName, fieldName, descriptor, name, desc)
+                    isModified = true
+                    isInert = false
                     return
                 } else if (deletedMethods.add(method)) {
-                    logger.info("- Unwanted reference to field {},{},{} from method {}{}",
-                                  ownerName, fieldName, descriptor, method.name, method.descriptor)
+                    trace.event(UNWANTED_FIELD_REFERENCE,
+                                ownerName, fieldName, descriptor, name, desc)
                 }
             }
             super.visitFieldInsn(opcode, ownerName, fieldName, descriptor)
         }
-    }
-
-    /**
-     * Write "stub" byte-code for this method, preserving its other annotations.
-     * The method's original byte-code is discarded.
-     */
-    private abstract inner class StubbingMethodAdapter(mv: MethodVisitor) : MethodVisitor(api, mv) {
-        override fun visitAnnotation(descriptor: String, visible: Boolean): AnnotationVisitor? {
-            return if (stubAnnotations.contains(descriptor)) null else mv.visitAnnotation(descriptor, visible)
-        }
-
-        protected abstract fun writeStubCode()
 
-        final override fun visitCode() {
-            with (mv) {
-                visitCode()
-                writeStubCode()
-                visitMaxs(-1, -1)  // Trigger computation of the max values.
-                visitEnd()
+        override fun visitEnd() {
+            if (isInert && !deletedMethods.containsMethod(name, desc) && !stubbedMethods.containsMethod(name, desc)) {
+                inertMethods.getOrPut(name) { HashMap() }[desc] = owners?.toList() ?: emptyList()
+            } else {
+                inertMethods[name]?.remove(desc)
             }
-
-            // Prevent this visitor from writing any more byte-code.
-            mv = null
-        }
-    }
-
-    /**
-     * Write a method that throws [UnsupportedOperationException] with message "Method has been deleted".
-     */
-    private inner class ThrowingStubMethodAdapter(mv: MethodVisitor) : StubbingMethodAdapter(mv) {
-        override fun writeStubCode() {
-            with (mv) {
-                val throwEx = Label()
-                visitLabel(throwEx)
-                visitLineNumber(0, throwEx)
-                visitTypeInsn(NEW, "java/lang/UnsupportedOperationException")
-                visitInsn(DUP)
-                visitLdcInsn("Method has been deleted")
-                visitMethodInsn(INVOKESPECIAL, "java/lang/UnsupportedOperationException", "<init>", "(Ljava/lang/String;)V", false)
-                visitInsn(ATHROW)
-            }
-        }
-    }
-
-    /**
-     * Write an empty method. Can only be applied to methods that return void.
-     */
-    private inner class VoidStubMethodAdapter(mv: MethodVisitor) : StubbingMethodAdapter(mv) {
-        override fun writeStubCode() {
-            mv.visitInsn(RETURN)
+            super.visitEnd()
         }
     }
 }
@@ -0,0 +1,41 @@
+package net.corda.gradle.jarfilter
+
+import org.gradle.api.Action
+import org.gradle.api.artifacts.dsl.DependencyHandler
+import net.corda.gradle.jarfilter.JarFilterPlugin.Companion.ARTIFACT_TYPE
+import net.corda.gradle.jarfilter.JarFilterPlugin.Companion.FILTERED_JAR_TYPE
+import net.corda.gradle.jarfilter.JarFilterPlugin.Companion.JAR_TYPE
+
+/**
+ * Registers [JarFilterTransform] for this project's dependencies. A configuration's
+ * filtered JARs can then be resolved by requesting the [FILTERED_JAR_TYPE] artifact type:
+ *
+ *     configurations.compileClasspath.incoming.artifactView {
+ *         attributes { attribute(JarFilterPlugin.ARTIFACT_TYPE, JarFilterPlugin.FILTERED_JAR_TYPE) }
+ *     }.files
+ */
+@Suppress("UnstableApiUsage")
+open class JarFilterExtension(private val dependencies: DependencyHandler) {
+    private companion object {
+        private const val DEFAULT_MAX_PASSES = 5
+    }
+
+    fun filterDependencies(action: Action<in JarFilterTransform.Parameters>) {
+        dependencies.registerTransform(JarFilterTransform::class.java) { spec ->
+            spec.from.attribute(ARTIFACT_TYPE, JAR_TYPE)
+            spec.to.attribute(ARTIFACT_TYPE, FILTERED_JAR_TYPE)
+            spec.parameters { params ->
+                params.forDelete = emptySet()
+                params.forStub = emptySet()
+                params.forRemove = emptySet()
+                params.forSanitise = emptySet()
+                params.maxPasses = DEFAULT_MAX_PASSES
+                params.preserveTimestamps = true
+                params.fixMetadata = false
+                params.abi = false
+                action.execute(params)
+                FilterAnnotations.Values(params.forDelete, params.forStub, params.forRemove, params.forSanitise).checkDistinct()
+            }
+        }
+    }
+}
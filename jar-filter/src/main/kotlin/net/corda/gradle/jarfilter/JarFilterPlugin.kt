@@ -3,12 +3,23 @@ package net.corda.gradle.jarfilter
 
 import org.gradle.api.Plugin
 import org.gradle.api.Project
+import org.gradle.api.attributes.Attribute
 
 /**
- * This plugin definition is only needed by the tests.
+ * Adds the `jarFiltering` extension, which can register [JarFilterTransform]
+ * for the project's dependencies. The tasks need no plugin at all.
  */
 class JarFilterPlugin : Plugin<Project> {
+    companion object {
+        const val JAR_TYPE = "jar"
+        const val FILTERED_JAR_TYPE = "filtered-jar"
+
+        @JvmField
+        val ARTIFACT_TYPE: Attribute<String> = Attribute.of("artifactType", String::class.java)
+    }
+
     override fun apply(project: Project) {
         project.logger.info("Applying JarFilter plugin")
+        project.extensions.create("jarFiltering", JarFilterExtension::class.java, project.dependencies)
     }
 }
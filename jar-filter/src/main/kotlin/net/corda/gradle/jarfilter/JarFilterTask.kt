@@ -2,42 +2,54 @@ package net.corda.gradle.jarfilter
 
 import org.gradle.api.Action
 import org.gradle.api.DefaultTask
-import org.gradle.api.InvalidUserDataException
 import org.gradle.api.file.ConfigurableFileCollection
 import org.gradle.api.file.DirectoryProperty
 import org.gradle.api.file.FileCollection
+import org.gradle.api.file.FileSystemLocation
 import org.gradle.api.file.ProjectLayout
+import org.gradle.api.file.RegularFileProperty
 import org.gradle.api.model.ObjectFactory
 import org.gradle.api.provider.Property
+import org.gradle.api.provider.Provider
+import org.gradle.api.tasks.CacheableTask
 import org.gradle.api.tasks.Console
 import org.gradle.api.tasks.Input
+import org.gradle.api.tasks.InputFile
 import org.gradle.api.tasks.InputFiles
 import org.gradle.api.tasks.Internal
+import org.gradle.api.tasks.LocalState
 import org.gradle.api.tasks.Nested
+import org.gradle.api.tasks.Optional
+import org.gradle.api.tasks.OutputDirectories
+import org.gradle.api.tasks.OutputFile
 import org.gradle.api.tasks.OutputFiles
 import org.gradle.api.tasks.PathSensitive
+import org.gradle.api.tasks.PathSensitivity
 import org.gradle.api.tasks.PathSensitivity.RELATIVE
 import org.gradle.api.tasks.SkipWhenEmpty
 import org.gradle.api.tasks.TaskAction
-import org.objectweb.asm.ClassReader
-import org.objectweb.asm.ClassWriter
-import org.objectweb.asm.ClassWriter.COMPUTE_MAXS
-import java.io.Closeable
+import org.gradle.workers.IsolationMode.NONE
+import org.gradle.workers.WorkerExecutor
 import java.io.File
-import java.io.IOException
-import java.nio.file.Files
-import java.nio.file.Path
-import java.nio.file.StandardCopyOption.REPLACE_EXISTING
-import java.util.zip.Deflater.BEST_COMPRESSION
-import java.util.zip.ZipFile
-import java.util.zip.ZipOutputStream
+import java.util.concurrent.Callable
 import javax.inject.Inject
 import kotlin.math.max
+import kotlin.math.min
 
 @Suppress("Unused", "UnstableApiUsage")
-open class JarFilterTask @Inject constructor(objects: ObjectFactory, layouts: ProjectLayout) : DefaultTask() {
+@CacheableTask
+open class JarFilterTask @Inject constructor(
+    objects: ObjectFactory,
+    layouts: ProjectLayout,
+    private val workers: WorkerExecutor
+) : DefaultTask() {
     private companion object {
         private const val DEFAULT_MAX_PASSES = 5
+        private const val DEFAULT_MAX_IN_FLIGHT = 256
+        private const val DEFAULT_SPILL_THRESHOLD = 256L * 1024 * 1024
+        private const val CACHE_VERSION = "1"
+        private const val DEFAULT_TRACE_CAPACITY = 65536
+        private val DEFAULT_CONCURRENT_JARS = Runtime.getRuntime().availableProcessors()
     }
 
     init {
@@ -75,6 +87,119 @@ open class JarFilterTask @Inject constructor(objects: ObjectFactory, layouts: Pr
     @get:Input
     val preserveTimestamps: Property<Boolean> = objects.property(Boolean::class.javaObjectType).convention(true)
 
+    /**
+     * Hard-link the unchanged files of a filtered directory to their originals, instead of
+     * copying them. The outputs then share their inputs' files, and so this is off by default.
+     */
+    @get:Internal
+    val hardLinks: Property<Boolean> = objects.property(Boolean::class.javaObjectType).convention(false)
+
+    /**
+     * Transform each pass's classes concurrently. The filtered
+     * JAR's entries are still written in their original order.
+     */
+    @get:Internal
+    val parallel: Property<Boolean> = objects.property(Boolean::class.javaObjectType).convention(false)
+
+    /**
+     * The maximum number of JAR entries that a parallel pass will have
+     * "in flight" at once, which bounds the extra heap that it can use.
+     */
+    @get:Internal
+    val maxInFlight: Property<Int> = objects.property(Int::class.javaObjectType).convention(DEFAULT_MAX_IN_FLIGHT)
+
+    /**
+     * The number of bytes of byte-code to hold in memory between passes.
+     * Any more classes are written to a temporary file instead.
+     */
+    @get:Internal
+    val spillThreshold: Property<Long> = objects.property(Long::class.javaObjectType).convention(DEFAULT_SPILL_THRESHOLD)
+
+    /**
+     * Hold the byte-code in direct buffers, outside of the JVM's heap.
+     */
+    @get:Internal
+    val offHeap: Property<Boolean> = objects.property(Boolean::class.javaObjectType).convention(false)
+
+    /**
+     * Reuse the filtered byte-code from the previous run for any class that
+     * has not changed, and which does not refer to a class that has changed.
+     */
+    @get:Internal
+    val useCache: Property<Boolean> = objects.property(Boolean::class.javaObjectType).convention(true)
+
+    /**
+     * Also fix each filtered class's [kotlin.Metadata], as [MetaFixerTask] would,
+     * without writing and then reading back an intermediate JAR.
+     */
+    @get:Input
+    val fixMetadata: Property<Boolean> = objects.property(Boolean::class.javaObjectType).convention(false)
+
+    /**
+     * Reduce the filtered JAR to the ABI that a compiler needs: delete private
+     * members, anonymous and synthetic classes, and stub out every method except
+     * for inline Kotlin functions. This also fixes each class's [kotlin.Metadata].
+     */
+    @get:Input
+    val abi: Property<Boolean> = objects.property(Boolean::class.javaObjectType).convention(false)
+
+    /**
+     * How to compress the filtered JAR's rewritten entries: "best", "default",
+     * "fast" or "stored". Entries that are copied "as is" keep their compression.
+     */
+    @get:Input
+    val compression: Property<String> = objects.property(String::class.java).convention("best")
+
+    /**
+     * Compress the filtered JAR's entries concurrently. The
+     * entries are still written in their original order.
+     */
+    @get:Internal
+    val parallelDeflate: Property<Boolean> = objects.property(Boolean::class.javaObjectType).convention(false)
+
+    /**
+     * The maximum number of JARs to filter concurrently, each as a separate
+     * unit of work. Gradle's own `--max-workers` limit also applies. The
+     * JARs share the processors between them for any parallel work.
+     */
+    @get:Internal
+    val maxConcurrentJars: Property<Int> = objects.property(Int::class.javaObjectType).convention(DEFAULT_CONCURRENT_JARS)
+
+    @get:LocalState
+    val cacheDir: DirectoryProperty = objects.directoryProperty().convention(layouts.buildDirectory.dir("jar-filter-cache/$name"))
+
+    /**
+     * Where to export a deletion plan of every class that this task deleted, and of
+     * every method that it deleted or stubbed out, for another task to import. The
+     * plan has a separate section for each of these [jars].
+     */
+    @get:Optional
+    @get:OutputFile
+    val exportPlan: RegularFileProperty = objects.fileProperty()
+
+    /**
+     * A deletion plan that another task exported while filtering near-identical
+     * JARs with the same annotations. Each of these [jars] only imports what the
+     * plan says about its own identical classes.
+     */
+    @get:Optional
+    @get:PathSensitive(PathSensitivity.NONE)
+    @get:InputFile
+    val importPlan: RegularFileProperty = objects.fileProperty()
+
+    /**
+     * Record what the byte-code visitors do to each class into a JSONL file per JAR
+     * inside [traceDir]. Only the most recent [traceCapacity] events are kept.
+     */
+    @get:Internal
+    val trace: Property<Boolean> = objects.property(Boolean::class.javaObjectType).convention(false)
+
+    @get:Internal
+    val traceCapacity: Property<Int> = objects.property(Int::class.javaObjectType).convention(DEFAULT_TRACE_CAPACITY)
+
+    @get:LocalState
+    val traceDir: DirectoryProperty = objects.directoryProperty().convention(layouts.buildDirectory.dir("jar-filter-trace/$name"))
+
     @get:Internal
     val outputDir: DirectoryProperty = objects.directoryProperty().convention(layouts.buildDirectory.dir("filtered-libs"))
 
@@ -82,10 +207,37 @@ open class JarFilterTask @Inject constructor(objects: ObjectFactory, layouts: Pr
         outputDir.set(dir)
     }
 
+    /**
+     * A JSON report of what each pass did to each JAR, and
+     * how long the task spent reading, transforming, fixing
+     * metadata and compressing.
+     */
+    @get:OutputFile
+    val reportFile: RegularFileProperty = objects.fileProperty().convention(outputDir.file("$name-report.json"))
+
+    /**
+     * The filtered JARs and class directories, in the same order as their [jars].
+     */
+    @get:Internal
+    val filtered: FileCollection get() = project.files(Callable { jars.map(::toFiltered) })
+
+    /*
+     * The build cache can only store outputs that it can tell apart,
+     * and so these map each filtered JAR or directory to its own name.
+     */
     @get:OutputFiles
-    val filtered: FileCollection get() = project.files(jars.map(::toFiltered))
+    val filteredJars: Map<String, File> get() = jars.filterNot(File::isDirectory).map { toFiltered(it).get().asFile }.associateBy(File::getName)
 
-    private fun toFiltered(source: File) = outputDir.file(source.name.replace(JAR_PATTERN, "-filtered\$1"))
+    @get:OutputDirectories
+    val filteredDirectories: Map<String, File> get() = jars.filter(File::isDirectory).map { toFiltered(it).get().asFile }.associateBy(File::getName)
+
+    private fun toFiltered(source: File): Provider<out FileSystemLocation> {
+        return if (source.isDirectory) {
+            outputDir.dir("${project.targetNameOf(source)}-filtered")
+        } else {
+            outputDir.file(source.name.replace(JAR_PATTERN, "-filtered\$1"))
+        }
+    }
 
     @TaskAction
     fun filterJars() {
@@ -111,194 +263,85 @@ open class JarFilterTask @Inject constructor(objects: ObjectFactory, layouts: Pr
                 logger.info("- Annotations '{}' will be removed from primary constructors", joinToString())
             }
         }
-        checkDistinctAnnotations(annotationValues)
-        try {
-            for (jar in jars) {
-                logger.info("Filtering {}", jar)
-                Filter(jar, annotationValues).run()
-            }
-        } catch (e: Exception) {
-            throw e.asUncheckedException()
+        if (abi.get()) {
+            logger.info("- Classes will be reduced to their ABI")
         }
-    }
-
-    private fun checkDistinctAnnotations(annotationValues: FilterAnnotations.Values) = with(annotationValues) {
         logger.info("Checking that all annotations are distinct.")
-        val allAnnotations = (forRemove + forDelete + forStub - forRemove).toMutableSet()
-        forDelete.forEach {
-            if (!allAnnotations.remove(it)) {
-                failWith("Annotation '$it' also appears in JarFilter 'forDelete' section")
-            }
-        }
-        forStub.forEach {
-            if (!allAnnotations.remove(it)) {
-                failWith("Annotation '$it' also appears in JarFilter 'forStub' section")
-            }
-        }
-        if (allAnnotations.isNotEmpty()) {
-            failWith("SHOULDN'T HAPPEN - Martian annotations! '${allAnnotations.joinToString()}'")
-        }
-    }
-
-    private fun failWith(message: String): Nothing = throw InvalidUserDataException(message)
-
-    private fun verbose(format: String, vararg objects: Any) {
-        if (verbose.get()) {
-            logger.info(format, *objects)
-        }
-    }
-
-    private inner class Filter(inFile: File, private val annotationValues: FilterAnnotations.Values) {
-        private val unwantedElements = UnwantedCache()
-        private val initialUnwanted: UnwantedMap = mutableMapOf()
-        private val source: Path = inFile.toPath()
-        private val target: Path = toFiltered(inFile).get().asFile.toPath()
-
-        private val descriptorsForRemove = toDescriptors(annotationValues.forRemove)
-        private val descriptorsForDelete = toDescriptors(annotationValues.forDelete)
-        private val descriptorsForStub = toDescriptors(annotationValues.forStub)
-        private val descriptorsForSanitising = toDescriptors(annotationValues.forSanitise)
-
-        init {
-            Files.deleteIfExists(target)
-        }
-
-        fun run() {
-            logger.info("Filtering to: {}", target)
-            var input = source
-
-            try {
-                if (descriptorsForSanitising.isNotEmpty() && SanitisingPass(input).use(Pass::run)) {
-                    input = target.moveToInput()
-                }
-
-                val maxPasses = max(this@JarFilterTask.maxPasses.get(), 1)
-                var passes = 1
-                while (true) {
-                    verbose("Pass {}", passes)
-                    val isModified = FilterPass(input).use(FilterPass::run)
-
-                    if (!isModified) {
-                        logger.info("No changes after latest pass - exiting.")
-                        break
-                    } else if (++passes > maxPasses) {
-                        logger.warn("Exceeded maximum number of passes ({}) - aborting!", maxPasses)
-                        break
-                    }
-
-                    input = target.moveToInput()
-                }
-            } catch (e: Exception) {
-                val filterAnnotations = arrayListOf(annotationValues.forRemove) + annotationValues.forDelete + annotationValues.forStub
-                logger.error("Error filtering '{}' elements from {}", filterAnnotations, input)
-                throw e
-            }
-        }
-
-        private fun Path.moveToInput(): Path {
-            return Files.move(this, Files.createTempFile(parent, "filter-", ".tmp"), REPLACE_EXISTING).also {
-                verbose("New input JAR: {}", it)
-            }
-        }
-
-        private abstract inner class Pass(input: Path): Closeable {
-            /**
-             * Use [ZipFile] instead of [java.util.jar.JarInputStream] because
-             * JarInputStream consumes MANIFEST.MF when it's the first or second entry.
-             */
-            @JvmField protected val inJar = ZipFile(input.toFile())
-            @JvmField protected val outJar = ZipOutputStream(Files.newOutputStream(target))
-            @JvmField protected var isModified = false
-
-            @Throws(IOException::class)
-            override fun close() {
-                inJar.use {
-                    outJar.close()
-                }
-            }
-
-            abstract fun transform(inBytes: ByteArray): ByteArray
-
-            fun run(): Boolean {
-                outJar.setLevel(BEST_COMPRESSION)
-                outJar.setComment(inJar.comment)
-
-                for (entry in inJar.entries()) {
-                    val entryData = inJar.getInputStream(entry)
-
-                    if (entry.isDirectory || !entry.name.endsWith(".class")) {
-                        // This entry's byte contents have not changed,
-                        // but may still need to be recompressed.
-                        outJar.putNextEntry(entry.copy().withFileTimestamps(preserveTimestamps.get()))
-                        entryData.copyTo(outJar)
-                    } else {
-                        val classData = transform(entryData.readBytes())
-                        if (classData.isNotEmpty()) {
-                            // This entry's byte contents have almost certainly
-                            // changed, and will be stored compressed.
-                            outJar.putNextEntry(entry.asCompressed().withFileTimestamps(preserveTimestamps.get()))
-                            outJar.write(classData)
-                        }
-                    }
-                }
-                return isModified
-            }
-        }
-
-        private inner class SanitisingPass(input: Path) : Pass(input) {
-            override fun transform(inBytes: ByteArray): ByteArray {
-                return ClassWriter(0).let { writer ->
-                    val transformer = SanitisingTransformer(writer, logger, descriptorsForSanitising, initialUnwanted)
-                    ClassReader(inBytes).accept(transformer, FILTER_FLAGS)
-                    isModified = isModified or transformer.isModified
-                    writer.toByteArray()
-                }
-            }
-        }
-
-        private inner class FilterPass(input: Path) : Pass(input) {
-            override fun transform(inBytes: ByteArray): ByteArray {
-                var reader = ClassReader(inBytes)
-                var writer = ClassWriter(COMPUTE_MAXS)
-                var transformer = FilterTransformer(
-                    visitor = writer,
-                    logger = logger,
-                    importExtra = { className -> initialUnwanted.remove(className) },
-                    removeAnnotations = descriptorsForRemove,
-                    deleteAnnotations = descriptorsForDelete,
-                    stubAnnotations = descriptorsForStub,
-                    unwantedElements = unwantedElements
+        annotationValues.checkDistinct()
+        val configHash = configHashOf(annotationValues)
+        val compression = Compression.of(compression.get())
+        checkDistinctTargets(jars.map { jar -> toFiltered(jar).get().asFile })
+        val jarReports = ArrayList<File>()
+        val jarPlans = ArrayList<File>()
+        val traceDirectory = if (trace.get()) traceDir.get().asFile.also { it.mkdirs() } else null
+
+        /*
+         * Each JAR is written to its own target file, and so the order in which
+         * they finish makes no difference. Submit them all at once, and let the
+         * permits start each JAR as soon as another has finished.
+         */
+        val concurrentJars = max(min(maxConcurrentJars.get(), jars.files.size), 1)
+        val parallelism = threadsPerJar(concurrentJars)
+        WorkPermits(concurrentJars).use { permits ->
+            for (jar in jars) {
+                val target = toFiltered(jar).get().asFile
+                val jarReport = File(temporaryDir, "${target.name}.json").also { it.delete() }
+                jarReports.add(jarReport)
+                val jarPlan = if (exportPlan.isPresent) File(temporaryDir, "${target.name}.plan").also { it.delete() } else null
+                jarPlan?.also { jarPlans.add(it) }
+                val params = JarFilterParameters(
+                    source = jar,
+                    target = target,
+                    temporaryDir = temporaryDir,
+                    cacheFile = if (useCache.get()) cacheDir.file("${target.name}.cache").get().asFile else null,
+                    reportFile = jarReport,
+                    exportPlanFile = jarPlan,
+                    importPlanFile = importPlan.orNull?.asFile,
+                    traceFile = traceDirectory?.let { File(it, "${target.name}.jsonl") },
+                    traceCapacity = traceCapacity.get(),
+                    annotations = annotationValues,
+                    configHash = configHash,
+                    maxPasses = maxPasses.get(),
+                    preserveTimestamps = preserveTimestamps.get(),
+                    hardLinks = hardLinks.get(),
+                    verbose = verbose.get(),
+                    parallel = parallel.get(),
+                    maxInFlight = maxInFlight.get(),
+                    spillThreshold = spillThreshold.get(),
+                    offHeap = offHeap.get(),
+                    fixMetadata = fixMetadata.get(),
+                    abi = abi.get(),
+                    compression = compression,
+                    parallelDeflate = parallelDeflate.get(),
+                    parallelism = parallelism,
+                    permitKey = permits.key
                 )
-
-                /*
-                 * First pass: This might not find anything to remove!
-                 */
-                reader.accept(transformer, FILTER_FLAGS)
-
-                if (transformer.isUnwantedClass || transformer.hasUnwantedElements) {
-                    isModified = true
-
-                    do {
-                        /*
-                         * Rewrite the class without any of the unwanted elements.
-                         * If we're deleting the class then make sure we identify all of
-                         * its inner classes too, for the next filter pass to delete.
-                         */
-                        reader = ClassReader(writer.toByteArray())
-                        writer = ClassWriter(COMPUTE_MAXS)
-                        transformer = transformer.recreate(writer)
-                        reader.accept(transformer, FILTER_FLAGS)
-                    } while (!transformer.isUnwantedClass && transformer.hasUnwantedElements)
-                }
-
-                return if (transformer.isUnwantedClass) {
-                    // The entire class is unwanted, so don't write it out.
-                    logger.info("Deleting class {}", transformer.className)
-                    byteArrayOf()
-                } else {
-                    writer.toByteArray()
+                workers.submit(JarFilterWork::class.java) { config ->
+                    config.isolationMode = NONE
+                    config.displayName = "Filtering ${jar.name}"
+                    config.params(params)
                 }
             }
+            workers.await()
         }
+        writeTaskReport(reportFile.get().asFile, path, jarReports)
+        exportPlan.orNull?.also { plan -> writeDeletionPlan(plan.asFile, annotationValues, jarPlans) }
+    }
+
+    /**
+     * Identifies everything besides a class's own byte-code that determines how it is filtered.
+     */
+    private fun configHashOf(annotationValues: FilterAnnotations.Values): String = with(annotationValues) {
+        val config = listOf(
+            CACHE_VERSION,
+            JarFilterTask::class.java.`package`?.implementationVersion ?: "",
+            forDelete.sorted().joinToString(),
+            forStub.sorted().joinToString(),
+            forRemove.sorted().joinToString(),
+            forSanitise.sorted().joinToString(),
+            maxPasses.get().toString(),
+            abi.get().toString()
+        )
+        hashOf(config.joinToString("\n").toByteArray())
     }
 }
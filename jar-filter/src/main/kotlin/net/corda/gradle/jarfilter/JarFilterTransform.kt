@@ -0,0 +1,103 @@
+package net.corda.gradle.jarfilter
+
+import org.gradle.api.artifacts.transform.InputArtifact
+import org.gradle.api.artifacts.transform.TransformAction
+import org.gradle.api.artifacts.transform.TransformOutputs
+import org.gradle.api.artifacts.transform.TransformParameters
+import org.gradle.api.tasks.Input
+import java.io.File
+import java.nio.file.Files
+
+/**
+ * Filters a dependency's JAR as Gradle resolves it, using the same engine as
+ * [JarFilterTask]. Gradle runs these transforms in parallel, shares their results
+ * between projects and stores them in its transform cache. Use [JarFilterExtension]
+ * to register this transform.
+ */
+@Suppress("UnstableApiUsage")
+abstract class JarFilterTransform : TransformAction<JarFilterTransform.Parameters> {
+    private companion object {
+        private const val DEFAULT_SPILL_THRESHOLD = 256L * 1024 * 1024
+        private const val DEFAULT_MAX_IN_FLIGHT = 256
+    }
+
+    interface Parameters : TransformParameters {
+        @get:Input
+        var forDelete: Set<String>
+
+        @get:Input
+        var forStub: Set<String>
+
+        @get:Input
+        var forRemove: Set<String>
+
+        @get:Input
+        var forSanitise: Set<String>
+
+        @get:Input
+        var maxPasses: Int
+
+        @get:Input
+        var preserveTimestamps: Boolean
+
+        @get:Input
+        var fixMetadata: Boolean
+
+        @get:Input
+        var abi: Boolean
+    }
+
+    @get:InputArtifact
+    abstract val inputArtifact: File
+
+    override fun transform(outputs: TransformOutputs) {
+        val source = inputArtifact
+        val target = if (source.isDirectory) {
+            outputs.dir("${source.name}-filtered")
+        } else {
+            outputs.file(source.name.replace(JAR_PATTERN, "-filtered\$1"))
+        }
+        /*
+         * Any classes that the filter spills must not land inside the transform's
+         * outputs, and so it needs a temporary directory of its very own.
+         */
+        val temporaryDir = Files.createTempDirectory("jar-filter-transform").toFile()
+        try {
+            filter(source, target, temporaryDir)
+        } finally {
+            temporaryDir.deleteRecursively()
+        }
+    }
+
+    private fun filter(source: File, target: File, temporaryDir: File) {
+        with(parameters) {
+            JarFilterWork(JarFilterParameters(
+                source = source,
+                target = target,
+                temporaryDir = temporaryDir,
+                cacheFile = null,
+                reportFile = null,
+                exportPlanFile = null,
+                importPlanFile = null,
+                traceFile = null,
+                traceCapacity = 0,
+                annotations = FilterAnnotations.Values(forDelete, forStub, forRemove, forSanitise),
+                configHash = "",
+                maxPasses = maxPasses,
+                preserveTimestamps = preserveTimestamps,
+                hardLinks = false,
+                verbose = false,
+                parallel = false,
+                maxInFlight = DEFAULT_MAX_IN_FLIGHT,
+                spillThreshold = DEFAULT_SPILL_THRESHOLD,
+                offHeap = false,
+                fixMetadata = fixMetadata,
+                abi = abi,
+                compression = Compression.BEST,
+                parallelDeflate = false,
+                parallelism = 1,
+                permitKey = null
+            )).run()
+        }
+    }
+}
@@ -0,0 +1,691 @@
+package net.corda.gradle.jarfilter
+
+import org.gradle.api.InvalidUserDataException
+import org.gradle.api.logging.Logger
+import org.gradle.api.logging.Logging
+import org.objectweb.asm.ClassReader
+import org.objectweb.asm.ClassWriter
+import org.objectweb.asm.ClassWriter.COMPUTE_MAXS
+import java.io.File
+import java.io.IOException
+import java.io.Serializable
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.Callable
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.ForkJoinPool
+import java.util.zip.ZipEntry
+import java.util.zip.ZipFile
+import javax.inject.Inject
+import kotlin.math.max
+
+/**
+ * Everything that [JarFilterWork] needs to know to filter one JAR, which
+ * [JarFilterTask] resolves from its properties before submitting the work.
+ */
+class JarFilterParameters(
+    val source: File,
+    val target: File,
+    val temporaryDir: File,
+    val cacheFile: File?,
+    val reportFile: File?,
+    val exportPlanFile: File?,
+    val importPlanFile: File?,
+    val traceFile: File?,
+    val traceCapacity: Int,
+    val annotations: FilterAnnotations.Values,
+    val configHash: String,
+    val maxPasses: Int,
+    val preserveTimestamps: Boolean,
+    val hardLinks: Boolean,
+    val verbose: Boolean,
+    val parallel: Boolean,
+    val maxInFlight: Int,
+    val spillThreshold: Long,
+    val offHeap: Boolean,
+    val fixMetadata: Boolean,
+    val abi: Boolean,
+    val compression: Compression,
+    val parallelDeflate: Boolean,
+    val parallelism: Int,
+    val permitKey: String?
+) : Serializable
+
+/**
+ * Filters a single JAR as an isolated unit of work. Each JAR has its own [UnwantedCache],
+ * and so Gradle's worker threads can filter several JARs concurrently.
+ */
+class JarFilterWork @Inject constructor(private val params: JarFilterParameters) : Runnable {
+    private val logger: Logger = Logging.getLogger(JarFilterTask::class.java)
+    private val unwantedElements = UnwantedCache()
+    private val initialUnwanted: UnwantedMap = ConcurrentHashMap()
+    private val source: Path = params.source.toPath()
+    private val target: Path = params.target.toPath()
+
+    private val descriptorsForRemove = toDescriptors(params.annotations.forRemove)
+    private val descriptorsForDelete = toDescriptors(params.annotations.forDelete)
+    private val descriptorsForStub = toDescriptors(params.annotations.forStub)
+    private val descriptorsForSanitising = toDescriptors(params.annotations.forSanitise)
+    private val descriptorsForFiltering = descriptorsForRemove + descriptorsForDelete + descriptorsForStub
+
+    private val scanner = ConstantPoolScanner(descriptorsForFiltering + descriptorsForSanitising)
+    private val index = DependencyIndex()
+    private val metadataCache = MetadataCache()
+    private val cache = params.cacheFile?.let { FilterCache(it.toPath(), params.configHash) }
+    private val hashClasses = cache != null || params.exportPlanFile != null || params.importPlanFile != null
+    private val report = JarReport(params.source, params.target)
+    private val trace = Trace(logger, params.traceFile?.let { TraceBuffer(params.traceCapacity) })
+
+    // ABI mode must fix the metadata for the members that it deletes,
+    // and its JAR's contents should only change when its ABI does.
+    private val fixMetadata = params.fixMetadata || params.abi
+    private val preserveTimestamps = params.preserveTimestamps && !params.abi
+    private var executor: ExecutorService? = null
+
+    override fun run() {
+        WorkPermits.withPermit(params.permitKey, ::filter)
+    }
+
+    private fun filter() {
+        logger.info("Filtering {}", source)
+        logger.info("Filtering to: {}", target)
+
+        executor = if (params.parallel || params.parallelDeflate) ForkJoinPool(params.parallelism) else null
+        try {
+            try {
+                if (params.source.isDirectory) {
+                    filterDirectory()
+                } else {
+                    filterJar()
+                }
+            } finally {
+                // Nothing may still be running once we write the report and trace.
+                executor?.shutdownAndAwait()
+            }
+            params.reportFile?.also { reportFile ->
+                report.bytesIn = source.totalSize()
+                report.bytesOut = target.totalSize()
+                report.writeTo(reportFile)
+            }
+        } catch (e: Exception) {
+            val filterAnnotations = with(params.annotations) { arrayListOf(forRemove) + forDelete + forStub }
+            logger.error("Error filtering '{}' elements from {}", filterAnnotations, source)
+            throw e.asUncheckedException()
+        } finally {
+            trace.writeTo(params.traceFile)
+        }
+    }
+
+    private fun filterJar() {
+        Files.deleteIfExists(target)
+
+        /*
+         * Use [ZipFile] instead of [java.util.jar.JarInputStream] because
+         * JarInputStream consumes MANIFEST.MF when it's the first or second entry.
+         */
+        ZipFile(source.toFile()).use { inJar ->
+            RawZipFile(source).use { rawJar ->
+                ClassStore(params.temporaryDir.toPath(), params.spillThreshold, params.offHeap).use { classes ->
+                    val summaries = LinkedHashMap<String, ConstantPoolSummary>()
+                    val hashes = HashMap<String, String>()
+                    report.measure(Phase.READ) {
+                        for (entry in inJar.entries()) {
+                            if (entry.isClass) {
+                                record(entry.name, rawJar.readBytes(inJar, entry), classes, summaries, hashes)
+                            }
+                        }
+                    }
+
+                    report.measure(Phase.TRANSFORM) { filter(classes, summaries, hashes) }
+                    report.measure(Phase.DEFLATE) { write(inJar, rawJar, classes) }
+                    saveCache(classes, summaries, hashes)
+                    savePlan(summaries, hashes)
+                }
+            }
+        }
+    }
+
+    /**
+     * Filters a directory of classes, e.g. a compiler's output, into another directory.
+     * The classes that do not change are copied or linked into the target directory.
+     */
+    private fun filterDirectory() {
+        ClassStore(params.temporaryDir.toPath(), params.spillThreshold, params.offHeap).use { classes ->
+            val entryNames = source.directoryEntries()
+            val summaries = LinkedHashMap<String, ConstantPoolSummary>()
+            val hashes = HashMap<String, String>()
+            report.measure(Phase.READ) {
+                for (entryName in entryNames) {
+                    if (entryName.endsWith(".class")) {
+                        record(entryName, Files.readAllBytes(source.resolve(entryName)), classes, summaries, hashes)
+                    }
+                }
+            }
+
+            report.measure(Phase.TRANSFORM) { filter(classes, summaries, hashes) }
+            report.measure(Phase.DEFLATE) { write(entryNames, classes) }
+            saveCache(classes, summaries, hashes)
+            savePlan(summaries, hashes)
+        }
+    }
+
+    private fun record(
+        entryName: String,
+        classData: ByteArray,
+        classes: ClassStore,
+        summaries: MutableMap<String, ConstantPoolSummary>,
+        hashes: MutableMap<String, String>
+    ) {
+        classes[entryName] = classData
+        summaries[entryName] = scanner.scan(classData).also { summary ->
+            index.record(entryName, summary)
+        }
+        if (hashClasses) {
+            hashes[entryName] = hashOf(classData)
+        }
+    }
+
+    private fun filter(classes: ClassStore, summaries: Map<String, ConstantPoolSummary>, hashes: Map<String, String>) {
+        val reused = if (cache == null) emptySet() else reuseCached(cache, classes, summaries, hashes)
+        val planned = params.importPlanFile?.let { importPlan(it.toPath(), summaries, hashes, reused) } ?: emptySet()
+
+        /*
+         * The cache of unwanted elements only contains what we have reused or planned,
+         * and so the first pass only needs to visit those classes which mention either
+         * our annotations or anything that we already know is unwanted.
+         */
+        val known = unwantedElements.drainChanges()
+        val candidates = summaries.filter { (entryName, summary) ->
+            entryName !in reused && (summary.mentionsAny(descriptorsForFiltering)
+                || summary.mentionsAny(descriptorsForSanitising)
+                || summary.className in known
+                || summary.className in planned
+                || summary.classReferences.any(known::contains))
+        }.keys.toList()
+        verbose("Pre-scan found {} of {} classes to filter", candidates.size, summaries.size)
+        if (descriptorsForDelete.isEmpty() && descriptorsForStub.isEmpty() && descriptorsForSanitising.isEmpty() && known.isEmpty()) {
+            /*
+             * Removing annotations cannot make anything else unwanted,
+             * and so a single pass at the byte level is enough.
+             */
+            transformAll(classes, candidates, report.startPass("remove-annotations"), AnnotationRemover(logger, descriptorsForRemove, trace)::remove)
+        } else {
+            Worklist(classes, candidates).run()
+        }
+
+        if (params.abi) {
+            reduceToAbi(classes, summaries)
+        }
+        if (classes.spilledCount > 0) {
+            verbose("Spilled {} classes to disk", classes.spilledCount)
+        }
+    }
+
+    private fun saveCache(classes: ClassStore, summaries: Map<String, ConstantPoolSummary>, hashes: Map<String, String>) {
+        cache?.save(summaries.map { (entryName, summary) ->
+            CachedClass(
+                entryName = entryName,
+                className = summary.className,
+                supertypes = summary.supertypes,
+                hash = hashes.getValue(entryName),
+                data = if (classes.isModified(entryName)) classes[entryName] else null,
+                isUnwanted = unwantedElements.containsClass(summary.className),
+                unwantedMethods = unwantedElements.methodsOf(summary.className)?.toList() ?: emptyList(),
+                stubbedMethods = unwantedElements.stubbedMethodsOf(summary.className)?.toList() ?: emptyList()
+            )
+        })
+    }
+
+    private fun savePlan(summaries: Map<String, ConstantPoolSummary>, hashes: Map<String, String>) {
+        val planFile = params.exportPlanFile ?: return
+        val section = PlanSection(params.source.name, summaries.map { (entryName, summary) ->
+            val className = summary.className
+            PlannedClass(
+                entryName = entryName,
+                className = className,
+                supertypes = summary.supertypes,
+                hash = hashes.getValue(entryName),
+                isUnwanted = unwantedElements.containsClass(className),
+                deletedMethods = unwantedElements.methodsOf(className)?.toList() ?: emptyList(),
+                stubbedMethods = unwantedElements.stubbedMethodsOf(className)?.toList() ?: emptyList()
+            )
+        })
+        DeletionPlan(params.annotations, listOf(section)).save(planFile.toPath())
+    }
+
+    /**
+     * Adds everything that an imported [DeletionPlan] decided to the [UnwantedCache], so that
+     * the first pass can apply it all at once. Each class's own planned methods are imported
+     * into its [FilterTransformer] too, as if they had been annotated. The plan's section for
+     * this JAR is treated exactly like a previous run's [FilterCache], and so we only import
+     * those classes which are identical and which do not refer to anything that has changed.
+     * Returns the names of the planned classes, which the first pass must visit.
+     */
+    private fun importPlan(
+        planFile: Path,
+        summaries: Map<String, ConstantPoolSummary>,
+        hashes: Map<String, String>,
+        reused: Set<String>
+    ): Set<String> {
+        val plan = try {
+            DeletionPlan.load(planFile)
+        } catch (e: IOException) {
+            throw InvalidUserDataException("Cannot read deletion plan $planFile: ${e.message}", e)
+        }
+        if (!plan.isFor(params.annotations)) {
+            throw InvalidUserDataException("Deletion plan $planFile was exported for different annotations")
+        }
+        val section = plan.sectionFor(params.source.name, hashes) ?: return emptySet()
+        val previous = section.classes.associateBy(PlannedClass::entryName)
+
+        val changed = HashSet<String>()
+        for ((entryName, summary) in summaries) {
+            if (previous[entryName]?.hash != hashes[entryName]) {
+                changed.add(summary.className)
+            }
+        }
+        for ((entryName, plannedClass) in previous) {
+            if (entryName !in summaries) {
+                changed.add(plannedClass.className)
+                changed.addAll(plannedClass.supertypes)
+            }
+        }
+        val invalid = invalidatedBy(changed, summaries)
+
+        val deleteAnnotation = descriptorsForDelete.firstOrNull()
+        val stubAnnotation = descriptorsForStub.firstOrNull()
+        val planned = LinkedHashSet<String>()
+        for ((entryName, summary) in summaries) {
+            val plannedClass = previous[entryName]
+            if (plannedClass?.isFiltered != true || entryName in invalid || entryName in reused) {
+                continue
+            }
+            val className = summary.className
+            if (plannedClass.isUnwanted) {
+                unwantedElements.addClass(className)
+            }
+            plannedClass.deletedMethods.forEach { method -> unwantedElements.addMethod(className, method) }
+
+            val imported = initialUnwanted.computeIfAbsent(className) { mutableListOf() }
+            if (deleteAnnotation != null) {
+                plannedClass.deletedMethods.mapTo(imported) { method -> deleteAnnotation to method }
+            }
+            if (stubAnnotation != null) {
+                plannedClass.stubbedMethods.mapTo(imported) { method -> stubAnnotation to method }
+            }
+            planned.add(className)
+        }
+        logger.info("Imported {} of {} classes from section {} of {}", planned.size, summaries.size, section.source, planFile)
+        return planned
+    }
+
+    /**
+     * Reuses the previous result for every class which is unchanged since the last run, unless it
+     * refers to a class that has changed, either directly or indirectly. The reused classes' facts
+     * are added to the [UnwantedCache]. Returns the reused classes' entry names.
+     */
+    private fun reuseCached(
+        cache: FilterCache,
+        classes: ClassStore,
+        summaries: Map<String, ConstantPoolSummary>,
+        hashes: Map<String, String>
+    ): Set<String> {
+        val previous = try {
+            cache.load()
+        } catch (e: IOException) {
+            logger.warn("Ignoring unreadable JarFilter cache: {}", e.message)
+            emptyMap<String, CachedClass>()
+        }
+
+        val changed = HashSet<String>()
+        for ((entryName, summary) in summaries) {
+            if (previous[entryName]?.hash != hashes[entryName]) {
+                changed.add(summary.className)
+            }
+        }
+        for ((entryName, cached) in previous) {
+            if (entryName !in summaries) {
+                changed.add(cached.className)
+                changed.addAll(cached.supertypes)
+            }
+        }
+
+        val invalid = invalidatedBy(changed, summaries)
+
+        val reused = LinkedHashSet<String>()
+        for ((entryName, summary) in summaries) {
+            val cached = previous[entryName]
+            if (cached == null || entryName in invalid) {
+                continue
+            }
+            cached.data?.also { classes[entryName] = it }
+            if (cached.isUnwanted) {
+                unwantedElements.addClass(summary.className)
+            }
+            cached.unwantedMethods.forEach { method -> unwantedElements.addMethod(summary.className, method) }
+            cached.stubbedMethods.forEach { method -> unwantedElements.addStubbedMethod(summary.className, method) }
+            reused.add(entryName)
+        }
+        logger.info("Reused {} of {} classes from the cache", reused.size, summaries.size)
+        return reused
+    }
+
+    /**
+     * Everything that these changed classes could affect must be filtered again.
+     * Returns the entry names of those classes, which refer to a changed class
+     * either directly or indirectly.
+     */
+    private fun invalidatedBy(changed: Collection<String>, summaries: Map<String, ConstantPoolSummary>): Set<String> {
+        val invalid = HashSet<String>()
+        var affecting: Collection<String> = changed
+        while (affecting.isNotEmpty()) {
+            val next = HashSet<String>()
+            for (entryName in index.affectedBy(affecting)) {
+                if (invalid.add(entryName)) {
+                    summaries[entryName]?.also { next.add(it.className) }
+                }
+            }
+            affecting = next
+        }
+        return invalid
+    }
+
+    /**
+     * Replaces the byte-code of each of these classes in the [ClassStore]. Each class is
+     * read from and written back to the store on this thread, although a parallel pass
+     * will leave the executor to transform the byte-code itself. The [transform] returns
+     * the same byte array if the class has not changed, which we don't write back.
+     */
+    private fun transformAll(classes: ClassStore, entryNames: List<String>, pass: PassReport, transform: (ByteArray) -> ByteArray) {
+        val executor = if (params.parallel) executor else null
+        if (executor == null) {
+            for (entryName in entryNames) {
+                val classData = classes[entryName]
+                val newData = transform(classData)
+                pass.record(classData, newData)
+                if (newData !== classData) {
+                    classes[entryName] = newData
+                }
+            }
+        } else {
+            OrderedPipeline<String, ByteArray?>(executor, params.maxInFlight, { entryName ->
+                val classData = classes[entryName]
+                Callable {
+                    val newData = report.measureCpu(Phase.TRANSFORM) { transform(classData) }
+                    pass.record(classData, newData)
+                    newData.takeUnless { it === classData }
+                }
+            }, { entryName, newData ->
+                if (newData != null) {
+                    classes[entryName] = newData
+                }
+            }).run(entryNames.iterator())
+        }
+    }
+
+    /**
+     * Reduces every filtered class to its ABI. The anonymous, local and synthetic classes
+     * are deleted too, unless they belong to an inline function. The Kotlin compiler may
+     * need to copy such classes when it inlines the function, and so we keep them as they
+     * are. This also keeps any non-API classes that these classes own in turn.
+     */
+    private fun reduceToAbi(classes: ClassStore, summaries: Map<String, ConstantPoolSummary>) {
+        val nonApiOwners: MutableMap<String, Pair<String, MethodElement?>> = ConcurrentHashMap()
+        val inlineMethods: MutableMap<String, Set<MethodElement>> = ConcurrentHashMap()
+        transformAll(classes, classes.names.filterNot(classes::isDeleted), report.startPass("abi")) { inBytes ->
+            /*
+             * Don't share the reader's constant pool, which still
+             * contains everything that the method bodies used.
+             */
+            val reader = ClassReader(inBytes)
+            val writer = ClassWriter(COMPUTE_MAXS)
+            val transformer = AbiTransformer(writer, logger, metadataCache, trace)
+            reader.accept(transformer, FILTER_FLAGS)
+            if (transformer.hasInlineFunctions) {
+                inlineMethods[transformer.className] = transformer.inlineMethods
+            }
+
+            val owner = transformer.nonApiOwner
+            if (owner == null) {
+                writer.toByteArray()
+            } else {
+                // Leave this class alone until we know whether to delete it.
+                nonApiOwners[transformer.className] = Pair(owner, transformer.enclosingMethod)
+                inBytes
+            }
+        }
+
+        for ((entryName, summary) in summaries) {
+            val className = summary.className
+            if (className in nonApiOwners && !classes.isDeleted(entryName) && !isInlined(className, nonApiOwners, inlineMethods)) {
+                logger.info("Deleting non-API class {}", className)
+                classes[entryName] = byteArrayOf()
+            }
+        }
+    }
+
+    /**
+     * A class without an enclosing method could belong to any of its owner's functions.
+     */
+    private fun isInlined(
+        className: String,
+        nonApiOwners: Map<String, Pair<String, MethodElement?>>,
+        inlineMethods: Map<String, Set<MethodElement>>,
+        visited: MutableSet<String> = HashSet()
+    ): Boolean {
+        val (owner, enclosingMethod) = nonApiOwners[className] ?: return false
+        val ownerInlineMethods = inlineMethods[owner]
+        return if (ownerInlineMethods != null && (enclosingMethod == null || enclosingMethod in ownerInlineMethods)) {
+            true
+        } else {
+            visited.add(owner) && isInlined(owner, nonApiOwners, inlineMethods, visited)
+        }
+    }
+
+    /**
+     * Deflates the filtered JAR's entries exactly once, after all of the passes have finished.
+     * Only those classes which have actually changed need compressing again, unless we are
+     * also fixing their [kotlin.Metadata]. We fix the filtered byte-code in memory, exactly
+     * as [MetaFixerTask] would have fixed it after reading it back from the filtered JAR.
+     */
+    private fun write(inJar: ZipFile, rawJar: RawZipFile, classes: ClassStore) {
+        val classNames = if (fixMetadata) {
+            remainingClassNames(inJar.entries().asSequence().filterNot(ZipEntry::isDirectory).map(ZipEntry::getName), classes)
+        } else {
+            emptySet()
+        }
+        val deflateExecutor = if (params.parallelDeflate) executor else null
+        val outJar = JarWriter(target, params.compression, deflateExecutor, params.maxInFlight)
+        outJar.use {
+            outJar.comment = inJar.comment
+            for (entry in inJar.entries()) {
+                val classData = if (entry.isClass) filteredClass(entry.name, classes, classNames) else null
+                outJar.writeEntry(inJar, rawJar, entry, classData)
+            }
+        }
+        report.addCpuTime(Phase.DEFLATE, outJar.executorCpuTime)
+    }
+
+    /**
+     * Writes the filtered directory's files, exactly as we would have written the filtered JAR's entries.
+     * The target directory is updated in place, and so we only rewrite those files which have changed
+     * since the last time that we filtered this directory.
+     */
+    private fun write(entryNames: List<String>, classes: ClassStore) {
+        val classNames = if (fixMetadata) remainingClassNames(entryNames.asSequence(), classes) else emptySet()
+        target.retainEntries(entryNames.filterNotTo(HashSet()) { entryName ->
+            entryName.endsWith(".class") && classes.isDeleted(entryName)
+        })
+
+        var updatedCount = 0
+        for (entryName in entryNames) {
+            val classData = if (entryName.endsWith(".class")) filteredClass(entryName, classes, classNames) else null
+            val sourceFile = source.resolve(entryName)
+            val targetFile = target.resolve(entryName)
+            if (classData == null) {
+                // This file is not filtered, and so only needs copying if its target is out of date.
+                if (sourceFile.updateCopy(targetFile, preserveTimestamps, params.hardLinks)) {
+                    ++updatedCount
+                }
+            } else if (classData.isNotEmpty()) {
+                if (targetFile.updateContents(classData)) {
+                    ++updatedCount
+                }
+                targetFile.setFileTimestamp(sourceFile, preserveTimestamps)
+            }
+        }
+        logger.info("Updated {} of {} files in {}", updatedCount, entryNames.size, target)
+    }
+
+    /**
+     * Returns this class's filtered byte-code, which is empty if we have deleted
+     * the class, or null if the class can be copied without changing it.
+     */
+    private fun filteredClass(entryName: String, classes: ClassStore, classNames: Set<String>): ByteArray? {
+        return when {
+            fixMetadata -> classes[entryName].let { data ->
+                if (data.isEmpty()) {
+                    data
+                } else {
+                    // Copy a class that neither the filter nor the metadata fixer changed.
+                    report.measure(Phase.METADATA) { data.fixMetadata(logger, classNames, trace) }
+                        .takeUnless { it === data && !classes.isModified(entryName) }
+                }
+            }
+            classes.isModified(entryName) -> classes[entryName]
+            else -> null
+        }
+    }
+
+    /**
+     * The names of the classes that we have not deleted, which
+     * are those that [MetaFixerTask] would find in the filtered JAR.
+     */
+    private fun remainingClassNames(entryNames: Sequence<String>, classes: ClassStore): Set<String> {
+        return entryNames
+            .filter { entryName -> entryName.endsWith(".class") && !classes.isDeleted(entryName) }
+            .mapTo(LinkedHashSet()) { entryName -> entryName.dropLast(".class".length) }
+    }
+
+    /**
+     * Filters the JAR's classes repeatedly until they stop changing. The first pass
+     * visits the [candidates], but each later pass only revisits those classes that
+     * refer to something which the previous pass added to the [UnwantedCache]. The
+     * classes are held in the [ClassStore] between passes.
+     *
+     * The first pass also sanitises each class's primary constructor before filtering
+     * it, which records any synthetic constructors in [initialUnwanted] in time for the
+     * [FilterTransformer] to import them for the same class.
+     */
+    private inner class Worklist(private val classes: ClassStore, private val candidates: List<String>) {
+        fun run() {
+            val maxPasses = max(params.maxPasses, 1)
+            var pending: List<String> = candidates
+            var passes = 1
+            while (true) {
+                verbose("Pass {}: {} classes", passes, pending.size)
+                val isFirstPass = passes == 1
+                val pass = report.startPass("filter")
+                transformAll(classes, pending, pass) { inBytes -> transform(inBytes, isFirstPass, pass) }
+
+                val affected = index.affectedBy(unwantedElements.drainChanges())
+                pending = classes.names.filter { it in affected && !classes.isDeleted(it) }
+                if (pending.isEmpty()) {
+                    logger.info("No changes after latest pass - exiting.")
+                    break
+                } else if (++passes > maxPasses) {
+                    if (params.parallel) {
+                        /*
+                         * A parallel pass lets each class see what the other classes have
+                         * just discovered, and so we cannot tell which changes would still
+                         * be missing. Only the converged result is reproducible.
+                         */
+                        throw InvalidUserDataException("Exceeded maximum number of passes ($maxPasses) "
+                            + "while ${pending.size} classes were still changing. A parallel filter must "
+                            + "converge to be reproducible, so increase maxPasses or disable parallel.")
+                    }
+                    logger.warn("Exceeded maximum number of passes ({}) - aborting!", maxPasses)
+                    break
+                }
+            }
+        }
+
+        /**
+         * Returns [inBytes] itself if the class does not need changing. Otherwise the
+         * writer shares the reader's constant pool, which allows it to copy any method
+         * that the transformer passes through untouched.
+         */
+        private fun transform(inBytes: ByteArray, isFirstPass: Boolean, pass: PassReport): ByteArray {
+            var reader = ClassReader(inBytes)
+            var writer = ClassWriter(reader, COMPUTE_MAXS)
+            var transformer = FilterTransformer(
+                visitor = writer,
+                logger = logger,
+                importExtra = { className -> initialUnwanted.remove(className) },
+                removeAnnotations = descriptorsForRemove,
+                deleteAnnotations = descriptorsForDelete,
+                stubAnnotations = descriptorsForStub,
+                unwantedElements = unwantedElements,
+                metadataCache = metadataCache,
+                trace = trace
+            )
+
+            val sanitiser = if (isFirstPass && descriptorsForSanitising.isNotEmpty()) {
+                SanitisingTransformer(transformer, logger, descriptorsForSanitising, initialUnwanted, metadataCache, trace)
+            } else {
+                null
+            }
+
+            /*
+             * First pass: This might not find anything to remove!
+             */
+            reader.accept(sanitiser ?: transformer, FILTER_FLAGS)
+            pass.record(transformer)
+
+            if (transformer.isUnwantedClass || transformer.hasUnwantedElements) {
+                do {
+                    /*
+                     * Rewrite the class without any of the unwanted elements.
+                     * If we're deleting the class then make sure we identify all of
+                     * its inner classes too, for the next filter pass to delete.
+                     */
+                    reader = ClassReader(writer.toByteArray())
+                    writer = ClassWriter(reader, COMPUTE_MAXS)
+                    transformer = transformer.recreate(writer)
+                    reader.accept(transformer, FILTER_FLAGS)
+                    pass.record(transformer)
+                } while (!transformer.isUnwantedClass && transformer.hasUnwantedElements)
+            } else if (!transformer.isModified && sanitiser?.isModified != true) {
+                // Nothing has changed, so keep the original byte-code.
+                return inBytes
+            }
+
+            return if (transformer.isUnwantedClass) {
+                // The entire class is unwanted, so don't write it out.
+                logger.info("Deleting class {}", transformer.className)
+                byteArrayOf()
+            } else {
+                writer.toByteArray()
+            }
+        }
+    }
+
+    private fun verbose(format: String, vararg objects: Any) {
+        if (params.verbose) {
+            logger.info(format, *objects)
+        }
+    }
+
+    private fun JarWriter.writeEntry(inJar: ZipFile, rawJar: RawZipFile, entry: ZipEntry, classData: ByteArray?) {
+        if (classData == null) {
+            // This entry's byte contents have not changed,
+            // and so can be copied without recompressing them.
+            copy(inJar, rawJar, ZipEntry(entry).withFileTimestamps(preserveTimestamps))
+        } else if (classData.isNotEmpty()) {
+            // This entry's byte contents have almost certainly
+            // changed, and will be stored compressed.
+            write(entry.asCompressed().withFileTimestamps(preserveTimestamps), classData)
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package net.corda.gradle.jarfilter
+
+import java.io.File
+import java.lang.management.ManagementFactory
+import java.lang.management.ThreadMXBean
+import java.nio.file.Files
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * The phases of processing a JAR that a [JarReport] measures. The
+ * [DEFLATE] phase includes writing the target JAR or directory.
+ */
+enum class Phase(val key: String) {
+    READ("read"),
+    TRANSFORM("transform"),
+    METADATA("metadata"),
+    DEFLATE("deflate")
+}
+
+/**
+ * What one pass over a JAR's classes did. A parallel pass updates these counters
+ * from several threads. The bytes out include those classes that did not change,
+ * but not those that the pass deleted.
+ */
+class PassReport(private val number: Int, private val kind: String) {
+    val classesVisited = LongAdder()
+    val classesRewritten = LongAdder()
+    val classesDeleted = LongAdder()
+    val fieldsDeleted = LongAdder()
+    val methodsDeleted = LongAdder()
+    val methodsStubbed = LongAdder()
+    val bytesIn = LongAdder()
+    val bytesOut = LongAdder()
+
+    fun record(inBytes: ByteArray, outBytes: ByteArray) {
+        classesVisited.increment()
+        bytesIn.add(inBytes.size.toLong())
+        bytesOut.add(outBytes.size.toLong())
+        if (outBytes.isEmpty()) {
+            classesDeleted.increment()
+        } else if (outBytes !== inBytes) {
+            classesRewritten.increment()
+        }
+    }
+
+    fun record(transformer: FilterTransformer) {
+        fieldsDeleted.add(transformer.deletedFieldCount.toLong())
+        methodsDeleted.add(transformer.deletedMethodCount.toLong())
+        methodsStubbed.add(transformer.stubbedMethodCount.toLong())
+    }
+
+    fun toJson(): RawJson = jsonObject(
+        "pass" to number,
+        "kind" to kind,
+        "classesVisited" to classesVisited.sum(),
+        "classesRewritten" to classesRewritten.sum(),
+        "classesDeleted" to classesDeleted.sum(),
+        "fieldsDeleted" to fieldsDeleted.sum(),
+        "methodsDeleted" to methodsDeleted.sum(),
+        "methodsStubbed" to methodsStubbed.sum(),
+        "bytesIn" to bytesIn.sum(),
+        "bytesOut" to bytesOut.sum()
+    )
+}
+
+/**
+ * Records what [JarFilterWork] or [MetaFixWork] did to a single JAR, pass by pass,
+ * and how long it spent in each [Phase]. Its task collects these reports into a
+ * single JSON file next to its outputs.
+ *
+ * The wall time is measured on the worker's own thread, where a nested phase pauses
+ * the phase around it. The CPU time also includes whatever the other threads spent,
+ * e.g. transforming classes or compressing entries in parallel.
+ */
+class JarReport(private val source: File, private val target: File) {
+    private val passes = ArrayList<PassReport>()
+    private val wallNanos = LongArray(Phase.values().size)
+    private val cpuNanos = Array(Phase.values().size) { LongAdder() }
+    private var current: Phase? = null
+    private var wallStart: Long = 0
+    private var cpuStart: Long = 0
+
+    var bytesIn: Long = 0
+    var bytesOut: Long = 0
+
+    fun startPass(kind: String): PassReport {
+        return PassReport(passes.size + 1, kind).also { passes.add(it) }
+    }
+
+    /**
+     * Measures this [phase] on the worker's own thread.
+     */
+    fun <T> measure(phase: Phase, block: () -> T): T {
+        val outer = current
+        switchTo(phase)
+        try {
+            return block()
+        } finally {
+            switchTo(outer)
+        }
+    }
+
+    /**
+     * Measures only the CPU time that another thread spends on this [phase].
+     */
+    fun <T> measureCpu(phase: Phase, block: () -> T): T {
+        val start = currentThreadCpuTime()
+        try {
+            return block()
+        } finally {
+            addCpuTime(phase, currentThreadCpuTime() - start)
+        }
+    }
+
+    fun addCpuTime(phase: Phase, nanos: Long) {
+        cpuNanos[phase.ordinal].add(nanos)
+    }
+
+    private fun switchTo(next: Phase?) {
+        val wallNow = System.nanoTime()
+        val cpuNow = currentThreadCpuTime()
+        current?.also { phase ->
+            wallNanos[phase.ordinal] += wallNow - wallStart
+            cpuNanos[phase.ordinal].add(cpuNow - cpuStart)
+        }
+        current = next
+        wallStart = wallNow
+        cpuStart = cpuNow
+    }
+
+    fun toJson(): RawJson = jsonObject(
+        "source" to source.name,
+        "target" to target.name,
+        "bytesIn" to bytesIn,
+        "bytesOut" to bytesOut,
+        "passes" to passes.map(PassReport::toJson),
+        "phases" to jsonObject(*Phase.values().map { phase ->
+            phase.key to jsonObject(
+                "wallNanos" to wallNanos[phase.ordinal],
+                "cpuNanos" to cpuNanos[phase.ordinal].sum()
+            )
+        }.toTypedArray())
+    )
+
+    fun writeTo(file: File) {
+        Files.write(file.toPath(), toJson().json.toByteArray(Charsets.UTF_8))
+    }
+}
+
+private val threads: ThreadMXBean = ManagementFactory.getThreadMXBean()
+private val isCpuTimeSupported = threads.isCurrentThreadCpuTimeSupported
+
+/**
+ * This thread's CPU time in nanoseconds, or zero if the JVM cannot measure it.
+ */
+fun currentThreadCpuTime(): Long = if (isCpuTimeSupported) threads.currentThreadCpuTime else 0
+
+/**
+ * The combined report for a task, which contains each of the reports
+ * that its units of work have written into these [jarReports] files.
+ */
+fun writeTaskReport(target: File, taskPath: String, jarReports: List<File>) {
+    val report = jsonObject(
+        "task" to taskPath,
+        "jars" to jarReports.filter(File::isFile).map { RawJson(String(Files.readAllBytes(it.toPath()), Charsets.UTF_8)) }
+    )
+    Files.createDirectories(target.toPath().toAbsolutePath().parent)
+    Files.write(target.toPath(), report.json.toByteArray(Charsets.UTF_8))
+}
+
+/**
+ * JSON that has already been written, e.g. by [jsonObject].
+ */
+class RawJson(val json: String)
+
+/**
+ * Writes a JSON object with these members, whose values are strings, numbers, [RawJson]
+ * or lists of these. We only need to write these few kinds of value.
+ */
+fun jsonObject(vararg members: Pair<String, Any>): RawJson {
+    return RawJson(members.joinToString(separator = ",", prefix = "{", postfix = "}") { (name, value) ->
+        "${name.toJsonString()}:${value.toJsonValue()}"
+    })
+}
+
+private fun Any?.toJsonValue(): String = when (this) {
+    null -> "null"
+    is Number -> toString()
+    is RawJson -> json
+    is List<*> -> this.joinToString(separator = ",", prefix = "[", postfix = "]") { it.toJsonValue() }
+    else -> toString().toJsonString()
+}
+
+private fun String.toJsonString(): String {
+    val builder = StringBuilder(length + 2).append('"')
+    for (ch in this) {
+        when (ch) {
+            '"' -> builder.append("\\\"")
+            '\\' -> builder.append("\\\\")
+            '\n' -> builder.append("\\n")
+            '\r' -> builder.append("\\r")
+            '\t' -> builder.append("\\t")
+            else -> if (ch < ' ') {
+                builder.append(String.format("\\u%04x", ch.toInt()))
+            } else {
+                builder.append(ch)
+            }
+        }
+    }
+    return builder.append('"').toString()
+}
@@ -0,0 +1,385 @@
+package net.corda.gradle.jarfilter
+
+import java.io.ByteArrayOutputStream
+import java.io.Closeable
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.ByteOrder.LITTLE_ENDIAN
+import java.nio.channels.FileChannel
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption.CREATE
+import java.nio.file.StandardOpenOption.TRUNCATE_EXISTING
+import java.nio.file.StandardOpenOption.WRITE
+import java.nio.file.attribute.FileTime
+import java.time.Instant
+import java.time.LocalDateTime
+import java.time.ZoneId
+import java.util.ArrayDeque
+import java.util.concurrent.Callable
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.TimeUnit.SECONDS
+import java.util.concurrent.atomic.LongAdder
+import java.util.zip.CRC32
+import java.util.zip.Deflater
+import java.util.zip.DeflaterOutputStream
+import java.util.zip.ZipEntry
+import java.util.zip.ZipEntry.DEFLATED
+import java.util.zip.ZipEntry.STORED
+import java.util.zip.ZipException
+import java.util.zip.ZipFile
+import kotlin.math.max
+
+/**
+ * Writes a JAR file, like [java.util.zip.ZipOutputStream] except that it can also
+ * copy an entry's compressed bytes directly from another ZIP file. This means that
+ * only those entries whose byte contents have actually changed need compressing.
+ *
+ * Each entry's timestamps are written as both an MS-DOS date and time and as an
+ * "extended timestamp" extra field, which is how [java.util.zip.ZipOutputStream]
+ * writes them too.
+ *
+ * Given an [executor], the writer compresses entries concurrently but still writes
+ * them in order. At most [maxPending] entries may be waiting to be written at once.
+ * A [Deflater] produces the same bytes for the same input and level on any thread,
+ * and so the JAR is identical either way.
+ */
+class JarWriter(
+    target: Path,
+    private val compression: Compression,
+    private val executor: ExecutorService? = null,
+    maxPending: Int = DEFAULT_MAX_PENDING
+) : Closeable {
+    private companion object {
+        private const val LOCSIG = 0x04034b50
+        private const val CENSIG = 0x02014b50
+        private const val ENDSIG = 0x06054b50
+        private const val ZIP64_ENDSIG = 0x06064b50
+        private const val ZIP64_LOCSIG = 0x07064b50
+        private const val LOCHDR = 30
+        private const val CENHDR = 46
+        private const val ENDHDR = 22
+        private const val ZIP64_ENDHDR = 56
+        private const val ZIP64_LOCHDR = 20
+        private const val ZIP64_MAGICVAL = 0xFFFFFFFFL
+        private const val ZIP64_MAGICCOUNT = 0xFFFF
+        private const val ZIP64_VERSION = 45
+        private const val UTF8_FLAG = 0x0800
+        private const val BUFFER_SIZE = 8192
+        private const val DEFAULT_MAX_PENDING = 256
+
+        private const val EXTID_ZIP64 = 0x0001
+        private const val EXTID_NTFS = 0x000a
+        private const val EXTID_EXTT = 0x5455
+        private const val EXTT_FLAG_LMT = 0x1
+        private const val EXTT_FLAG_LAT = 0x2
+        private const val EXTT_FLAG_CT = 0x4
+        private const val UPPER_UNIXTIME_BOUND = 0x7fffffffL
+
+        // MS-DOS cannot represent dates before 1980.
+        private const val DOSTIME_BEFORE_1980 = (1 shl 21) or (1 shl 16)
+    }
+
+    /**
+     * An entry's contents, ready to be written.
+     */
+    private class Compressed(val method: Int, val crc: Long, val size: Long, val bytes: ByteArray)
+
+    private val channel: FileChannel = FileChannel.open(target, CREATE, TRUNCATE_EXISTING, WRITE)
+    private val deflaters = ConcurrentLinkedQueue<Deflater>()
+    private val centralDirectory = ByteArrayOutputStream()
+    private val maxPending = max(maxPending, 1)
+    private val pending = ArrayDeque<() -> Unit>()
+    private var entryCount = 0L
+    private val parallelCpuTime = LongAdder()
+
+    var comment: String? = null
+
+    /**
+     * The CPU time in nanoseconds that the [executor]'s threads have spent compressing entries.
+     */
+    val executorCpuTime: Long get() = parallelCpuTime.sum()
+
+    /**
+     * Copies [entry] from [inJar] without changing its byte contents. The entry's
+     * compressed bytes are transferred "as is" whenever [rawJar] can locate them,
+     * and are only inflated and compressed again otherwise.
+     */
+    @Throws(IOException::class)
+    fun copy(inJar: ZipFile, rawJar: RawZipFile, entry: ZipEntry) {
+        val raw = rawJar[entry.name]
+        if (raw == null) {
+            write(entry, inJar.getInputStream(entry).use { it.readBytes() })
+        } else if (pending.isEmpty()) {
+            transfer(entry, rawJar, raw)
+        } else {
+            enqueue { transfer(entry, rawJar, raw) }
+        }
+    }
+
+    /**
+     * Writes [data] as the byte contents of [entry], compressing them unless
+     * either the entry's method or our [compression] is [ZipEntry.STORED].
+     */
+    @Throws(IOException::class)
+    fun write(entry: ZipEntry, data: ByteArray) {
+        val executor = executor
+        if (executor == null) {
+            write(entry, compress(entry, data))
+        } else {
+            val compressed = executor.submit(Callable {
+                val start = currentThreadCpuTime()
+                try {
+                    compress(entry, data)
+                } finally {
+                    parallelCpuTime.add(currentThreadCpuTime() - start)
+                }
+            })
+            enqueue {
+                write(entry, try {
+                    compressed.get()
+                } catch (e: ExecutionException) {
+                    throw e.cause ?: e
+                })
+            }
+        }
+    }
+
+    private fun compress(entry: ZipEntry, data: ByteArray): Compressed {
+        val crc = CRC32().apply { update(data) }.value
+        return if (entry.method == STORED || compression == Compression.STORED) {
+            Compressed(STORED, crc, data.size.toLong(), data)
+        } else {
+            // Each thread borrows its own deflater, and then returns it for reuse.
+            val deflater = deflaters.poll() ?: Deflater(compression.level, true)
+            try {
+                val compressed = ByteArrayOutputStream(data.size / 2 + 64)
+                DeflaterOutputStream(compressed, deflater, BUFFER_SIZE).apply {
+                    write(data)
+                    finish()
+                }
+                Compressed(DEFLATED, crc, data.size.toLong(), compressed.toByteArray())
+            } finally {
+                deflater.reset()
+                deflaters.offer(deflater)
+            }
+        }
+    }
+
+    private fun write(entry: ZipEntry, compressed: Compressed) {
+        writeHeaders(entry, compressed.method, compressed.crc, compressed.bytes.size.toLong(), compressed.size)
+        writeFully(compressed.bytes)
+    }
+
+    private fun transfer(entry: ZipEntry, rawJar: RawZipFile, raw: RawZipFile.Entry) {
+        writeHeaders(entry, raw.method, raw.crc, raw.compressedSize, raw.size)
+        rawJar.transferTo(raw, channel)
+    }
+
+    /**
+     * Queues an entry to be written after those before it,
+     * and writes the oldest entries if too many are waiting.
+     */
+    private fun enqueue(writer: () -> Unit) {
+        pending.addLast(writer)
+        flush(maxPending)
+    }
+
+    private fun flush(limit: Int) {
+        while (pending.size > limit) {
+            pending.removeFirst().invoke()
+        }
+    }
+
+    @Throws(IOException::class)
+    override fun close() {
+        try {
+            flush(0)
+
+            val centralOffset = channel.position()
+            val centralSize = centralDirectory.size().toLong()
+            writeFully(centralDirectory.toByteArray())
+
+            val isZip64 = entryCount >= ZIP64_MAGICCOUNT || centralOffset >= ZIP64_MAGICVAL || centralSize >= ZIP64_MAGICVAL
+            if (isZip64) {
+                val recordOffset = channel.position()
+                writeFully(header(ZIP64_ENDHDR + ZIP64_LOCHDR) {
+                    putInt(ZIP64_ENDSIG)
+                    putLong((ZIP64_ENDHDR - 12).toLong())
+                    putShort(ZIP64_VERSION.toShort())
+                    putShort(ZIP64_VERSION.toShort())
+                    putInt(0)
+                    putInt(0)
+                    putLong(entryCount)
+                    putLong(entryCount)
+                    putLong(centralSize)
+                    putLong(centralOffset)
+
+                    putInt(ZIP64_LOCSIG)
+                    putInt(0)
+                    putLong(recordOffset)
+                    putInt(1)
+                })
+            }
+
+            val commentBytes = comment?.toByteArray(Charsets.UTF_8) ?: ByteArray(0)
+            writeFully(header(ENDHDR + commentBytes.size) {
+                putInt(ENDSIG)
+                putShort(0)
+                putShort(0)
+                putShort(if (isZip64) ZIP64_MAGICCOUNT.toShort() else entryCount.toShort())
+                putShort(if (isZip64) ZIP64_MAGICCOUNT.toShort() else entryCount.toShort())
+                putInt(if (isZip64) ZIP64_MAGICVAL.toInt() else centralSize.toInt())
+                putInt(if (isZip64) ZIP64_MAGICVAL.toInt() else centralOffset.toInt())
+                putShort(commentBytes.size.toShort())
+                put(commentBytes)
+            })
+        } finally {
+            pending.clear()
+            deflaters.forEach(Deflater::end)
+            channel.close()
+        }
+    }
+
+    private fun writeHeaders(entry: ZipEntry, method: Int, crc: Long, compressedSize: Long, size: Long) {
+        val offset = channel.position()
+        if (compressedSize >= ZIP64_MAGICVAL || size >= ZIP64_MAGICVAL || offset >= ZIP64_MAGICVAL) {
+            throw ZipException("Entry ${entry.name} needs ZIP64 extensions, which are not supported")
+        }
+        val version = if (method == STORED) 10 else 20
+        val dosTime = toDosTime(entry.lastModifiedTime)
+        val name = entry.name.toByteArray(Charsets.UTF_8)
+        val comment = entry.comment?.toByteArray(Charsets.UTF_8) ?: ByteArray(0)
+        val extra = entry.extra?.withoutTimestamps() ?: ByteArray(0)
+        val lastModified = entry.lastModifiedTime?.toUnixTime()
+        val lastAccess = entry.lastAccessTime?.toUnixTime()
+        val creation = entry.creationTime?.toUnixTime()
+        val timeFlags = (if (lastModified != null) EXTT_FLAG_LMT else 0) or
+                (if (lastAccess != null) EXTT_FLAG_LAT else 0) or
+                (if (creation != null) EXTT_FLAG_CT else 0)
+
+        // The local header contains all three timestamps.
+        val localTimes = listOfNotNull(lastModified, lastAccess, creation)
+        val localExtraSize = extra.size + if (timeFlags == 0) 0 else 5 + 4 * localTimes.size
+        writeFully(header(LOCHDR + name.size + localExtraSize) {
+            putInt(LOCSIG)
+            putShort(version.toShort())
+            putShort(UTF8_FLAG.toShort())
+            putShort(method.toShort())
+            putInt(dosTime)
+            putInt(crc.toInt())
+            putInt(compressedSize.toInt())
+            putInt(size.toInt())
+            putShort(name.size.toShort())
+            putShort(localExtraSize.toShort())
+            put(name)
+            if (timeFlags != 0) {
+                putShort(EXTID_EXTT.toShort())
+                putShort((1 + 4 * localTimes.size).toShort())
+                put(timeFlags.toByte())
+                localTimes.forEach { putInt(it.toInt()) }
+            }
+            put(extra)
+        })
+
+        // The central header contains only the last-modified timestamp.
+        val centralExtraSize = extra.size + when {
+            timeFlags == 0 -> 0
+            lastModified == null -> 5
+            else -> 9
+        }
+        centralDirectory.write(header(CENHDR + name.size + centralExtraSize + comment.size) {
+            putInt(CENSIG)
+            putShort(version.toShort())
+            putShort(version.toShort())
+            putShort(UTF8_FLAG.toShort())
+            putShort(method.toShort())
+            putInt(dosTime)
+            putInt(crc.toInt())
+            putInt(compressedSize.toInt())
+            putInt(size.toInt())
+            putShort(name.size.toShort())
+            putShort(centralExtraSize.toShort())
+            putShort(comment.size.toShort())
+            putShort(0)
+            putShort(0)
+            putInt(0)
+            putInt(offset.toInt())
+            put(name)
+            if (timeFlags != 0) {
+                putShort(EXTID_EXTT.toShort())
+                if (lastModified == null) {
+                    putShort(1)
+                    put(timeFlags.toByte())
+                } else {
+                    putShort(5)
+                    put(timeFlags.toByte())
+                    putInt(lastModified.toInt())
+                }
+            }
+            put(extra)
+            put(comment)
+        })
+        ++entryCount
+    }
+
+    private inline fun header(size: Int, build: ByteBuffer.() -> Unit): ByteArray {
+        return ByteArray(size).also { bytes ->
+            ByteBuffer.wrap(bytes).order(LITTLE_ENDIAN).build()
+        }
+    }
+
+    private fun writeFully(bytes: ByteArray) {
+        val buffer = ByteBuffer.wrap(bytes)
+        while (buffer.hasRemaining()) {
+            channel.write(buffer)
+        }
+    }
+
+    /**
+     * Removes any existing timestamp fields, because
+     * we will write our own from the [ZipEntry].
+     */
+    private fun ByteArray.withoutTimestamps(): ByteArray {
+        val buffer = ByteBuffer.wrap(this).order(LITTLE_ENDIAN)
+        val result = ByteArrayOutputStream(size)
+        var index = 0
+        while (index + 4 <= size) {
+            val tag = buffer.getShort(index).toInt() and 0xFFFF
+            val length = 4 + (buffer.getShort(index + 2).toInt() and 0xFFFF)
+            if (index + length > size) {
+                break
+            }
+            if (tag != EXTID_EXTT && tag != EXTID_NTFS && tag != EXTID_ZIP64) {
+                result.write(this, index, length)
+            }
+            index += length
+        }
+        return result.toByteArray()
+    }
+
+    /**
+     * Timestamps that an "extended timestamp" field cannot hold
+     * are omitted, leaving only the MS-DOS date and time.
+     */
+    private fun FileTime.toUnixTime(): Long? {
+        val seconds = to(SECONDS)
+        return if (seconds in 0..UPPER_UNIXTIME_BOUND) seconds else null
+    }
+
+    private fun toDosTime(time: FileTime?): Int {
+        val millis = time?.toMillis() ?: System.currentTimeMillis()
+        val date = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault())
+        val year = date.year - 1980
+        return when {
+            year < 0 -> DOSTIME_BEFORE_1980
+            else -> (minOf(year, 127) shl 25) or
+                    (date.monthValue shl 21) or
+                    (date.dayOfMonth shl 16) or
+                    (date.hour shl 11) or
+                    (date.minute shl 5) or
+                    (date.second shr 1)
+        }
+    }
+}
@@ -30,6 +30,7 @@ abstract class KotlinAwareVisitor(
     @JvmField protected val kotlinMetadata: MutableMap<String, Array<String>>
 ) : ClassVisitor(api, visitor) {
 
+    private var metadataOwner: String = ""
     private var classKind: Int = 0
     private var extraInt: Int? = null
     private var extraString: String? = null
@@ -39,11 +40,17 @@ abstract class KotlinAwareVisitor(
 
     open val hasUnwantedElements: Boolean get() = kotlinMetadata.isNotEmpty()
     protected open val level: LogLevel = LogLevel.INFO
+    protected open val metadataCache: MetadataCache? get() = null
 
     protected abstract fun processClassMetadata(kmClass: KmClass): KmClass?
     protected abstract fun processPackageMetadata(kmPackage: KmPackage): KmPackage?
     protected abstract fun processKotlinAnnotation()
 
+    override fun visit(version: Int, access: Int, name: String, signature: String?, superName: String?, interfaces: Array<String>?) {
+        metadataOwner = name
+        super.visit(version, access, name, signature, superName, interfaces)
+    }
+
     override fun visitAnnotation(descriptor: String, visible: Boolean): AnnotationVisitor? {
         val av = super.visitAnnotation(descriptor, visible) ?: return null
         return if (descriptor == KOTLIN_METADATA_DESC) KotlinMetadataAdaptor(av) else av
@@ -74,27 +81,41 @@ abstract class KotlinAwareVisitor(
     }
 
     private fun processClassMetadata(header: KotlinClassHeader, metadata: KotlinClassMetadata.Class): KotlinClassHeader? {
-        val kmClass = processClassMetadata(metadata.toKmClass()) ?: return null
-        return KotlinClassMetadata.Class.Writer()
+        val kmClass = processClassMetadata(decode(header, metadata::toKmClass)) ?: return null
+        return encoded(kmClass, KotlinClassMetadata.Class.Writer()
             .apply(kmClass::accept)
             .write(header.metadataVersion, header.bytecodeVersion, header.extraInt)
-            .header
+            .header)
     }
 
     private fun processFileFacadeMetadata(header: KotlinClassHeader, metadata: KotlinClassMetadata.FileFacade): KotlinClassHeader? {
-        val kmPackage = processPackageMetadata(metadata.toKmPackage()) ?: return null
-        return KotlinClassMetadata.FileFacade.Writer()
+        val kmPackage = processPackageMetadata(decode(header, metadata::toKmPackage)) ?: return null
+        return encoded(kmPackage, KotlinClassMetadata.FileFacade.Writer()
             .apply(kmPackage::accept)
             .write(header.metadataVersion, header.bytecodeVersion, header.extraInt)
-            .header
+            .header)
     }
 
     private fun processMultiFileClassPartMetadata(header: KotlinClassHeader, metadata: KotlinClassMetadata.MultiFileClassPart): KotlinClassHeader? {
-        val kmPackage = processPackageMetadata(metadata.toKmPackage()) ?: return null
-        return KotlinClassMetadata.MultiFileClassPart.Writer()
+        val kmPackage = processPackageMetadata(decode(header, metadata::toKmPackage)) ?: return null
+        return encoded(kmPackage, KotlinClassMetadata.MultiFileClassPart.Writer()
             .apply(kmPackage::accept)
             .write(metadata.facadeClassName, header.metadataVersion, header.bytecodeVersion, header.extraInt)
-            .header
+            .header)
+    }
+
+    /**
+     * The [processClassMetadata] and [processPackageMetadata] functions modify the
+     * model in place, but return null when they have not changed anything. This means
+     * that a cached model is always the same as its class's current metadata.
+     */
+    private fun <T : Any> decode(header: KotlinClassHeader, decoder: () -> T): T {
+        return metadataCache?.get(metadataOwner, header, decoder) ?: decoder()
+    }
+
+    private fun encoded(model: Any, header: KotlinClassHeader): KotlinClassHeader {
+        metadataCache?.put(metadataOwner, header, model)
+        return header
     }
 
     private fun processMetadata(header: KotlinClassHeader): KotlinClassHeader? {
@@ -0,0 +1,101 @@
+package net.corda.gradle.jarfilter
+
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * A set of non-zero [Long] keys that uses open addressing instead of boxing
+ * each key inside a hash table entry. A membership check allocates nothing.
+ *
+ * The set is safe for concurrent use. Only [add] holds the set's monitor, and
+ * [contains] never blocks. A key is published with a volatile write into its
+ * slot, and a resize builds a whole new table before publishing it, so that a
+ * reader always probes a complete table. The table is never more than half
+ * full, and so every probe finds either the key or an empty slot.
+ */
+class LongHashSet(expectedSize: Int = DEFAULT_CAPACITY / 2) {
+    private companion object {
+        private const val DEFAULT_CAPACITY = 8
+        private const val EMPTY = 0L
+
+        /**
+         * Spreads the bits of a key whose ids are both small numbers.
+         */
+        private fun mix(key: Long): Int {
+            val hash = key * -0x61c8864680b583ebL
+            return (hash xor (hash ushr 32)).toInt()
+        }
+
+        private fun capacityFor(size: Int): Int {
+            var capacity = DEFAULT_CAPACITY
+            while (capacity < size * 2) {
+                capacity = capacity shl 1
+            }
+            return capacity
+        }
+    }
+
+    @Volatile
+    private var keys = AtomicLongArray(capacityFor(expectedSize))
+
+    @Volatile
+    var size: Int = 0
+        private set
+
+    fun contains(key: Long): Boolean {
+        val table = keys
+        val mask = table.length() - 1
+        var idx = mix(key) and mask
+        while (true) {
+            val existing = table[idx]
+            if (existing == key) {
+                return true
+            } else if (existing == EMPTY) {
+                return false
+            }
+            idx = (idx + 1) and mask
+        }
+    }
+
+    /**
+     * Returns true if the set did not already contain this key.
+     */
+    @Synchronized
+    fun add(key: Long): Boolean {
+        require(key != EMPTY) { "Cannot add an empty key" }
+        if ((size + 1) * 2 > keys.length()) {
+            resize(keys.length() shl 1)
+        }
+        return insert(keys, key).also { isAdded ->
+            if (isAdded) {
+                ++size
+            }
+        }
+    }
+
+    private fun resize(capacity: Int) {
+        val oldKeys = keys
+        val newKeys = AtomicLongArray(capacity)
+        for (idx in 0 until oldKeys.length()) {
+            val key = oldKeys[idx]
+            if (key != EMPTY) {
+                insert(newKeys, key)
+            }
+        }
+        keys = newKeys
+    }
+
+    private fun insert(table: AtomicLongArray, key: Long): Boolean {
+        val mask = table.length() - 1
+        var idx = mix(key) and mask
+        while (true) {
+            val existing = table[idx]
+            if (existing == key) {
+                return false
+            } else if (existing == EMPTY) {
+                table[idx] = key
+                return true
+            }
+            idx = (idx + 1) and mask
+        }
+    }
+}
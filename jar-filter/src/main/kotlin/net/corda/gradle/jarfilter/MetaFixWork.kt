@@ -0,0 +1,186 @@
+package net.corda.gradle.jarfilter
+
+import org.gradle.api.logging.Logger
+import org.gradle.api.logging.Logging
+import java.io.File
+import java.io.Serializable
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.ForkJoinPool
+import java.util.zip.ZipEntry
+import java.util.zip.ZipFile
+import javax.inject.Inject
+
+/**
+ * Everything that [MetaFixWork] needs to know to fix one JAR.
+ */
+class MetaFixParameters(
+    val source: File,
+    val target: File,
+    val reportFile: File?,
+    val traceFile: File?,
+    val traceCapacity: Int,
+    val preserveTimestamps: Boolean,
+    val hardLinks: Boolean,
+    val compression: Compression,
+    val parallelDeflate: Boolean,
+    val parallelism: Int,
+    val permitKey: String?
+) : Serializable
+
+/**
+ * Fixes the [kotlin.Metadata] inside a single JAR as an isolated unit of work,
+ * so that Gradle's worker threads can fix several JARs concurrently.
+ */
+class MetaFixWork @Inject constructor(private val params: MetaFixParameters) : Runnable {
+    private companion object {
+        private const val MAX_PENDING_ENTRIES = 256
+    }
+
+    private val logger: Logger = Logging.getLogger(MetaFixerTask::class.java)
+    private val report = JarReport(params.source, params.target)
+    private val pass = report.startPass("metafix")
+    private val trace = Trace(logger, params.traceFile?.let { TraceBuffer(params.traceCapacity) })
+
+    override fun run() {
+        WorkPermits.withPermit(params.permitKey, ::fix)
+    }
+
+    private fun fix() {
+        logger.info("Reading from {}", params.source)
+        try {
+            if (params.source.isDirectory) {
+                fixDirectory()
+            } else {
+                fixJar()
+            }
+            params.reportFile?.also { reportFile ->
+                report.bytesIn = params.source.toPath().totalSize()
+                report.bytesOut = params.target.toPath().totalSize()
+                report.writeTo(reportFile)
+            }
+        } catch (e: Exception) {
+            throw e.asUncheckedException()
+        } finally {
+            trace.writeTo(params.traceFile)
+        }
+    }
+
+    /**
+     * Fixes a directory of classes into another directory. The classes that do not
+     * need fixing are copied or linked into the target. The target directory is
+     * updated in place, and so we only rewrite those files which have changed.
+     */
+    private fun fixDirectory() {
+        val source = params.source.toPath()
+        val target = params.target.toPath()
+        logger.info("Writing to {}", target)
+
+        val entryNames = source.directoryEntries()
+        val classNames = entryNames.filter { it.endsWith(".class") }.mapTo(LinkedHashSet()) { it.dropLast(".class".length) }
+        target.retainEntries(entryNames.toSet())
+        var fixedCount = 0
+        var updatedCount = 0
+        for (entryName in entryNames) {
+            val sourceFile = source.resolve(entryName)
+            val targetFile = target.resolve(entryName)
+            val classData = if (entryName.endsWith(".class")) {
+                val originalData = report.measure(Phase.READ) { Files.readAllBytes(sourceFile) }
+                fixMetadata(originalData, classNames)
+            } else {
+                null
+            }
+
+            val isUpdated = report.measure(Phase.DEFLATE) {
+                if (classData == null) {
+                    sourceFile.updateCopy(targetFile, params.preserveTimestamps, params.hardLinks)
+                } else {
+                    targetFile.updateContents(classData).also {
+                        targetFile.setFileTimestamp(sourceFile, params.preserveTimestamps)
+                    }
+                }
+            }
+            if (isUpdated) {
+                ++updatedCount
+            }
+            if (classData != null) {
+                ++fixedCount
+            }
+        }
+        logger.info("Fixed Kotlin @Metadata for {} of {} classes", fixedCount, classNames.size)
+        logger.info("Updated {} of {} files in {}", updatedCount, entryNames.size, target)
+    }
+
+    /**
+     * Fixes a JAR into another JAR. Each of its resources is opened inside the one before it,
+     * so that they are all closed again even if we cannot open the next one.
+     */
+    private fun fixJar() {
+        val target = params.target.toPath()
+
+        /*
+         * Use [ZipFile] instead of [java.util.jar.JarInputStream] because
+         * JarInputStream consumes MANIFEST.MF when it's the first or second entry.
+         */
+        ZipFile(params.source).use { inJar ->
+            RawZipFile(params.source.toPath()).use { rawJar ->
+                val executor = if (params.parallelDeflate) ForkJoinPool(params.parallelism) else null
+                try {
+                    // The writer truncates any existing target file.
+                    val outJar = JarWriter(target, params.compression, executor, MAX_PENDING_ENTRIES)
+                    try {
+                        logger.info("Writing to {}", target)
+                        fixEntries(inJar, rawJar, outJar)
+                    } finally {
+                        report.measure(Phase.DEFLATE, outJar::close)
+                    }
+                    report.addCpuTime(Phase.DEFLATE, outJar.executorCpuTime)
+                } finally {
+                    executor?.shutdownAndAwait()
+                }
+            }
+        }
+    }
+
+    private fun fixEntries(inJar: ZipFile, rawJar: RawZipFile, outJar: JarWriter) {
+        outJar.comment = inJar.comment
+
+        val classNames = inJar.entries().asSequence().namesEndingWith(".class")
+        var fixedCount = 0
+        for (entry in inJar.entries()) {
+            val classData = if (entry.isDirectory || !entry.name.endsWith(".class")) {
+                null
+            } else {
+                val originalData = report.measure(Phase.READ) { rawJar.readBytes(inJar, entry) }
+                fixMetadata(originalData, classNames)
+            }
+
+            report.measure(Phase.DEFLATE) {
+                if (classData == null) {
+                    // This entry's byte contents have not changed,
+                    // and so can be copied without recompressing them.
+                    outJar.copy(inJar, rawJar, ZipEntry(entry).withFileTimestamps(params.preserveTimestamps))
+                } else {
+                    // This class's metadata has been fixed, and so
+                    // its byte contents will be stored compressed.
+                    outJar.write(entry.asCompressed().withFileTimestamps(params.preserveTimestamps), classData)
+                    ++fixedCount
+                }
+            }
+        }
+        logger.info("Fixed Kotlin @Metadata for {} of {} classes", fixedCount, classNames.size)
+    }
+
+    /**
+     * Returns null if this class's metadata does not need fixing.
+     */
+    private fun fixMetadata(originalData: ByteArray, classNames: Set<String>): ByteArray? {
+        val classData = report.measure(Phase.METADATA) { originalData.fixMetadata(logger, classNames, trace) }
+        pass.record(originalData, classData)
+        return classData.takeUnless { it === originalData }
+    }
+
+    private fun Sequence<ZipEntry>.namesEndingWith(suffix: String): Set<String> {
+        return filter { it.name.endsWith(suffix) }.mapTo(LinkedHashSet()) { it.name.dropLast(suffix.length) }
+    }
+}
@@ -4,30 +4,44 @@ import org.gradle.api.DefaultTask
 import org.gradle.api.file.ConfigurableFileCollection
 import org.gradle.api.file.DirectoryProperty
 import org.gradle.api.file.FileCollection
+import org.gradle.api.file.FileSystemLocation
 import org.gradle.api.file.ProjectLayout
+import org.gradle.api.file.RegularFileProperty
 import org.gradle.api.model.ObjectFactory
 import org.gradle.api.provider.Property
+import org.gradle.api.provider.Provider
+import org.gradle.api.tasks.CacheableTask
 import org.gradle.api.tasks.Input
 import org.gradle.api.tasks.InputFiles
 import org.gradle.api.tasks.Internal
+import org.gradle.api.tasks.LocalState
+import org.gradle.api.tasks.OutputDirectories
+import org.gradle.api.tasks.OutputFile
 import org.gradle.api.tasks.OutputFiles
 import org.gradle.api.tasks.PathSensitive
 import org.gradle.api.tasks.PathSensitivity.RELATIVE
 import org.gradle.api.tasks.SkipWhenEmpty
 import org.gradle.api.tasks.TaskAction
-import java.io.Closeable
+import org.gradle.workers.IsolationMode.NONE
+import org.gradle.workers.WorkerExecutor
 import java.io.File
-import java.io.IOException
-import java.nio.file.Files
-import java.nio.file.Path
-import java.util.zip.Deflater.BEST_COMPRESSION
-import java.util.zip.ZipEntry
-import java.util.zip.ZipFile
-import java.util.zip.ZipOutputStream
+import java.util.concurrent.Callable
 import javax.inject.Inject
+import kotlin.math.max
+import kotlin.math.min
 
 @Suppress("Unused", "UnstableApiUsage")
-open class MetaFixerTask @Inject constructor(objects: ObjectFactory, layouts: ProjectLayout) : DefaultTask() {
+@CacheableTask
+open class MetaFixerTask @Inject constructor(
+    objects: ObjectFactory,
+    layouts: ProjectLayout,
+    private val workers: WorkerExecutor
+) : DefaultTask() {
+    private companion object {
+        private const val DEFAULT_TRACE_CAPACITY = 65536
+        private val DEFAULT_CONCURRENT_JARS = Runtime.getRuntime().availableProcessors()
+    }
+
     init {
         description = "Rewrites kotlin.Metadata annotations to match their classes' methods and fields."
         group = GROUP_NAME
@@ -55,6 +69,13 @@ open class MetaFixerTask @Inject constructor(objects: ObjectFactory, layouts: Pr
         outputDir.set(dir)
     }
 
+    /**
+     * A JSON report of how many classes in each JAR needed fixing,
+     * and how long the task spent reading, fixing and compressing.
+     */
+    @get:OutputFile
+    val reportFile: RegularFileProperty = objects.fileProperty().convention(outputDir.file("$name-report.json"))
+
     @get:Input
     val suffix: Property<String> = objects.property(String::class.java).convention("-metafixed")
 
@@ -63,72 +84,107 @@ open class MetaFixerTask @Inject constructor(objects: ObjectFactory, layouts: Pr
     @get:Input
     val preserveTimestamps: Property<Boolean> = objects.property(Boolean::class.javaObjectType).convention(true)
 
+    /**
+     * Hard-link the unchanged files of a fixed directory to their originals, instead of
+     * copying them. The outputs then share their inputs' files, and so this is off by default.
+     */
+    @get:Internal
+    val hardLinks: Property<Boolean> = objects.property(Boolean::class.javaObjectType).convention(false)
+
+    /**
+     * How to compress the fixed JAR's rewritten entries: "best", "default",
+     * "fast" or "stored". Entries that are copied "as is" keep their compression.
+     */
+    @get:Input
+    val compression: Property<String> = objects.property(String::class.java).convention("best")
+
+    /**
+     * Compress the fixed JAR's entries concurrently. The
+     * entries are still written in their original order.
+     */
+    @get:Internal
+    val parallelDeflate: Property<Boolean> = objects.property(Boolean::class.javaObjectType).convention(false)
+
+    /**
+     * The maximum number of JARs to fix concurrently, each as a separate
+     * unit of work. Gradle's own `--max-workers` limit also applies. The
+     * JARs share the processors between them for any parallel work.
+     */
+    @get:Internal
+    val maxConcurrentJars: Property<Int> = objects.property(Int::class.javaObjectType).convention(DEFAULT_CONCURRENT_JARS)
+
+    /**
+     * Record what the byte-code visitors do to each class into a JSONL file per JAR
+     * inside [traceDir]. Only the most recent [traceCapacity] events are kept.
+     */
+    @get:Internal
+    val trace: Property<Boolean> = objects.property(Boolean::class.javaObjectType).convention(false)
+
+    @get:Internal
+    val traceCapacity: Property<Int> = objects.property(Int::class.javaObjectType).convention(DEFAULT_TRACE_CAPACITY)
+
+    @get:LocalState
+    val traceDir: DirectoryProperty = objects.directoryProperty().convention(layouts.buildDirectory.dir("metafixer-trace/$name"))
+
+    /**
+     * The fixed JARs and class directories, in the same order as their [jars].
+     */
+    @get:Internal
+    val metafixed: FileCollection get() = project.files(Callable { jars.map(::toMetaFixed) })
+
+    /*
+     * The build cache can only store outputs that it can tell apart,
+     * and so these map each fixed JAR or directory to its own name.
+     */
     @get:OutputFiles
-    val metafixed: FileCollection get() = project.files(jars.map(::toMetaFixed))
+    val metafixedJars: Map<String, File> get() = jars.filterNot(File::isDirectory).map { toMetaFixed(it).get().asFile }.associateBy(File::getName)
+
+    @get:OutputDirectories
+    val metafixedDirectories: Map<String, File> get() = jars.filter(File::isDirectory).map { toMetaFixed(it).get().asFile }.associateBy(File::getName)
 
-    private fun toMetaFixed(source: File) = outputDir.file(suffix.map { sfx -> source.name.replace(JAR_PATTERN, "$sfx\$1") })
+    private fun toMetaFixed(source: File): Provider<out FileSystemLocation> {
+        return if (source.isDirectory) {
+            outputDir.dir(suffix.map { sfx -> project.targetNameOf(source) + sfx })
+        } else {
+            outputDir.file(suffix.map { sfx -> source.name.replace(JAR_PATTERN, "$sfx\$1") })
+        }
+    }
 
     @TaskAction
     fun fixMetadata() {
         logger.info("Fixing Kotlin @Metadata")
-        try {
+        val compression = Compression.of(compression.get())
+        checkDistinctTargets(jars.map { jar -> toMetaFixed(jar).get().asFile })
+        val jarReports = ArrayList<File>()
+        val traceDirectory = if (trace.get()) traceDir.get().asFile.also { it.mkdirs() } else null
+        val concurrentJars = max(min(maxConcurrentJars.get(), jars.files.size), 1)
+        val parallelism = threadsPerJar(concurrentJars)
+        WorkPermits(concurrentJars).use { permits ->
             for (jar in jars) {
-                logger.info("Reading from {}", jar)
-                MetaFix(jar).use(MetaFix::run)
-            }
-        } catch (e: Exception) {
-            throw e.asUncheckedException()
-        }
-    }
-
-    private inner class MetaFix(inFile: File) : Closeable {
-        /**
-         * Use [ZipFile] instead of [java.util.jar.JarInputStream] because
-         * JarInputStream consumes MANIFEST.MF when it's the first or second entry.
-         */
-        private val target: Path = toMetaFixed(inFile).get().asFile.toPath()
-        private val inJar = ZipFile(inFile)
-        private val outJar: ZipOutputStream
-
-        init {
-            // Default options for newOutputStream() are CREATE, TRUNCATE_EXISTING.
-            outJar = ZipOutputStream(Files.newOutputStream(target)).apply {
-                setLevel(BEST_COMPRESSION)
-            }
-        }
-
-        @Throws(IOException::class)
-        override fun close() {
-            inJar.use {
-                outJar.close()
-            }
-        }
-
-        fun run() {
-            logger.info("Writing to {}", target)
-            outJar.setComment(inJar.comment)
-
-            val classNames = inJar.entries().asSequence().namesEndingWith(".class")
-            for (entry in inJar.entries()) {
-                val entryData = inJar.getInputStream(entry)
-
-                if (entry.isDirectory || !entry.name.endsWith(".class")) {
-                    // This entry's byte contents have not changed,
-                    // but may still need to be recompressed.
-                    outJar.putNextEntry(entry.copy().withFileTimestamps(preserveTimestamps.get()))
-                    entryData.copyTo(outJar)
-                } else {
-                    // This entry's byte contents have almost certainly
-                    // changed, and will be stored compressed.
-                    val classData = entryData.readBytes().fixMetadata(logger, classNames)
-                    outJar.putNextEntry(entry.asCompressed().withFileTimestamps(preserveTimestamps.get()))
-                    outJar.write(classData)
+                val target = toMetaFixed(jar).get().asFile
+                val jarReport = File(temporaryDir, "${target.name}.json").also { it.delete() }
+                jarReports.add(jarReport)
+                val params = MetaFixParameters(
+                    source = jar,
+                    target = target,
+                    reportFile = jarReport,
+                    traceFile = traceDirectory?.let { File(it, "${target.name}.jsonl") },
+                    traceCapacity = traceCapacity.get(),
+                    preserveTimestamps = preserveTimestamps.get(),
+                    hardLinks = hardLinks.get(),
+                    compression = compression,
+                    parallelDeflate = parallelDeflate.get(),
+                    parallelism = parallelism,
+                    permitKey = permits.key
+                )
+                workers.submit(MetaFixWork::class.java) { config ->
+                    config.isolationMode = NONE
+                    config.displayName = "Fixing ${jar.name}"
+                    config.params(params)
                 }
             }
+            workers.await()
         }
-    }
-
-    private fun Sequence<ZipEntry>.namesEndingWith(suffix: String): Set<String> {
-        return filter { it.name.endsWith(suffix) }.mapTo(LinkedHashSet()) { it.name.dropLast(suffix.length) }
+        writeTaskReport(reportFile.get().asFile, path, jarReports)
     }
 }
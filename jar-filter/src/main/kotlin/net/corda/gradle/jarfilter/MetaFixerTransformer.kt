@@ -4,6 +4,7 @@ import kotlinx.metadata.*
 import kotlinx.metadata.jvm.fieldSignature
 import kotlinx.metadata.jvm.getterSignature
 import kotlinx.metadata.jvm.signature
+import net.corda.gradle.jarfilter.TraceEvent.*
 import org.gradle.api.logging.Logger
 
 /**
@@ -13,6 +14,7 @@ import org.gradle.api.logging.Logger
  */
 abstract class MetaFixerTransformer<out T : KmDeclarationContainer>(
     @JvmField protected val logger: Logger,
+    @JvmField protected val trace: Trace,
     private val actualFields: Collection<FieldElement>,
     @JvmField protected val actualMethods: Collection<String>,
     @JvmField protected val metadata: T
@@ -33,13 +35,13 @@ abstract class MetaFixerTransformer<out T : KmDeclarationContainer>(
             val signature = function.signature?.asString()
             if (signature != null) {
                 if (!actualMethods.contains(signature)) {
-                    logger.info("-- removing method: {}", signature)
+                    trace.event(REMOVED_METHOD, signature)
                     functions.removeAt(idx)
                     ++count
                     continue@removed
                 } else if (function.valueParameters.hasAnyDefaultValues
                              && !actualMethods.contains(signature.toKotlinDefaultFunction(classDescriptor))) {
-                    logger.info("-- removing default parameter values: {}", signature)
+                    trace.event(REMOVED_DEFAULT_VALUES, signature)
                     function.valueParameters.forEach { it.clearDeclaresDefaultValue() }
                     ++count
                 }
@@ -73,7 +75,7 @@ abstract class MetaFixerTransformer<out T : KmDeclarationContainer>(
             }
 
             if (!isValidProperty) {
-                logger.info("-- removing property: {},{}", property.name, field?.desc ?: getterMethod?.desc)
+                trace.event(REMOVED_PROPERTY, property.name, field?.desc ?: getterMethod?.desc)
                 properties.removeAt(idx)
                 ++count
                 continue@removed
@@ -98,6 +100,7 @@ abstract class MetaFixerTransformer<out T : KmDeclarationContainer>(
  */
 class ClassMetaFixerTransformer(
     logger: Logger,
+    trace: Trace,
     actualFields: Collection<FieldElement>,
     actualMethods: Collection<String>,
     private val actualNestedClasses: Collection<String>,
@@ -105,6 +108,7 @@ class ClassMetaFixerTransformer(
     kmClass: KmClass
 ) : MetaFixerTransformer<KmClass>(
     logger,
+    trace,
     actualFields,
     actualMethods,
     kmClass
@@ -130,13 +134,13 @@ class ClassMetaFixerTransformer(
             val signature = constructor.signature?.asString()
             if (signature != null) {
                 if (!actualMethods.contains(signature)) {
-                    logger.info("-- removing constructor: {}", signature)
+                    trace.event(REMOVED_CONSTRUCTOR, signature)
                     constructors.removeAt(idx)
                     ++count
                     continue@removed
                 } else if (constructor.valueParameters.hasAnyDefaultValues
                         && !actualMethods.contains(signature.toKotlinDefaultConstructor())) {
-                    logger.info("-- removing default parameter values: {}", signature)
+                    trace.event(REMOVED_DEFAULT_VALUES, signature)
                     constructor.valueParameters.forEach { it.clearDeclaresDefaultValue() }
                     ++count
                 }
@@ -154,7 +158,7 @@ class ClassMetaFixerTransformer(
             if (actualNestedClasses.contains(nestedClassName)) {
                 ++idx
             } else {
-                logger.info("-- removing nested class: {}", nestedClassName)
+                trace.event(REMOVED_NESTED_CLASS, nestedClassName)
                 nestedClassNames.removeAt(idx)
                 ++count
             }
@@ -170,7 +174,7 @@ class ClassMetaFixerTransformer(
             if (actualClasses.contains(sealedSubclassName)) {
                 ++idx
             } else {
-                logger.info("-- removing sealed subclass: {}", sealedSubclassName)
+                trace.event(REMOVED_SEALED_SUBCLASS, sealedSubclassName)
                 sealedSubclassNames.removeAt(idx)
                 ++count
             }
@@ -185,11 +189,13 @@ class ClassMetaFixerTransformer(
  */
 class PackageMetaFixerTransformer(
     logger: Logger,
+    trace: Trace,
     actualFields: Collection<FieldElement>,
     actualMethods: Collection<String>,
     kmPackage: KmPackage
 ) : MetaFixerTransformer<KmPackage>(
     logger,
+    trace,
     actualFields,
     actualMethods,
     kmPackage
@@ -2,6 +2,7 @@ package net.corda.gradle.jarfilter
 
 import kotlinx.metadata.KmClass
 import kotlinx.metadata.KmPackage
+import net.corda.gradle.jarfilter.TraceEvent.*
 import org.gradle.api.logging.Logger
 import org.objectweb.asm.*
 import org.objectweb.asm.Opcodes.*
@@ -18,38 +19,39 @@ class MetaFixerVisitor private constructor(
     private val classNames: Set<String>,
     private val fields: MutableSet<FieldElement>,
     private val methods: MutableSet<String>,
-    private val nestedClasses: MutableSet<String>
+    private val nestedClasses: MutableSet<String>,
+    private val trace: Trace
 ) : KotlinAfterProcessor(ASM7, visitor, logger, kotlinMetadata), Repeatable<MetaFixerVisitor> {
-    constructor(visitor: ClassVisitor, logger: Logger, classNames: Set<String>)
-        : this(visitor, logger, mutableMapOf(), classNames, mutableSetOf(), mutableSetOf(), mutableSetOf())
+    constructor(visitor: ClassVisitor, logger: Logger, classNames: Set<String>, trace: Trace = Trace(logger))
+        : this(visitor, logger, mutableMapOf(), classNames, mutableSetOf(), mutableSetOf(), mutableSetOf(), trace)
 
-    override fun recreate(visitor: ClassVisitor) = MetaFixerVisitor(visitor, logger, kotlinMetadata, classNames, fields, methods, nestedClasses)
+    override fun recreate(visitor: ClassVisitor) = MetaFixerVisitor(visitor, logger, kotlinMetadata, classNames, fields, methods, nestedClasses, trace)
 
     private var className: String = "(unknown)"
 
     override fun visit(version: Int, access: Int, clsName: String, signature: String?, superName: String?, interfaces: Array<String>?) {
         className = clsName
-        logger.info("Class {}", clsName)
+        trace.event(CLASS, clsName)
         super.visit(version, access, clsName, signature, superName, interfaces)
     }
 
     override fun visitField(access: Int, fieldName: String, descriptor: String, signature: String?, value: Any?): FieldVisitor? {
         if (fields.add(FieldElement(fieldName, descriptor, access))) {
-            logger.info("- field {},{}", fieldName, descriptor)
+            trace.event(INVENTORY_FIELD, fieldName, descriptor)
         }
         return super.visitField(access, fieldName, descriptor, signature, value)
     }
 
     override fun visitMethod(access: Int, methodName: String, descriptor: String, signature: String?, exceptions: Array<String>?): MethodVisitor? {
         if (methods.add(methodName + descriptor)) {
-            logger.info("- method {}{}", methodName, descriptor)
+            trace.event(INVENTORY_METHOD, methodName, descriptor)
         }
         return super.visitMethod(access, methodName, descriptor, signature, exceptions)
     }
 
     override fun visitInnerClass(clsName: String, outerName: String?, innerName: String?, access: Int) {
         if (outerName == className && innerName != null && nestedClasses.add(innerName)) {
-            logger.info("- inner class {}", clsName)
+            trace.event(INVENTORY_INNER_CLASS, clsName)
         }
         return super.visitInnerClass(clsName, outerName, innerName, access)
     }
@@ -57,6 +59,7 @@ class MetaFixerVisitor private constructor(
     override fun processClassMetadata(kmClass: KmClass): KmClass? {
         return ClassMetaFixerTransformer(
                 logger = logger,
+                trace = trace,
                 actualFields = fields,
                 actualMethods = methods,
                 actualNestedClasses = nestedClasses,
@@ -68,6 +71,7 @@ class MetaFixerVisitor private constructor(
     override fun processPackageMetadata(kmPackage: KmPackage): KmPackage? {
         return PackageMetaFixerTransformer(
                 logger = logger,
+                trace = trace,
                 actualFields = fields,
                 actualMethods = methods,
                 kmPackage = kmPackage)
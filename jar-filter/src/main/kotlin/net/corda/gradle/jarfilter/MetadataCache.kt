@@ -0,0 +1,45 @@
+package net.corda.gradle.jarfilter
+
+import kotlinx.metadata.jvm.KotlinClassHeader
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Remembers each class's decoded [kotlin.Metadata], i.e. its [kotlinx.metadata.KmClass]
+ * or [kotlinx.metadata.KmPackage], between JarFilter's passes. A decoded model is only
+ * reused while the class's metadata still contains the same data, and so a later pass
+ * continues to modify the same model that the previous pass encoded, rather than
+ * decoding the protobuf data all over again.
+ *
+ * Each class is only transformed by one thread at a time, but
+ * different classes may be transformed concurrently.
+ */
+class MetadataCache {
+    private class Decoded(val kind: Int, val data1: Array<String>, val data2: Array<String>, val model: Any) {
+        fun matches(header: KotlinClassHeader): Boolean {
+            return kind == header.kind && data1.contentEquals(header.data1) && data2.contentEquals(header.data2)
+        }
+    }
+
+    private val decoded: MutableMap<String, Decoded> = ConcurrentHashMap()
+
+    /**
+     * Returns the model of this metadata, decoding it only if we have
+     * not already decoded (or encoded) the same data for this class.
+     */
+    fun <T : Any> get(className: String, header: KotlinClassHeader, decode: () -> T): T {
+        val cached = decoded[className]
+        return if (cached != null && cached.matches(header)) {
+            @Suppress("UNCHECKED_CAST")
+            cached.model as T
+        } else {
+            decode().also { model -> put(className, header, model) }
+        }
+    }
+
+    /**
+     * Records that this class's model has been encoded as [header].
+     */
+    fun put(className: String, header: KotlinClassHeader, model: Any) {
+        decoded[className] = Decoded(header.kind, header.data1, header.data2, model)
+    }
+}
@@ -7,7 +7,10 @@ import kotlinx.metadata.jvm.getterSignature
 import kotlinx.metadata.jvm.setterSignature
 import kotlinx.metadata.jvm.signature
 import kotlinx.metadata.jvm.syntheticMethodForAnnotations
+import net.corda.gradle.jarfilter.TraceEvent.*
 import org.gradle.api.logging.Logger
+import java.util.Collections
+import java.util.IdentityHashMap
 
 /**
  * Base class for removing unwanted elements from [kotlin.Metadata] annotations.
@@ -15,6 +18,7 @@ import org.gradle.api.logging.Logger
  */
 abstract class MetadataTransformer<out T : KmDeclarationContainer>(
     @JvmField protected val logger: Logger,
+    @JvmField protected val trace: Trace,
     private val deletedFields: Collection<FieldElement>,
     private val deletedFunctions: Collection<MethodElement>,
     @JvmField protected val handleExtraMethod: (MethodElement) -> Unit,
@@ -26,19 +30,44 @@ abstract class MetadataTransformer<out T : KmDeclarationContainer>(
     private val properties: MutableList<KmProperty> = metadata.properties
     private val typeAliases: MutableList<KmTypeAlias> = metadata.typeAliases
 
+    /*
+     * Generated classes can have thousands of members, and so we index
+     * them once rather than searching them for every deleted element.
+     * Removed members are only marked here, and then removed together
+     * once the filtering is complete.
+     */
+    private val functionsBySignature: MutableMap<MethodElement, KmFunction> by lazy {
+        functions.indexBy { it.signature?.toMethodElement() }
+    }
+    private val propertiesByName: MutableMap<String, MutableList<KmProperty>> by lazy {
+        properties.groupByTo(HashMap(), KmProperty::name)
+    }
+    private val propertiesByAnnotatedMethod: MutableMap<MethodElement, KmProperty> by lazy {
+        properties.indexBy { it.annotatedMethod }
+    }
+    private val removedFunctions: MutableSet<KmFunction> = identitySet()
+    private val removedProperties: MutableSet<KmProperty> = identitySet()
+
     protected open val classDescriptor: ClassName = ""
 
     protected abstract fun filter(): Int
 
     fun transform(): T? {
         doBeforeFiltering()
-        return if (filter() == 0) {
+        val count = filter()
+        removeMarked()
+        return if (count == 0) {
             null
         } else {
             metadata
         }
     }
 
+    protected open fun removeMarked() {
+        functions.removeAll(removedFunctions::contains)
+        properties.removeAll(removedProperties::contains)
+    }
+
     protected open fun doBeforeFiltering() {
         for (function in functions) {
             if (function.valueParameters.hasAnyDefaultValues) {
@@ -55,18 +84,10 @@ abstract class MetadataTransformer<out T : KmDeclarationContainer>(
     protected fun filterFunctions(): Int = deletedFunctions.count(::filterFunction)
 
     private fun filterFunction(deleted: MethodElement): Boolean {
-        for (idx in 0 until functions.size) {
-            val function = functions[idx]
-            if (function.name == deleted.name) {
-                val signature = function.signature?.toMethodElement()
-                if (signature == deleted) {
-                    logger.info("-- removing function: {}", deleted.signature)
-                    functions.removeAt(idx)
-                    return true
-                }
-            }
-        }
-        return false
+        val function = functionsBySignature.remove(deleted) ?: return false
+        trace.event(REMOVED_FUNCTION, deleted.signature)
+        removedFunctions.add(function)
+        return true
     }
 
     protected fun filterProperties(): Int = ArrayList(deletedFields).count(::filterProperty)
@@ -88,63 +109,60 @@ abstract class MetadataTransformer<out T : KmDeclarationContainer>(
     }
 
     private fun filterPropertyByAnnotatedMethod(deleted: FieldElement, annotatedMethod: MethodElement): Boolean {
-        for (idx in 0 until properties.size) {
-            val property = properties[idx]
-            val syntheticMethod = property.syntheticMethodForAnnotations ?: continue
-            if (annotatedMethod.name == syntheticMethod.name && annotatedMethod.descriptor == syntheticMethod.desc) {
-                /*
-                 * Ensure that the accessor functions and the underlying field
-                 * are deleted along with the synthetic annotation-holder.
-                 */
-                property.fieldSignature?.apply {
-                    deleteExtra(toFieldElement())
-                }
-                deleteAccessorsFor(property)
-
-                if (deleted.extension == "()") {
-                    /*
-                     * Kotlin 1.4 has renamed the synthetic annotation-holder
-                     * method to use the name of the property's getter rather
-                     * than the property itself. However, the logic for also
-                     * deleting any synthetic inner classes it may have depends
-                     * on knowing the name of the deleted property. So inject
-                     * a "fake" deleted reference to the pre-Kotlin 1.4
-                     * annotation-holder method into the working data.
-                     */
-                    handleExtraMethod(deleted.asKotlinAnnotationsMethod(property.name))
-                }
+        val property = propertiesByAnnotatedMethod[annotatedMethod] ?: return false
 
-                logger.info("-- removing property: {},{}", property.name, deleted.descriptor)
-                properties.removeAt(idx)
-                return true
-            }
+        /*
+         * Ensure that the accessor functions and the underlying field
+         * are deleted along with the synthetic annotation-holder.
+         */
+        property.fieldSignature?.apply {
+            deleteExtra(toFieldElement())
         }
-        return false
+        deleteAccessorsFor(property)
+
+        if (deleted.extension == "()") {
+            /*
+             * Kotlin 1.4 has renamed the synthetic annotation-holder
+             * method to use the name of the property's getter rather
+             * than the property itself. However, the logic for also
+             * deleting any synthetic inner classes it may have depends
+             * on knowing the name of the deleted property. So inject
+             * a "fake" deleted reference to the pre-Kotlin 1.4
+             * annotation-holder method into the working data.
+             */
+            handleExtraMethod(deleted.asKotlinAnnotationsMethod(property.name))
+        }
+
+        trace.event(REMOVED_PROPERTY, property.name, deleted.descriptor)
+        removeProperty(property)
+        return true
     }
 
     private fun filterPropertyByField(deleted: FieldElement): Boolean {
-        for (idx in 0 until properties.size) {
-            val property = properties[idx]
-            if (property.name == deleted.name) {
-                /*
-                 * We already know about the underlying field,
-                 * so we just need to delete the accessors here.
-                 */
-                deleteAccessorsFor(property)
-
-                /*
-                 * Inject a "fake" deleted method reference to the pre-Kotlin 1.4
-                 * annotation-holder into the working data, for the sake of the
-                 * inner class logic (see comment above).
-                 */
-                handleExtraMethod(deleted.asKotlinAnnotationsMethod(property.name))
-
-                logger.info("-- removing property: {},{}", property.name, deleted.descriptor)
-                properties.removeAt(idx)
-                return true
-            }
-        }
-        return false
+        val property = propertiesByName[deleted.name]?.firstOrNull() ?: return false
+
+        /*
+         * We already know about the underlying field,
+         * so we just need to delete the accessors here.
+         */
+        deleteAccessorsFor(property)
+
+        /*
+         * Inject a "fake" deleted method reference to the pre-Kotlin 1.4
+         * annotation-holder into the working data, for the sake of the
+         * inner class logic (see comment above).
+         */
+        handleExtraMethod(deleted.asKotlinAnnotationsMethod(property.name))
+
+        trace.event(REMOVED_PROPERTY, property.name, deleted.descriptor)
+        removeProperty(property)
+        return true
+    }
+
+    private fun removeProperty(property: KmProperty) {
+        propertiesByName[property.name]?.remove(property)
+        property.annotatedMethod?.also { propertiesByAnnotatedMethod.remove(it) }
+        removedProperties.add(property)
     }
 
     private fun deleteAccessorsFor(property: KmProperty) {
@@ -158,7 +176,7 @@ abstract class MetadataTransformer<out T : KmDeclarationContainer>(
 
     private fun deleteExtra(func: MethodElement) {
         if (!deletedFunctions.contains(func)) {
-            logger.info("-- identified extra method {} for deletion", func.signature)
+            trace.event(METADATA_EXTRA_METHOD, func.signature)
             handleExtraMethod(func)
             filterFunction(func)
         }
@@ -166,7 +184,7 @@ abstract class MetadataTransformer<out T : KmDeclarationContainer>(
 
     private fun deleteExtra(field: FieldElement) {
         if (!deletedFields.contains(field)) {
-            logger.info("-- identified extra field {},{} for deletion", field.name, field.descriptor)
+            trace.event(METADATA_EXTRA_FIELD, field.name, field.descriptor)
             handleExtraField(field)
         }
     }
@@ -174,28 +192,54 @@ abstract class MetadataTransformer<out T : KmDeclarationContainer>(
     protected fun filterTypeAliases(): Int {
         if (deletedFields.isEmpty()) return 0
 
-        var count = 0
-        var idx = 0
-        while (idx < typeAliases.size) {
-            val aliasName = typeAliases[idx].name
-            if (deletedFields.any { it.name == aliasName && it.extension == "()" }) {
-                logger.info("-- removing typealias: {}", aliasName)
-                typeAliases.removeAt(idx)
-                ++count
-            } else {
-                ++idx
+        val aliasNames = deletedFields.mapNotNullTo(HashSet()) { field ->
+            if (field.extension == "()") field.name else null
+        }
+        return typeAliases.removeMatching { alias ->
+            (alias.name in aliasNames).also { isDeleted ->
+                if (isDeleted) {
+                    trace.event(REMOVED_TYPEALIAS, alias.name)
+                }
             }
         }
-        return count
     }
 }
 
+private val KmProperty.annotatedMethod: MethodElement?
+    get() = syntheticMethodForAnnotations?.let { MethodElement(it.name, it.desc) }
+
+/**
+ * Indexes these elements by their keys, keeping the first of any duplicates
+ * just as a linear search would have found it.
+ */
+private inline fun <K, V> Iterable<V>.indexBy(keyOf: (V) -> K?): MutableMap<K, V> {
+    val index = HashMap<K, V>()
+    for (element in this) {
+        val key = keyOf(element) ?: continue
+        index.putIfAbsent(key, element)
+    }
+    return index
+}
+
+private fun <T> identitySet(): MutableSet<T> = Collections.newSetFromMap(IdentityHashMap())
+
+/**
+ * Removes every matching element in a single pass, preserving
+ * the order of the others, and returns how many were removed.
+ */
+private fun <T> MutableList<T>.removeMatching(predicate: (T) -> Boolean): Int {
+    val originalSize = size
+    removeAll(predicate)
+    return originalSize - size
+}
+
 /**
  * Removes elements from a [kotlin.Metadata] annotation that contains
  * a [KmClass] object in its [data1][kotlin.Metadata.data1] field.
  */
 class ClassMetadataTransformer(
     logger: Logger,
+    trace: Trace,
     deletedFields: Collection<FieldElement>,
     deletedFunctions: Collection<MethodElement>,
     private val deletedConstructors: Collection<MethodElement>,
@@ -207,6 +251,7 @@ class ClassMetadataTransformer(
     kmClass: KmClass
 ) : MetadataTransformer<KmClass>(
     logger,
+    trace,
     deletedFields,
     deletedFunctions,
     handleExtraMethod,
@@ -218,6 +263,10 @@ class ClassMetadataTransformer(
     private val nestedClassNames = kmClass.nestedClasses
     private val sealedSubclassNames = kmClass.sealedSubclasses
     private val constructors = kmClass.constructors
+    private val constructorsBySignature: MutableMap<MethodElement, KmConstructor> by lazy {
+        constructors.indexBy { it.signature?.toMethodElement() }
+    }
+    private val removedConstructors: MutableSet<KmConstructor> = identitySet()
 
     override val classDescriptor = "L${className.toInternalName()};"
 
@@ -254,63 +303,54 @@ class ClassMetadataTransformer(
          */
         val deletedPrimary = deleted.asKotlinNonDefaultConstructor()
 
-        for (idx in 0 until constructors.size) {
-            val constructor = constructors[idx]
-            val signature = (constructor.signature ?: continue).toMethodElement()
-            if (signature == deleted) {
-                if (IS_PRIMARY(constructor.flags)) {
-                    logger.warn("Removing primary constructor: {}{}", className, deleted.descriptor)
-                } else {
-                    logger.info("-- removing constructor: {}", deleted.signature)
-                }
-                constructors.removeAt(idx)
-                return true
-            } else if (signature == deletedPrimary) {
-                constructor.valueParameters.forEach { value ->
-                    value.clearDeclaresDefaultValue()
-                }
-                logger.info("-- removing default parameter values: {}", deletedPrimary.signature)
-                return true
+        constructorsBySignature.remove(deleted)?.also { constructor ->
+            if (IS_PRIMARY(constructor.flags)) {
+                logger.warn("Removing primary constructor: {}{}", className, deleted.descriptor)
+            } else {
+                trace.event(REMOVED_CONSTRUCTOR, deleted.signature)
+            }
+            removedConstructors.add(constructor)
+            return true
+        }
+        constructorsBySignature[deletedPrimary ?: return false]?.also { constructor ->
+            constructor.valueParameters.forEach { value ->
+                value.clearDeclaresDefaultValue()
             }
+            trace.event(REMOVED_DEFAULT_VALUES, deletedPrimary.signature)
+            return true
         }
         return false
     }
 
+    override fun removeMarked() {
+        super.removeMarked()
+        constructors.removeAll(removedConstructors::contains)
+    }
+
     private fun filterNestedClasses(): Int {
         if (deletedNestedClasses.isEmpty()) return 0
 
-        var count = 0
-        var idx = 0
-        while (idx < nestedClassNames.size) {
-            val nestedClassName = nestedClassNames[idx]
-            if (deletedNestedClasses.contains(nestedClassName)) {
-                logger.info("-- removing nested class: {}", nestedClassName)
-                nestedClassNames.removeAt(idx)
-                ++count
-            } else {
-                ++idx
+        val deletedNames = deletedNestedClasses.toSet()
+        return nestedClassNames.removeMatching { nestedClassName ->
+            (nestedClassName in deletedNames).also { isDeleted ->
+                if (isDeleted) {
+                    trace.event(REMOVED_NESTED_CLASS, nestedClassName)
+                }
             }
         }
-        return count
     }
 
-
     private fun filterSealedSubclasses(): Int {
         if (deletedClasses.isEmpty()) return 0
 
-        var count = 0
-        var idx = 0
-        while (idx < sealedSubclassNames.size) {
-            val subclassName = sealedSubclassNames[idx].toInternalName()
-            if (deletedClasses.contains(subclassName)) {
-                logger.info("-- removing sealed subclass: {}", subclassName)
-                sealedSubclassNames.removeAt(idx)
-                ++count
-            } else {
-                ++idx
+        return sealedSubclassNames.removeMatching { sealedSubclassName ->
+            val subclassName = sealedSubclassName.toInternalName()
+            deletedClasses.contains(subclassName).also { isDeleted ->
+                if (isDeleted) {
+                    trace.event(REMOVED_SEALED_SUBCLASS, subclassName)
+                }
             }
         }
-        return count
     }
 }
 
@@ -320,6 +360,7 @@ class ClassMetadataTransformer(
  */
 class PackageMetadataTransformer(
     logger: Logger,
+    trace: Trace,
     deletedFields: Collection<FieldElement>,
     deletedFunctions: Collection<MethodElement>,
     handleExtraMethod: (MethodElement) -> Unit,
@@ -328,6 +369,7 @@ class PackageMetadataTransformer(
     kmPackage: KmPackage
 ) : MetadataTransformer<KmPackage>(
     logger,
+    trace,
     deletedFields,
     deletedFunctions,
     handleExtraMethod,
@@ -0,0 +1,68 @@
+package net.corda.gradle.jarfilter
+
+import java.util.ArrayDeque
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Future
+import java.util.concurrent.FutureTask
+import kotlin.math.max
+
+/**
+ * Transforms a sequence of items concurrently using an [ExecutorService],
+ * but hands the results to the [consumer] in the items' original order.
+ * The [producer] runs on the caller's thread and decides whether an item
+ * needs any work, in which case it returns a [Callable] for the executor.
+ * Items without any work are passed to the [consumer] with a null result.
+ *
+ * No more than [window] items are ever "in flight" at once, which bounds
+ * the amount of memory that the pipeline can consume.
+ */
+class OrderedPipeline<T, R>(
+    private val executor: ExecutorService,
+    window: Int,
+    private val producer: (T) -> Callable<R>?,
+    private val consumer: (T, R?) -> Unit
+) {
+    private val window: Int = max(window, 1)
+    private val inFlight = ArrayDeque<Pending<T, R>>()
+
+    @Throws(Exception::class)
+    fun run(items: Iterator<T>) {
+        try {
+            for (item in items) {
+                if (inFlight.size >= window) {
+                    deliver(inFlight.removeFirst())
+                }
+                val task = producer(item)
+                inFlight.addLast(Pending(item, task?.let(::execute)))
+            }
+            while (inFlight.isNotEmpty()) {
+                deliver(inFlight.removeFirst())
+            }
+        } finally {
+            // Abandon any work that is still outstanding after a failure.
+            inFlight.forEach { it.future?.cancel(true) }
+            inFlight.clear()
+        }
+    }
+
+    /**
+     * A [java.util.concurrent.ForkJoinPool] would wrap a [Callable]'s checked exception
+     * inside a [RuntimeException], so run our own [FutureTask] which preserves it.
+     */
+    private fun execute(task: Callable<R>): Future<R> {
+        return FutureTask(task).also(executor::execute)
+    }
+
+    private fun deliver(pending: Pending<T, R>) {
+        val result = try {
+            pending.future?.get()
+        } catch (e: ExecutionException) {
+            throw e.cause ?: e
+        }
+        consumer(pending.item, result)
+    }
+
+    private class Pending<T, R>(val item: T, val future: Future<R>?)
+}
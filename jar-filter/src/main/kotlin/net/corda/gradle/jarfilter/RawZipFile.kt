@@ -0,0 +1,313 @@
+package net.corda.gradle.jarfilter
+
+import java.io.Closeable
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.ByteOrder.LITTLE_ENDIAN
+import java.nio.channels.FileChannel
+import java.nio.channels.WritableByteChannel
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption.READ
+import java.util.zip.DataFormatException
+import java.util.zip.Inflater
+import java.util.zip.ZipEntry
+import java.util.zip.ZipEntry.DEFLATED
+import java.util.zip.ZipEntry.STORED
+import java.util.zip.ZipException
+import java.util.zip.ZipFile
+import kotlin.math.min
+
+/**
+ * Reads a ZIP file's central directory so that [JarWriter] can copy each
+ * entry's compressed bytes and CRC directly into another ZIP file, without
+ * inflating and then compressing them again. Any entry that this class
+ * cannot locate will need to be copied the slow way instead.
+ *
+ * [readBytes] also inflates or copies an entry's contents straight from the
+ * file into an array of exactly the right size. The file is deliberately not
+ * memory-mapped, because a mapping cannot be released until it is garbage
+ * collected, which keeps the file locked on Windows. This is not a replacement
+ * for [java.util.zip.ZipFile], which should still be used to list the entries.
+ * Nor is it thread-safe, because every entry is inflated using the same
+ * [Inflater] and input buffer.
+ */
+class RawZipFile(path: Path) : Closeable {
+    private companion object {
+        private const val LOCSIG = 0x04034b50
+        private const val CENSIG = 0x02014b50
+        private const val ENDSIG = 0x06054b50
+        private const val ZIP64_ENDSIG = 0x06064b50
+        private const val ZIP64_LOCSIG = 0x07064b50
+        private const val LOCHDR = 30
+        private const val CENHDR = 46
+        private const val ENDHDR = 22
+        private const val ZIP64_LOCHDR = 20
+        private const val ZIP64_EXTID = 0x0001
+        private const val ZIP64_MAGICVAL = 0xFFFFFFFFL
+        private const val ZIP64_MAGICCOUNT = 0xFFFF
+        private const val ENCRYPTED_FLAG = 0x0001
+        private const val MAX_COMMENT_LENGTH = 0xFFFF
+        private const val INPUT_BUFFER_SIZE = 8192
+    }
+
+    /**
+     * The location of an entry's compressed bytes,
+     * and everything needed to describe them.
+     */
+    class Entry(
+        val method: Int,
+        val crc: Long,
+        val compressedSize: Long,
+        val size: Long,
+        internal val headerOffset: Long
+    )
+
+    private val channel: FileChannel = FileChannel.open(path, READ)
+    private val entries = HashMap<String, Entry>()
+    private val inflater = Inflater(true)
+    private val input = ByteArray(INPUT_BUFFER_SIZE)
+
+    init {
+        try {
+            try {
+                readCentralDirectory()
+            } catch (e: Exception) {
+                if (e is IOException && e !is ZipException) {
+                    throw e
+                }
+                // Leave ZipFile to read every entry instead.
+                entries.clear()
+            }
+        } catch (e: Exception) {
+            channel.close()
+            throw e
+        }
+    }
+
+    @Throws(IOException::class)
+    override fun close() {
+        inflater.end()
+        channel.close()
+    }
+
+    /**
+     * Returns the raw entry called [name], or null if it cannot be copied "as is".
+     */
+    operator fun get(name: String): Entry? = entries[name]
+
+    /**
+     * Transfers the entry's compressed bytes to [target].
+     */
+    @Throws(IOException::class)
+    fun transferTo(entry: Entry, target: WritableByteChannel) {
+        var position = dataPosition(entry)
+        var remaining = entry.compressedSize
+        while (remaining > 0) {
+            val count = channel.transferTo(position, remaining, target)
+            if (count <= 0) {
+                throw ZipException("Entry data is truncated at $position")
+            }
+            position += count
+            remaining -= count
+        }
+    }
+
+    /**
+     * Reads the contents of [entry], which [zip] must also be reading. The contents
+     * are read directly from the file if possible, or else from the [ZipFile] instead.
+     */
+    @Throws(IOException::class)
+    fun readBytes(zip: ZipFile, entry: ZipEntry): ByteArray {
+        val raw = entries[entry.name] ?: return zip.getInputStream(entry).use { it.readBytes() }
+        return readBytes(raw)
+    }
+
+    /**
+     * Reads the uncompressed contents of [entry] into a new array.
+     */
+    @Throws(IOException::class)
+    fun readBytes(entry: Entry): ByteArray {
+        if (entry.size > Int.MAX_VALUE || entry.compressedSize > Int.MAX_VALUE) {
+            throw ZipException("Entry is too large to read at ${entry.headerOffset}")
+        }
+        val position = dataPosition(entry)
+        val compressedSize = entry.compressedSize.toInt()
+        return if (entry.method == STORED) {
+            ByteArray(compressedSize).also { bytes -> readFully(ByteBuffer.wrap(bytes), position) }
+        } else {
+            inflate(position, compressedSize, entry.size.toInt())
+        }
+    }
+
+    private fun inflate(position: Long, compressedSize: Int, size: Int): ByteArray {
+        val output = ByteArray(size)
+        inflater.reset()
+        var nextPosition = position
+        var remaining = compressedSize
+        var count = 0
+        while (count < size) {
+            if (inflater.needsInput()) {
+                val chunk = min(remaining, input.size)
+                if (chunk == 0) {
+                    throw ZipException("Entry data is truncated")
+                }
+                readFully(ByteBuffer.wrap(input, 0, chunk), nextPosition)
+                inflater.setInput(input, 0, chunk)
+                nextPosition += chunk
+                remaining -= chunk
+            }
+            val inflated = try {
+                inflater.inflate(output, count, size - count)
+            } catch (e: DataFormatException) {
+                throw ZipException(e.message)
+            }
+            if (inflated == 0 && (inflater.finished() || inflater.needsDictionary())) {
+                throw ZipException("Entry data is shorter than expected")
+            }
+            count += inflated
+        }
+        return output
+    }
+
+    /**
+     * The position of the entry's compressed bytes, after its local header.
+     */
+    private fun dataPosition(entry: Entry): Long {
+        val header = read(entry.headerOffset, LOCHDR)
+        if (header.getInt(0) != LOCSIG) {
+            throw ZipException("Invalid local header at ${entry.headerOffset}")
+        }
+        return entry.headerOffset + LOCHDR + header.getUShort(26) + header.getUShort(28)
+    }
+
+    private fun readCentralDirectory() {
+        val fileSize = channel.size()
+        val tailSize = min(fileSize, (ENDHDR + MAX_COMMENT_LENGTH).toLong()).toInt()
+        val tail = read(fileSize - tailSize, tailSize)
+
+        /*
+         * The end record's comment should finish the file, but some tools append
+         * other bytes after it, which ZipFile also accepts. So prefer a record
+         * whose comment reaches the end of the file, but otherwise accept the
+         * last record whose comment fits inside it.
+         */
+        var endIndex = -1
+        var candidate = tailSize - ENDHDR
+        while (candidate >= 0) {
+            if (tail.getInt(candidate) == ENDSIG) {
+                val commentEnd = candidate + ENDHDR + tail.getUShort(candidate + 20)
+                if (commentEnd == tailSize) {
+                    endIndex = candidate
+                    break
+                } else if (commentEnd < tailSize && endIndex < 0) {
+                    endIndex = candidate
+                }
+            }
+            --candidate
+        }
+        if (endIndex < 0) {
+            throw ZipException("End of central directory not found")
+        }
+        val endPosition = fileSize - tailSize + endIndex
+
+        var total = tail.getUShort(endIndex + 10).toLong()
+        var centralSize = tail.getUInt(endIndex + 12)
+        var centralOffset = tail.getUInt(endIndex + 16)
+        var recordPosition = endPosition
+        if (total == ZIP64_MAGICCOUNT.toLong() || centralSize == ZIP64_MAGICVAL || centralOffset == ZIP64_MAGICVAL) {
+            val locator = read(endPosition - ZIP64_LOCHDR, ZIP64_LOCHDR)
+            if (locator.getInt(0) == ZIP64_LOCSIG) {
+                recordPosition = locator.getLong(8)
+                val record = read(recordPosition, 56)
+                if (record.getInt(0) != ZIP64_ENDSIG) {
+                    throw ZipException("Invalid ZIP64 end of central directory")
+                }
+                total = record.getLong(32)
+                centralSize = record.getLong(40)
+                centralOffset = record.getLong(48)
+            }
+        }
+
+        // Allow for any bytes that have been prepended to the file.
+        val base = recordPosition - centralSize - centralOffset
+        val central = read(base + centralOffset, centralSize.toInt())
+        var index = 0
+        for (i in 0 until total) {
+            if (central.getInt(index) != CENSIG) {
+                throw ZipException("Invalid central directory header at $index")
+            }
+            val flags = central.getUShort(index + 8)
+            val method = central.getUShort(index + 10)
+            val nameLength = central.getUShort(index + 28)
+            val extraLength = central.getUShort(index + 30)
+            val commentLength = central.getUShort(index + 32)
+            val name = ByteArray(nameLength).let { bytes ->
+                central.position(index + CENHDR)
+                central.get(bytes)
+                String(bytes, Charsets.UTF_8)
+            }
+
+            var size = central.getUInt(index + 24)
+            var compressedSize = central.getUInt(index + 20)
+            var headerOffset = central.getUInt(index + 42)
+            if (size == ZIP64_MAGICVAL || compressedSize == ZIP64_MAGICVAL || headerOffset == ZIP64_MAGICVAL) {
+                var extraIndex = index + CENHDR + nameLength
+                val extraEnd = extraIndex + extraLength
+                while (extraIndex + 4 <= extraEnd) {
+                    val tag = central.getUShort(extraIndex)
+                    val dataSize = central.getUShort(extraIndex + 2)
+                    if (tag == ZIP64_EXTID) {
+                        var field = extraIndex + 4
+                        if (size == ZIP64_MAGICVAL) {
+                            size = central.getLong(field)
+                            field += 8
+                        }
+                        if (compressedSize == ZIP64_MAGICVAL) {
+                            compressedSize = central.getLong(field)
+                            field += 8
+                        }
+                        if (headerOffset == ZIP64_MAGICVAL) {
+                            headerOffset = central.getLong(field)
+                        }
+                        break
+                    }
+                    extraIndex += 4 + dataSize
+                }
+            }
+
+            if ((flags and ENCRYPTED_FLAG) == 0 && (method == STORED || method == DEFLATED)) {
+                entries.putIfAbsent(name, Entry(
+                    method = method,
+                    crc = central.getUInt(index + 16),
+                    compressedSize = compressedSize,
+                    size = size,
+                    headerOffset = base + headerOffset
+                ))
+            }
+            index += CENHDR + nameLength + extraLength + commentLength
+        }
+    }
+
+    private fun read(position: Long, size: Int): ByteBuffer {
+        val buffer = ByteBuffer.allocate(size).order(LITTLE_ENDIAN)
+        readFully(buffer, position)
+        buffer.flip()
+        return buffer
+    }
+
+    /**
+     * Fills the rest of [buffer] with the file's contents, starting from [position].
+     */
+    private fun readFully(buffer: ByteBuffer, position: Long) {
+        val start = buffer.position()
+        while (buffer.hasRemaining()) {
+            val next = position + buffer.position() - start
+            if (channel.read(buffer, next) < 0) {
+                throw ZipException("Unexpected end of file at $next")
+            }
+        }
+    }
+
+    private fun ByteBuffer.getUShort(index: Int): Int = getShort(index).toInt() and 0xFFFF
+    private fun ByteBuffer.getUInt(index: Int): Long = getInt(index).toLong() and 0xFFFFFFFFL
+}
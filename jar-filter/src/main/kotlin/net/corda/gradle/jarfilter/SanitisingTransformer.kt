@@ -3,6 +3,7 @@ package net.corda.gradle.jarfilter
 import kotlinx.metadata.*
 import kotlinx.metadata.Flag.Constructor.IS_PRIMARY
 import kotlinx.metadata.jvm.signature
+import net.corda.gradle.jarfilter.TraceEvent.*
 import org.gradle.api.logging.LogLevel
 import org.gradle.api.logging.Logger
 import org.objectweb.asm.AnnotationVisitor
@@ -25,7 +26,9 @@ class SanitisingTransformer(
     visitor: ClassVisitor,
     logger: Logger,
     private val unwantedAnnotations: Set<String>,
-    private val syntheticMethods: UnwantedMap
+    private val syntheticMethods: UnwantedMap,
+    override val metadataCache: MetadataCache? = null,
+    private val trace: Trace = Trace(logger)
 ) : KotlinBeforeProcessor(ASM7, visitor, logger, mutableMapOf()) {
 
     var isModified: Boolean = false
@@ -44,7 +47,7 @@ class SanitisingTransformer(
                 val signature = constructor.signature ?: break
                 primaryConstructor = signature.toMethodElement()
                 hasDefaultValues = constructor.valueParameters.hasAnyDefaultValues
-                logger.log(level, "Class {} has primary constructor {}", className, signature.asString())
+                trace.event(PRIMARY_CONSTRUCTOR, className, signature.name, signature.desc)
                 break
             }
         }
@@ -65,7 +68,7 @@ class SanitisingTransformer(
     private inner class SanitisingMethodAdapter(mv: MethodVisitor, private val method: MethodElement) : MethodVisitor(api, mv) {
         override fun visitAnnotation(descriptor: String, visible: Boolean): AnnotationVisitor? {
             if (unwantedAnnotations.contains(descriptor)) {
-                logger.info("Sanitising annotation {} from method {}.{}{}", descriptor, className, method.name, method.descriptor)
+                trace.event(SANITISED_ANNOTATION, descriptor, className, method.name, method.descriptor)
 
                 /*
                  * As of Kotlin 1.3.40, we can no longer assume that the synthetic constructors
@@ -74,7 +77,7 @@ class SanitisingTransformer(
                  */
                 if (hasDefaultValues) {
                     method.asKotlinDefaultConstructor()?.also { syn ->
-                        logger.info("- applying {} to synthetic {}{}", descriptor, syn.name, syn.descriptor)
+                        trace.event(SANITISED_SYNTHETIC_CONSTRUCTOR, descriptor, syn.name, syn.descriptor)
                         syntheticMethods.computeIfAbsent(className) { mutableListOf() }
                             .add(descriptor to syn)
                     }
@@ -0,0 +1,63 @@
+package net.corda.gradle.jarfilter
+
+import org.objectweb.asm.AnnotationVisitor
+import org.objectweb.asm.Label
+import org.objectweb.asm.MethodVisitor
+import org.objectweb.asm.Opcodes.*
+
+/**
+ * Write "stub" byte-code for this method, preserving its other annotations
+ * except for the [removeAnnotations]. The method's original byte-code is discarded.
+ */
+abstract class StubbingMethodAdapter(
+    api: Int,
+    mv: MethodVisitor,
+    private val removeAnnotations: Set<String>
+) : MethodVisitor(api, mv) {
+    override fun visitAnnotation(descriptor: String, visible: Boolean): AnnotationVisitor? {
+        return if (removeAnnotations.contains(descriptor)) null else mv.visitAnnotation(descriptor, visible)
+    }
+
+    protected abstract fun writeStubCode()
+
+    final override fun visitCode() {
+        with (mv) {
+            visitCode()
+            writeStubCode()
+            visitMaxs(-1, -1)  // Trigger computation of the max values.
+            visitEnd()
+        }
+
+        // Prevent this visitor from writing any more byte-code.
+        mv = null
+    }
+}
+
+/**
+ * Write a method that throws [UnsupportedOperationException] with message "Method has been deleted".
+ */
+class ThrowingStubMethodAdapter(api: Int, mv: MethodVisitor, removeAnnotations: Set<String>)
+    : StubbingMethodAdapter(api, mv, removeAnnotations) {
+    override fun writeStubCode() {
+        with (mv) {
+            val throwEx = Label()
+            visitLabel(throwEx)
+            visitLineNumber(0, throwEx)
+            visitTypeInsn(NEW, "java/lang/UnsupportedOperationException")
+            visitInsn(DUP)
+            visitLdcInsn("Method has been deleted")
+            visitMethodInsn(INVOKESPECIAL, "java/lang/UnsupportedOperationException", "<init>", "(Ljava/lang/String;)V", false)
+            visitInsn(ATHROW)
+        }
+    }
+}
+
+/**
+ * Write an empty method. Can only be applied to methods that return void.
+ */
+class VoidStubMethodAdapter(api: Int, mv: MethodVisitor, removeAnnotations: Set<String>)
+    : StubbingMethodAdapter(api, mv, removeAnnotations) {
+    override fun writeStubCode() {
+        mv.visitInsn(RETURN)
+    }
+}
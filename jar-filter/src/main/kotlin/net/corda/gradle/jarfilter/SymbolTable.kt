@@ -0,0 +1,25 @@
+package net.corda.gradle.jarfilter
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+const val NO_SYMBOL = 0
+
+/**
+ * Assigns a small positive integer to each distinct string, so that a pair of
+ * strings such as a method's name and descriptor can be stored as a single
+ * [Long] key. Looking up a string's id does not allocate anything, and
+ * a string that has never been interned has no id, i.e. [NO_SYMBOL].
+ *
+ * The table is safe for concurrent use.
+ */
+class SymbolTable {
+    private val ids: MutableMap<String, Int> = ConcurrentHashMap()
+    private val nextId = AtomicInteger(NO_SYMBOL)
+
+    fun intern(symbol: String): Int = ids.computeIfAbsent(symbol) { nextId.incrementAndGet() }
+
+    fun idOf(symbol: String): Int = ids[symbol] ?: NO_SYMBOL
+
+    fun keyOf(first: Int, second: Int): Long = (first.toLong() shl 32) or (second.toLong() and 0xFFFFFFFFL)
+}
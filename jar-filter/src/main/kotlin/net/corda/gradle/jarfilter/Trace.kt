@@ -0,0 +1,165 @@
+package net.corda.gradle.jarfilter
+
+import org.gradle.api.logging.LogLevel
+import org.gradle.api.logging.LogLevel.DEBUG
+import org.gradle.api.logging.LogLevel.INFO
+import org.gradle.api.logging.Logger
+import java.io.File
+import java.io.IOException
+import java.nio.file.Files
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * The events that the byte-code visitors and [kotlin.Metadata] transformers report as they
+ * work through each class. An event's arguments fill the placeholders in its [message].
+ */
+enum class TraceEvent(val level: LogLevel, val message: String) {
+    CLASS(INFO, "Class {}"),
+    REMOVED_ANNOTATION(INFO, "- Removing annotation {}"),
+    UNWANTED_CLASS(INFO, "- Identified class {} as unwanted"),
+    VISIT_FIELD(DEBUG, "--- field ---> {}"),
+    DELETED_FIELD(INFO, "- Deleted field {},{}"),
+    VISIT_METHOD(DEBUG, "--- method ---> {}{}"),
+    DELETED_METHOD(INFO, "- Deleted method {}{}"),
+    STUBBED_METHOD(INFO, "- Stubbed out method {}{}"),
+    VISIT_INNER_CLASS(DEBUG, "--- inner class {} [outer: {}, inner: {}]"),
+    DELETED_INNER_CLASS(INFO, "- Deleted inner class {}"),
+    DELETED_INNER_CLASS_REFERENCE(INFO, "- Deleted reference to inner class: {}"),
+    VISIT_OUTER_CLASS(DEBUG, "--- outer class {} [enclosing method {},{}]"),
+    UNWANTED_BY_OUTER_CLASS(INFO, "- Identified class {} as unwanted by its outer class"),
+    FIELD_FOR_DELETION(DEBUG, "--- field {},{} will be deleted"),
+    EXTRA_METHOD_FOR_DELETION(INFO, "-- also identified method {}{} for deletion"),
+    EXTRA_METHOD_FOR_STUBBING(INFO, "-- also identified method {}{} for stubbing out"),
+    REMOVED_FIELD_ANNOTATION(INFO, "- Removing annotation {} from field {},{}"),
+    UNWANTED_FIELD(INFO, "- Identified field {},{} as unwanted"),
+    REMOVED_METHOD_ANNOTATION(INFO, "- Removing annotation {} from method {}{}"),
+    METHOD_FOR_DELETION(INFO, "- Identified method {}{} for deletion"),
+    PROPERTY_FOR_DELETION(INFO, "-- also identified property or typealias {},{} for deletion"),
+    METHOD_FOR_STUBBING(INFO, "- Identified method {}{} for stubbing out"),
+    UNWANTED_INVOCATION(INFO, "- Unwanted invocation of method {},{}{} from method {}{}"),
+    REMOVED_FIELD_REFERENCE(INFO, "- Unwanted reference to field {},{},{} REMOVED from constructor {}{}"),
+    UNWANTED_FIELD_REFERENCE(INFO, "- Unwanted reference to field {},{},{} from method {}{}"),
+    INVENTORY_FIELD(INFO, "- field {},{}"),
+    INVENTORY_METHOD(INFO, "- method {}{}"),
+    INVENTORY_INNER_CLASS(INFO, "- inner class {}"),
+    REMOVED_FUNCTION(INFO, "-- removing function: {}"),
+    REMOVED_METHOD(INFO, "-- removing method: {}"),
+    REMOVED_PROPERTY(INFO, "-- removing property: {},{}"),
+    REMOVED_TYPEALIAS(INFO, "-- removing typealias: {}"),
+    REMOVED_CONSTRUCTOR(INFO, "-- removing constructor: {}"),
+    REMOVED_DEFAULT_VALUES(INFO, "-- removing default parameter values: {}"),
+    REMOVED_NESTED_CLASS(INFO, "-- removing nested class: {}"),
+    REMOVED_SEALED_SUBCLASS(INFO, "-- removing sealed subclass: {}"),
+    METADATA_EXTRA_METHOD(INFO, "-- identified extra method {} for deletion"),
+    METADATA_EXTRA_FIELD(INFO, "-- identified extra field {},{} for deletion"),
+    DELETED_NON_API_CLASS_REFERENCE(INFO, "- Deleted reference to non-API class: {}"),
+    DELETED_PRIVATE_FIELD(INFO, "- Deleted private field {},{}"),
+    KEPT_INLINE_METHOD(INFO, "- Kept inline method {}{}"),
+    PRIMARY_CONSTRUCTOR(DEBUG, "Class {} has primary constructor {}{}"),
+    SANITISED_ANNOTATION(INFO, "Sanitising annotation {} from method {}.{}{}"),
+    SANITISED_SYNTHETIC_CONSTRUCTOR(INFO, "- applying {} to synthetic {}{}");
+
+    val argumentCount: Int = message.split("{}").size - 1
+}
+
+/**
+ * Where the byte-code visitors send their [TraceEvent]s, instead of logging every
+ * class, field and method themselves. The logger's levels are checked only once,
+ * when the [Trace] is created, and so an event that is neither logged nor recorded
+ * into a [TraceBuffer] costs no more than a method call. Callers should test
+ * [isEnabled] before computing any arguments that they do not already have.
+ */
+class Trace(private val logger: Logger, private val buffer: TraceBuffer? = null) {
+    private val isInfoEnabled = logger.isInfoEnabled
+    private val isDebugEnabled = logger.isDebugEnabled
+
+    @JvmField
+    val isEnabled: Boolean = isInfoEnabled || isDebugEnabled || buffer != null
+
+    fun event(event: TraceEvent, arg0: Any? = null, arg1: Any? = null, arg2: Any? = null, arg3: Any? = null, arg4: Any? = null) {
+        buffer?.record(event, arg0, arg1, arg2, arg3, arg4)
+        if (if (event.level == DEBUG) isDebugEnabled else isInfoEnabled) {
+            val args = arrayOf(arg0, arg1, arg2, arg3, arg4).copyOf(event.argumentCount)
+            logger.log(event.level, event.message, *args)
+        }
+    }
+
+    /**
+     * Writes any recorded events into [file]. This happens even when the work has failed,
+     * which is when the trace is most useful, and so it only warns if it cannot write.
+     */
+    fun writeTo(file: File?) {
+        if (buffer == null || file == null) {
+            return
+        }
+        try {
+            buffer.writeTo(file)
+            if (buffer.droppedCount > 0) {
+                logger.warn("Trace {} has dropped its oldest {} events", file, buffer.droppedCount)
+            }
+        } catch (e: IOException) {
+            logger.warn("Cannot write trace {}: {}", file, e.message)
+        }
+    }
+}
+
+/**
+ * A fixed number of [TraceEvent]s, recorded into arrays that are allocated up front.
+ * Once the buffer is full, each new event overwrites the oldest one. Several threads
+ * may record events at once, but the buffer should only be written once they have all
+ * finished. Events from the same class are always recorded by the same thread, after
+ * that class's [TraceEvent.CLASS] event.
+ */
+class TraceBuffer(capacity: Int) {
+    private companion object {
+        private const val MAX_ARGUMENTS = 5
+    }
+
+    private val capacity = capacity.coerceAtLeast(1)
+    private val next = AtomicLong()
+    private val events = arrayOfNulls<TraceEvent>(this.capacity)
+    private val nanos = LongArray(this.capacity)
+    private val threads = LongArray(this.capacity)
+    private val arguments = arrayOfNulls<Any>(this.capacity * MAX_ARGUMENTS)
+
+    /**
+     * The number of events that were overwritten before they could be written.
+     */
+    val droppedCount: Long get() = (next.get() - capacity).coerceAtLeast(0)
+
+    fun record(event: TraceEvent, arg0: Any?, arg1: Any?, arg2: Any?, arg3: Any?, arg4: Any?) {
+        val slot = (next.getAndIncrement() % capacity).toInt()
+        events[slot] = event
+        nanos[slot] = System.nanoTime()
+        threads[slot] = Thread.currentThread().id
+        val offset = slot * MAX_ARGUMENTS
+        arguments[offset] = arg0
+        arguments[offset + 1] = arg1
+        arguments[offset + 2] = arg2
+        arguments[offset + 3] = arg3
+        arguments[offset + 4] = arg4
+    }
+
+    /**
+     * Writes the recorded events, oldest first, as one JSON object per line.
+     * The sequence numbers show where any events have been dropped.
+     */
+    fun writeTo(file: File) {
+        val end = next.get()
+        Files.newBufferedWriter(file.toPath()).use { writer ->
+            for (sequence in (end - capacity).coerceAtLeast(0) until end) {
+                val slot = (sequence % capacity).toInt()
+                val event = events[slot] ?: continue
+                val offset = slot * MAX_ARGUMENTS
+                writer.write(jsonObject(
+                    "seq" to sequence,
+                    "nanos" to nanos[slot],
+                    "thread" to threads[slot],
+                    "event" to event.name,
+                    "args" to (offset until offset + event.argumentCount).map { arguments[it]?.toString() }
+                ).json)
+                writer.newLine()
+            }
+        }
+    }
+}
@@ -1,6 +1,6 @@
 package net.corda.gradle.jarfilter
 
-import java.util.Collections.unmodifiableMap
+import java.util.concurrent.ConcurrentHashMap
 
 /**
  * A persistent cache of all of the classes and methods that JarFilter has
@@ -10,37 +10,90 @@ import java.util.Collections.unmodifiableMap
  * The internal method cache is only required for those classes which are
  * being kept. When an entire class is declared as "unwanted", any entry
  * it may have in the method cache is removed.
+ *
+ * The cache is safe for concurrent use, so that a filter pass can
+ * transform several classes in parallel. It also remembers which
+ * classes' entries have changed, so that JarFilter only needs to
+ * revisit those classes that these changes may affect.
+ *
+ * FilterTransformer checks the cache for every method invocation that
+ * it visits, and so this check must not allocate anything. Each method's
+ * name and descriptor are therefore interned, and stored as a [Long] key.
  */
 class UnwantedCache {
-    private val _classes: MutableSet<String> = mutableSetOf()
-    private val _classMethods: MutableMap<String, MutableSet<MethodElement>> = mutableMapOf()
+    private class UnwantedMethods {
+        val keys = LongHashSet()
+        val elements: MutableSet<MethodElement> = ConcurrentHashMap.newKeySet()
+    }
+
+    private val symbols = SymbolTable()
+    private val _classes: MutableSet<String> = ConcurrentHashMap.newKeySet()
+    private val _classMethods: MutableMap<String, UnwantedMethods> = ConcurrentHashMap()
+    private val _stubbedMethods: MutableMap<String, MutableSet<MethodElement>> = ConcurrentHashMap()
+    private val _changes: MutableSet<String> = ConcurrentHashMap.newKeySet()
 
     val classes: Set<String> get() = _classes
-    val classMethods: Map<String, Set<MethodElement>> get() = unmodifiableMap(_classMethods)
+    val classMethods: Map<String, Set<MethodElement>> get() = _classMethods.mapValues { it.value.elements }
+    val stubbedMethods: Map<String, Set<MethodElement>> get() = _stubbedMethods
 
     fun containsClass(className: String): Boolean = _classes.contains(className)
 
+    /**
+     * The unwanted methods of a single class, without copying the whole cache as [classMethods] does.
+     */
+    fun methodsOf(className: String): Set<MethodElement>? = _classMethods[className]?.elements
+
+    fun stubbedMethodsOf(className: String): Set<MethodElement>? = _stubbedMethods[className]
+
     fun addClass(className: String): Boolean {
         return _classes.add(className).also { isAdded ->
             if (isAdded) {
                 _classMethods.remove(className)
+                _stubbedMethods.remove(className)
+                _changes.add(className)
             }
         }
     }
 
     fun addMethod(className: String, method: MethodElement) {
         if (!containsClass(className)) {
-            _classMethods.getOrPut(className) { mutableSetOf() }.add(method)
+            val methods = _classMethods.computeIfAbsent(className) { UnwantedMethods() }
+            if (methods.keys.add(symbols.keyOf(symbols.intern(method.name), symbols.intern(method.descriptor)))) {
+                methods.elements.add(method)
+                _changes.add(className)
+            }
+        }
+    }
+
+    /**
+     * Stubbing out a method cannot make anything else unwanted, and so
+     * this is only remembered for the cache and for a [DeletionPlan].
+     */
+    fun addStubbedMethod(className: String, method: MethodElement) {
+        if (!containsClass(className)) {
+            _stubbedMethods.computeIfAbsent(className) { ConcurrentHashMap.newKeySet() }.add(method)
         }
     }
 
-    private fun containsMethod(className: String, method: MethodElement): Boolean {
-        return _classMethods[className]?.contains(method) ?: false
+    /**
+     * Returns the names of those classes whose entries have
+     * changed since the last call, and then forgets them.
+     */
+    fun drainChanges(): Set<String> {
+        val changes = LinkedHashSet(_changes)
+        _changes.removeAll(changes)
+        return changes
+    }
+
+    private fun containsKeptMethod(className: String, methodName: String, methodDescriptor: String): Boolean {
+        val methods = _classMethods[className] ?: return false
+        val nameId = symbols.idOf(methodName)
+        val descriptorId = symbols.idOf(methodDescriptor)
+        return nameId != NO_SYMBOL && descriptorId != NO_SYMBOL && methods.keys.contains(symbols.keyOf(nameId, descriptorId))
     }
 
     fun containsMethod(className: String, methodName: String?, methodDescriptor: String?): Boolean {
         return containsClass(className) ||
-                (methodName != null && methodDescriptor != null && containsMethod(className, MethodElement(methodName, methodDescriptor)))
+                (methodName != null && methodDescriptor != null && containsKeptMethod(className, methodName, methodDescriptor))
     }
 }
-
@@ -2,18 +2,29 @@
 package net.corda.gradle.jarfilter
 
 import org.gradle.api.InvalidUserCodeException
+import org.gradle.api.InvalidUserDataException
+import org.gradle.api.Project
 import org.gradle.api.logging.Logger
+import org.objectweb.asm.AnnotationVisitor
 import org.objectweb.asm.ClassReader
+import org.objectweb.asm.ClassReader.SKIP_CODE
 import org.objectweb.asm.ClassReader.SKIP_DEBUG
 import org.objectweb.asm.ClassReader.SKIP_FRAMES
 import org.objectweb.asm.ClassVisitor
 import org.objectweb.asm.ClassWriter
+import org.objectweb.asm.Opcodes.ASM7
+import java.io.File
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption.COPY_ATTRIBUTES
 import java.nio.file.attribute.FileTime
 import java.util.*
 import java.util.Calendar.FEBRUARY
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.TimeUnit.NANOSECONDS
 import java.util.zip.ZipEntry
 import java.util.zip.ZipEntry.DEFLATED
-import java.util.zip.ZipEntry.STORED
 import kotlin.math.max
 import kotlin.text.RegexOption.*
 
@@ -47,7 +58,7 @@ fun <T : Element> MutableCollection<T>.expire(element: T) {
  */
 fun ZipEntry.asCompressed(): ZipEntry {
     return ZipEntry(name).also { entry ->
-        entry.lastModifiedTime = lastModifiedTime
+        lastModifiedTime?.also { mt -> entry.lastModifiedTime = mt }
         lastAccessTime?.also { at -> entry.lastAccessTime = at }
         creationTime?.also { ct -> entry.creationTime = ct }
         entry.comment = comment
@@ -56,9 +67,7 @@ fun ZipEntry.asCompressed(): ZipEntry {
     }
 }
 
-fun ZipEntry.copy(): ZipEntry {
-    return if (method == STORED) ZipEntry(this) else asCompressed()
-}
+val ZipEntry.isClass: Boolean get() = !isDirectory && name.endsWith(".class")
 
 fun ZipEntry.withFileTimestamps(preserveTimestamps: Boolean): ZipEntry {
     if (!preserveTimestamps) {
@@ -69,6 +78,174 @@ fun ZipEntry.withFileTimestamps(preserveTimestamps: Boolean): ZipEntry {
     return this
 }
 
+/**
+ * Checks that no two inputs would be written to the same target file or directory.
+ */
+fun checkDistinctTargets(targets: Iterable<File>) {
+    val duplicates = targets.groupBy(File::getAbsoluteFile).filterValues { it.size > 1 }.keys
+    if (duplicates.isNotEmpty()) {
+        throw InvalidUserDataException("More than one input would be written to: ${duplicates.joinToString()}")
+    }
+}
+
+/**
+ * Names a directory's target after the directory's path inside the project's build
+ * directory, or else inside the project directory. This is because directories such
+ * as build/classes/java/main and build/classes/kotlin/main have the same name.
+ */
+fun Project.targetNameOf(directory: File): String {
+    val dir = directory.absoluteFile
+    return sequenceOf(buildDir, projectDir)
+        .map(File::getAbsoluteFile)
+        .filter { base -> dir.startsWith(base) && dir != base }
+        .map { base -> dir.relativeTo(base).invariantSeparatorsPath.replace('/', '-') }
+        .firstOrNull() ?: dir.name
+}
+
+/**
+ * The number of threads that each of these concurrent units of work may use for its
+ * own parallel work, so that together they use no more threads than there are processors.
+ */
+fun threadsPerJar(concurrentJars: Int): Int = max(Runtime.getRuntime().availableProcessors() / max(concurrentJars, 1), 1)
+
+/**
+ * Lists the relative paths of every file inside this directory, in
+ * a stable order and using '/' as the separator, like a JAR's entries.
+ */
+fun Path.directoryEntries(): List<String> {
+    val root = toFile()
+    return root.walk().filter(File::isFile).map { it.relativeTo(root).invariantSeparatorsPath }.sorted().toList()
+}
+
+/**
+ * The total size of this file, or of every file inside this directory.
+ */
+fun Path.totalSize(): Long {
+    return toFile().walk().filter(File::isFile).fold(0L) { total, file -> total + file.length() }
+}
+
+/**
+ * Deletes every file inside this directory apart from these [entryNames], along with any
+ * directories that this leaves empty, so that the directory can be updated in place rather
+ * than written again from scratch. A file with this directory's own name is deleted too.
+ */
+@Throws(IOException::class)
+fun Path.retainEntries(entryNames: Set<String>) {
+    val root = toFile()
+    if (root.isFile) {
+        Files.delete(this)
+    } else if (root.isDirectory) {
+        for (file in root.walkBottomUp()) {
+            if (file.isFile) {
+                if (file.relativeTo(root).invariantSeparatorsPath !in entryNames) {
+                    Files.delete(file.toPath())
+                }
+            } else if (file != root && file.list()?.isEmpty() == true) {
+                Files.delete(file.toPath())
+            }
+        }
+    }
+}
+
+/**
+ * Writes [data] into this file unless it already contains exactly these bytes,
+ * and returns whether it has written anything. We delete the existing file rather
+ * than truncate it, because it could still be a hard link to one of our inputs.
+ */
+@Throws(IOException::class)
+fun Path.updateContents(data: ByteArray): Boolean {
+    if (Files.isRegularFile(this)) {
+        if (Files.size(this) == data.size.toLong() && Arrays.equals(Files.readAllBytes(this), data)) {
+            return false
+        }
+        Files.delete(this)
+    } else {
+        Files.createDirectories(parent)
+    }
+    Files.write(this, data)
+    return true
+}
+
+/**
+ * Copies this file to [target] unless the target already has the same contents, and
+ * returns whether it has replaced the target. The file is hard-linked instead only
+ * when asked to [hardLink] it and the file system can link them, because the target
+ * then shares both the original file's contents and its timestamp.
+ */
+@Throws(IOException::class)
+fun Path.updateCopy(target: Path, preserveTimestamps: Boolean, hardLink: Boolean): Boolean {
+    val isLinking = hardLink && preserveTimestamps
+    if (Files.isRegularFile(target)) {
+        if (Files.isSameFile(this, target)) {
+            if (isLinking) {
+                return false
+            }
+        } else if (hasSameContents(target)) {
+            target.setFileTimestamp(this, preserveTimestamps)
+            return false
+        }
+        // Never write through an existing link to one of our inputs.
+        Files.delete(target)
+    } else {
+        Files.createDirectories(target.parent)
+    }
+
+    if (isLinking) {
+        try {
+            Files.createLink(target, this)
+            return true
+        } catch (e: UnsupportedOperationException) {
+            // This file system does not support links, so copy the file instead.
+        } catch (e: IOException) {
+            // This file cannot be linked, e.g. across file systems, so copy it instead.
+        }
+    }
+    Files.copy(this, target, COPY_ATTRIBUTES)
+    target.setFileTimestamp(this, preserveTimestamps)
+    return true
+}
+
+@Throws(IOException::class)
+private fun Path.hasSameContents(other: Path): Boolean {
+    if (Files.size(this) != Files.size(other)) {
+        return false
+    }
+    return Files.newInputStream(this).buffered().use { input ->
+        Files.newInputStream(other).buffered().use { otherInput ->
+            var next: Int
+            do {
+                next = input.read()
+                if (next != otherInput.read()) {
+                    return false
+                }
+            } while (next != -1)
+            true
+        }
+    }
+}
+
+@Throws(IOException::class)
+fun Path.setFileTimestamp(source: Path, preserveTimestamps: Boolean) {
+    val timestamp = if (preserveTimestamps) Files.getLastModifiedTime(source) else CONSTANT_TIME
+    if (Files.getLastModifiedTime(this) != timestamp) {
+        Files.setLastModifiedTime(this, timestamp)
+    }
+}
+
+/**
+ * Stops this executor, and then waits for any tasks that were already running
+ * to finish. Nothing can then still be recording into the caller's report or
+ * trace once the caller writes them out.
+ */
+fun ExecutorService.shutdownAndAwait() {
+    shutdownNow()
+    try {
+        awaitTermination(Long.MAX_VALUE, NANOSECONDS)
+    } catch (e: InterruptedException) {
+        Thread.currentThread().interrupt()
+    }
+}
+
 /**
  * Converts Java class names to Java descriptors.
  */
@@ -107,5 +284,32 @@ fun <T> ByteArray.execute(visitor: (ClassVisitor) -> T, flags: Int = 0, passes:
     return bytecode
 }
 
-fun ByteArray.fixMetadata(logger: Logger, classNames: Set<String>): ByteArray
-        = execute({ writer -> MetaFixerVisitor(writer, logger, classNames) })
+/**
+ * Aligns this class's [kotlin.Metadata] with its byte-code. The first pass only takes an inventory
+ * of the class, skipping its methods' byte-code, and so we can return this [ByteArray] unchanged
+ * if the metadata is already consistent. Otherwise we need one more pass to rewrite the class.
+ */
+fun ByteArray.fixMetadata(logger: Logger, classNames: Set<String>, trace: Trace = Trace(logger)): ByteArray {
+    val inventory = MetaFixerVisitor(InventoryVisitor, logger, classNames, trace)
+    ClassReader(this).accept(inventory, SKIP_CODE or SKIP_DEBUG or SKIP_FRAMES)
+    if (!inventory.hasUnwantedElements) {
+        return this
+    }
+
+    val writer = ClassWriter(0)
+    ClassReader(this).accept(inventory.recreate(writer), FILTER_FLAGS)
+    return writer.toByteArray()
+}
+
+/**
+ * Discards everything except for the annotations' values,
+ * which a [KotlinAwareVisitor] must still be able to read.
+ */
+private object InventoryVisitor : ClassVisitor(ASM7) {
+    private object AnnotationValues : AnnotationVisitor(ASM7) {
+        override fun visitArray(name: String?): AnnotationVisitor = this
+        override fun visitAnnotation(name: String?, descriptor: String?): AnnotationVisitor = this
+    }
+
+    override fun visitAnnotation(descriptor: String?, visible: Boolean): AnnotationVisitor = AnnotationValues
+}
@@ -0,0 +1,42 @@
+package net.corda.gradle.jarfilter
+
+import java.io.Closeable
+import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Semaphore
+
+/**
+ * Limits how many of a task's units of work may run at once, so that the task can submit
+ * all of them together instead of waiting for each batch to finish before the next. Gradle
+ * passes each unit of work a copy of its parameters, but runs it inside this JVM, and so
+ * the unit of work finds its task's [Semaphore] using this [key].
+ */
+class WorkPermits(permits: Int) : Closeable {
+    companion object {
+        private val semaphores: MutableMap<String, Semaphore> = ConcurrentHashMap()
+
+        /**
+         * Runs [action] once the task which owns [key] allows it. There is no limit
+         * without a key, e.g. when Gradle runs an artifact transform instead.
+         */
+        fun <T> withPermit(key: String?, action: () -> T): T {
+            val semaphore = key?.let { semaphores[it] } ?: return action()
+            semaphore.acquire()
+            try {
+                return action()
+            } finally {
+                semaphore.release()
+            }
+        }
+    }
+
+    val key: String = UUID.randomUUID().toString()
+
+    init {
+        semaphores[key] = Semaphore(permits)
+    }
+
+    override fun close() {
+        semaphores.remove(key)
+    }
+}
@@ -0,0 +1,100 @@
+package net.corda.gradle.jarfilter
+
+import net.corda.gradle.jarfilter.asm.bytecode
+import net.corda.gradle.jarfilter.asm.descriptor
+import net.corda.gradle.jarfilter.asm.toClass
+import org.assertj.core.api.Assertions.*
+import org.gradle.api.logging.Logger
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.nio.file.Files
+import java.nio.file.Path
+import kotlin.annotation.AnnotationRetention.*
+
+class AnnotationRemoverTest {
+    companion object {
+        private val logger: Logger = StdOutLogging(AnnotationRemoverTest::class)
+        private val remover = AnnotationRemover(logger, setOf(Removable::class.java.descriptor))
+    }
+
+    @Test
+    fun testRemovesOnlyUnwantedAnnotations() {
+        val bytecode = HasRemovableAnnotations::class.java.bytecode
+        val patchedClass = remover.remove(bytecode).toClass<HasRemovableAnnotations, Any>()
+
+        with(patchedClass) {
+            assertFalse(isAnnotationPresent(Removable::class.java), "Removable annotation present")
+            assertThat(getAnnotation(Keepable::class.java).values).containsExactly("class", "data")
+            assertThat(getAnnotation(Nesting::class.java).value.values).containsExactly("nested")
+        }
+        with(patchedClass.getField("data")) {
+            assertFalse(isAnnotationPresent(Removable::class.java), "Removable annotation present on field")
+            assertThat(getAnnotation(Keepable::class.java).values).containsExactly("field")
+        }
+        with(patchedClass.getMethod("removableOnly")) {
+            assertThat(annotations).isEmpty()
+        }
+        with(patchedClass.getMethod("both")) {
+            assertFalse(isAnnotationPresent(Removable::class.java), "Removable annotation present on method")
+            assertThat(getAnnotation(Keepable::class.java).values).containsExactly("method")
+        }
+        patchedClass.getDeclaredConstructor().newInstance().also { obj ->
+            assertEquals(MESSAGE, patchedClass.getMethod("both").invoke(obj))
+        }
+    }
+
+    @Test
+    fun testRemovalsAreTraced(@TempDir dir: Path) {
+        val buffer = TraceBuffer(16)
+        AnnotationRemover(logger, setOf(Removable::class.java.descriptor), Trace(logger, buffer))
+            .remove(HasRemovableAnnotations::class.java.bytecode)
+
+        val events = dir.resolve("trace.jsonl").let { file ->
+            buffer.writeTo(file.toFile())
+            Files.readAllLines(file)
+        }.map { line -> line.substringAfter("\"event\":\"").substringBefore('"') }
+        assertThat(events).containsExactlyInAnyOrder(
+            "CLASS",
+            "REMOVED_FIELD_ANNOTATION",
+            "REMOVED_METHOD_ANNOTATION",
+            "REMOVED_METHOD_ANNOTATION",
+            "REMOVED_ANNOTATION"
+        )
+    }
+
+    @Test
+    fun testUnchangedClassIsReturnedAsIs() {
+        val bytecode = HasKeepableAnnotations::class.java.bytecode
+        assertSame(bytecode, remover.remove(bytecode))
+    }
+}
+
+@Retention(RUNTIME)
+annotation class Removable
+
+@Retention(RUNTIME)
+annotation class Keepable(val values: Array<String>)
+
+@Retention(RUNTIME)
+annotation class Nesting(val value: Keepable)
+
+@Removable
+@Keepable(["class", "data"])
+@Nesting(Keepable(["nested"]))
+class HasRemovableAnnotations {
+    @field:Removable
+    @field:Keepable(["field"])
+    @JvmField
+    val data: String = MESSAGE
+
+    @Removable
+    fun removableOnly(): String = MESSAGE
+
+    @Keepable(["method"])
+    @Removable
+    fun both(): String = MESSAGE
+}
+
+@Keepable(["class"])
+class HasKeepableAnnotations
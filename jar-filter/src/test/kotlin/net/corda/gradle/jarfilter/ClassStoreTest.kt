@@ -0,0 +1,94 @@
+package net.corda.gradle.jarfilter
+
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.nio.file.Files
+import java.nio.file.Path
+
+class ClassStoreTest {
+    private companion object {
+        private const val FIRST_ENTRY = "org/testing/First.class"
+        private const val SECOND_ENTRY = "org/testing/Second.class"
+        private const val THIRD_ENTRY = "org/testing/Third.class"
+        private val DATA = ByteArray(100) { it.toByte() }
+        private val OTHER_DATA = ByteArray(50) { (it * 3).toByte() }
+    }
+
+    @TempDir
+    lateinit var spillDir: Path
+
+    private fun spillFileCount(): Long = Files.list(spillDir).use { it.count() }
+
+    @Test
+    fun testHeapStore() {
+        ClassStore(spillDir, Long.MAX_VALUE, false).use { store ->
+            store[FIRST_ENTRY] = DATA
+            store[SECOND_ENTRY] = OTHER_DATA
+            assertArrayEquals(DATA, store[FIRST_ENTRY])
+            assertArrayEquals(OTHER_DATA, store[SECOND_ENTRY])
+            assertEquals(0, store.spilledCount)
+            assertEquals(0, spillFileCount())
+        }
+    }
+
+    @Test
+    fun testOffHeapStore() {
+        ClassStore(spillDir, Long.MAX_VALUE, true).use { store ->
+            store[FIRST_ENTRY] = DATA
+            assertArrayEquals(DATA, store[FIRST_ENTRY])
+            assertArrayEquals(DATA, store[FIRST_ENTRY])
+            assertEquals(0, store.spilledCount)
+        }
+    }
+
+    @Test
+    fun testSpillingToDisk() {
+        ClassStore(spillDir, DATA.size.toLong(), false).use { store ->
+            store[FIRST_ENTRY] = DATA
+            store[SECOND_ENTRY] = OTHER_DATA
+            store[THIRD_ENTRY] = DATA
+            assertEquals(2, store.spilledCount)
+
+            assertArrayEquals(DATA, store[FIRST_ENTRY])
+            assertArrayEquals(OTHER_DATA, store[SECOND_ENTRY])
+            assertArrayEquals(DATA, store[THIRD_ENTRY])
+        }
+        assertEquals(0, spillFileCount())
+    }
+
+    @Test
+    fun testReplacingEntryReleasesMemory() {
+        ClassStore(spillDir, DATA.size.toLong(), false).use { store ->
+            store[FIRST_ENTRY] = DATA
+            store[FIRST_ENTRY] = OTHER_DATA
+            store[SECOND_ENTRY] = OTHER_DATA
+            assertEquals(0, store.spilledCount)
+            assertArrayEquals(OTHER_DATA, store[FIRST_ENTRY])
+        }
+    }
+
+    @Test
+    fun testReplacedEntriesAreModified() {
+        ClassStore(spillDir, Long.MAX_VALUE, false).use { store ->
+            store[FIRST_ENTRY] = DATA
+            store[SECOND_ENTRY] = DATA
+            store[SECOND_ENTRY] = OTHER_DATA
+            assertFalse(store.isModified(FIRST_ENTRY))
+            assertTrue(store.isModified(SECOND_ENTRY))
+        }
+    }
+
+    @Test
+    fun testDeletedEntries() {
+        ClassStore(spillDir, 0, false).use { store ->
+            store[FIRST_ENTRY] = DATA
+            store[SECOND_ENTRY] = DATA
+            store[FIRST_ENTRY] = byteArrayOf()
+            assertTrue(store.isDeleted(FIRST_ENTRY))
+            assertFalse(store.isDeleted(SECOND_ENTRY))
+            assertEquals(0, store[FIRST_ENTRY].size)
+            assertEquals(listOf(FIRST_ENTRY, SECOND_ENTRY), store.names.toList())
+        }
+    }
+}
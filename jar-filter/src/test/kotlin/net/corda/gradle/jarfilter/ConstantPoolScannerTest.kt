@@ -0,0 +1,64 @@
+package net.corda.gradle.jarfilter
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import org.objectweb.asm.ClassWriter
+import org.objectweb.asm.ClassWriter.COMPUTE_MAXS
+import org.objectweb.asm.Opcodes.*
+
+class ConstantPoolScannerTest {
+    private companion object {
+        private const val CLASS_NAME = "org/testing/Example"
+        private const val OTHER_CLASS = "org/testing/Other"
+        private const val ARRAY_ELEMENT = "org/testing/Element"
+        private const val INTERFACE = "org/testing/Interface"
+        private const val DELETE = "Lorg/testing/Delete;"
+        private const val STUB = "Lorg/testing/Stub;"
+        private const val REMOVE = "Lorg/testing/Remove;"
+
+        private val scanner = ConstantPoolScanner(setOf(DELETE, STUB, REMOVE))
+    }
+
+    private fun classWithMethod(annotation: String?): ByteArray {
+        return ClassWriter(COMPUTE_MAXS).let { writer ->
+            writer.visit(V1_8, ACC_PUBLIC, CLASS_NAME, null, "java/lang/Object", arrayOf(INTERFACE))
+            writer.visitMethod(ACC_PUBLIC, "run", "()J", null, null).apply {
+                annotation?.also { visitAnnotation(it, false).visitEnd() }
+                visitCode()
+                visitTypeInsn(ANEWARRAY, "[L$ARRAY_ELEMENT;")
+                visitMethodInsn(INVOKESTATIC, OTHER_CLASS, "call", "()V", false)
+                visitLdcInsn(Long.MAX_VALUE)
+                visitInsn(LRETURN)
+                visitMaxs(-1, -1)
+                visitEnd()
+            }
+            writer.visitEnd()
+            writer.toByteArray()
+        }
+    }
+
+    @Test
+    fun testClassReferences() {
+        val summary = scanner.scan(classWithMethod(null))
+        assertThat(summary.className).isEqualTo(CLASS_NAME)
+        assertThat(summary.supertypes).containsExactly("java/lang/Object", INTERFACE)
+        assertThat(summary.classReferences)
+            .contains(OTHER_CLASS, ARRAY_ELEMENT, INTERFACE)
+            .doesNotContain(CLASS_NAME)
+    }
+
+    @Test
+    fun testWithoutAnnotations() {
+        val summary = scanner.scan(classWithMethod(null))
+        assertThat(summary.descriptors).isEmpty()
+        assertThat(summary.mentionsAny(setOf(DELETE))).isFalse()
+    }
+
+    @Test
+    fun testWithAnnotation() {
+        val summary = scanner.scan(classWithMethod(STUB))
+        assertThat(summary.descriptors).containsExactly(STUB)
+        assertThat(summary.mentionsAny(setOf(DELETE, STUB))).isTrue()
+        assertThat(summary.mentionsAny(setOf(DELETE, REMOVE))).isFalse()
+    }
+}
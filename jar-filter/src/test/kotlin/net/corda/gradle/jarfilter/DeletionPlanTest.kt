@@ -0,0 +1,97 @@
+package net.corda.gradle.jarfilter
+
+import org.gradle.api.InvalidUserDataException
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.nio.file.Files
+import java.nio.file.Path
+import kotlin.test.assertFailsWith
+
+class DeletionPlanTest {
+    private companion object {
+        private const val CLASS_NAME = "org/testing/Example"
+        private const val ENTRY_NAME = "$CLASS_NAME.class"
+        private const val SUPERTYPE = "org/testing/Base"
+        private val DATA = ByteArray(100) { it.toByte() }
+        private val DELETED = MethodElement("unwanted", "()V")
+        private val STUBBED = MethodElement("stubbed", "()Ljava/lang/String;")
+        private val ANNOTATIONS = FilterAnnotations.Values(
+            forDelete = linkedSetOf("org.testing.DeleteMe", "org.testing.RemoveMe"),
+            forStub = setOf("org.testing.StubMeOut"),
+            forRemove = emptySet(),
+            forSanitise = emptySet()
+        )
+    }
+
+    @TempDir
+    lateinit var planDir: Path
+
+    private val planFile: Path get() = planDir.resolve("example.plan")
+
+    @Test
+    fun testSaveAndLoad() {
+        DeletionPlan(ANNOTATIONS, listOf(PlanSection("example.jar", listOf(
+            PlannedClass(ENTRY_NAME, CLASS_NAME, listOf(SUPERTYPE), hashOf(DATA), false, listOf(DELETED), listOf(STUBBED)),
+            PlannedClass("Other.class", "Other", emptyList(), hashOf(), true, emptyList(), emptyList())
+        )))).save(planFile)
+
+        val loaded = DeletionPlan.load(planFile)
+        assertEquals(listOf("example.jar"), loaded.sections.map(PlanSection::source))
+        val classes = loaded.sections[0].classes
+        assertEquals(listOf(ENTRY_NAME, "Other.class"), classes.map(PlannedClass::entryName))
+        with(classes[0]) {
+            assertEquals(CLASS_NAME, className)
+            assertEquals(listOf(SUPERTYPE), supertypes)
+            assertEquals(hashOf(DATA), hash)
+            assertFalse(isUnwanted)
+            assertEquals(listOf(DELETED), deletedMethods)
+            assertEquals(listOf(STUBBED), stubbedMethods)
+        }
+        with(classes[1]) {
+            assertTrue(isUnwanted)
+            assertTrue(deletedMethods.isEmpty())
+            assertTrue(stubbedMethods.isEmpty())
+        }
+    }
+
+    @Test
+    fun testSectionForJar() {
+        val other = PlannedClass(ENTRY_NAME, CLASS_NAME, emptyList(), hashOf(), false, emptyList(), emptyList())
+        val example = PlannedClass(ENTRY_NAME, CLASS_NAME, emptyList(), hashOf(DATA), false, listOf(DELETED), emptyList())
+        val plan = DeletionPlan(ANNOTATIONS, listOf(PlanSection("other.jar", listOf(other)), PlanSection("example.jar", listOf(example))))
+        val hashes = mapOf(ENTRY_NAME to hashOf(DATA))
+
+        assertEquals("other.jar", plan.sectionFor("other.jar", hashes)?.source)
+        assertEquals("example.jar", plan.sectionFor("example-variant.jar", hashes)?.source)
+        assertNull(DeletionPlan(ANNOTATIONS, emptyList()).sectionFor("example.jar", hashes))
+    }
+
+    @Test
+    fun testPlanIsOnlyForSameAnnotations() {
+        DeletionPlan(ANNOTATIONS, emptyList()).save(planFile)
+        val loaded = DeletionPlan.load(planFile)
+
+        val reordered = FilterAnnotations.Values(
+            forDelete = linkedSetOf("org.testing.RemoveMe", "org.testing.DeleteMe"),
+            forStub = ANNOTATIONS.forStub,
+            forRemove = ANNOTATIONS.forRemove,
+            forSanitise = ANNOTATIONS.forSanitise
+        )
+        assertTrue(loaded.isFor(reordered))
+
+        val different = FilterAnnotations.Values(
+            forDelete = ANNOTATIONS.forDelete,
+            forStub = emptySet(),
+            forRemove = ANNOTATIONS.forStub,
+            forSanitise = ANNOTATIONS.forSanitise
+        )
+        assertFalse(loaded.isFor(different))
+    }
+
+    @Test
+    fun testNotAPlan() {
+        Files.write(planFile, DATA)
+        assertFailsWith<InvalidUserDataException> { DeletionPlan.load(planFile) }
+    }
+}
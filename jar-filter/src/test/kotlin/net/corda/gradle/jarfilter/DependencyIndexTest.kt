@@ -0,0 +1,90 @@
+package net.corda.gradle.jarfilter
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.objectweb.asm.ClassVisitor
+import org.objectweb.asm.ClassWriter
+import org.objectweb.asm.ClassWriter.COMPUTE_MAXS
+import org.objectweb.asm.Opcodes.*
+
+class DependencyIndexTest {
+    private companion object {
+        private const val CALLER = "org/testing/Caller"
+        private const val CALLEE = "org/testing/Callee"
+        private const val LAMBDA = "org/testing/Caller\$run\$1"
+        private const val SEALED = "org/testing/Sealed"
+        private const val SUBCLASS = "org/testing/Sealed\$Subclass"
+        private const val OBJECT = "java/lang/Object"
+
+        private fun classOf(className: String, superName: String = OBJECT, body: ClassVisitor.() -> Unit = {}): ByteArray {
+            return ClassWriter(COMPUTE_MAXS).let { writer ->
+                writer.visit(V1_8, ACC_PUBLIC, className, null, superName, null)
+                writer.body()
+                writer.visitEnd()
+                writer.toByteArray()
+            }
+        }
+    }
+
+    private lateinit var index: DependencyIndex
+    private lateinit var scanner: ConstantPoolScanner
+
+    @BeforeEach
+    fun setup() {
+        index = DependencyIndex()
+        scanner = ConstantPoolScanner(emptySet())
+        index(CALLER, classOf(CALLER) {
+            visitInnerClass(LAMBDA, null, null, ACC_FINAL)
+            visitMethod(ACC_PUBLIC, "run", "()V", null, null).apply {
+                visitCode()
+                visitMethodInsn(INVOKESTATIC, CALLEE, "call", "()V", false)
+                visitInsn(RETURN)
+                visitMaxs(-1, -1)
+                visitEnd()
+            }
+        })
+        index(CALLEE, classOf(CALLEE))
+        index(LAMBDA, classOf(LAMBDA) {
+            visitOuterClass(CALLER, "run", "()V")
+        })
+        index(SEALED, classOf(SEALED) {
+            visitInnerClass(SUBCLASS, SEALED, "Subclass", ACC_PUBLIC or ACC_STATIC)
+        })
+        index(SUBCLASS, classOf(SUBCLASS, SEALED))
+    }
+
+    private fun index(className: String, bytecode: ByteArray) {
+        index.record("$className.class", scanner.scan(bytecode))
+    }
+
+    @Test
+    fun testNothingAffected() {
+        assertThat(index.affectedBy(emptyList())).isEmpty()
+        assertThat(index.affectedBy(listOf("org/testing/Unknown"))).isEmpty()
+    }
+
+    @Test
+    fun testMethodOwnerAffectsCaller() {
+        assertThat(index.affectedBy(listOf(CALLEE)))
+            .containsExactlyInAnyOrder("$CALLEE.class", "$CALLER.class")
+    }
+
+    @Test
+    fun testOuterClassAffectsInnerClasses() {
+        assertThat(index.affectedBy(listOf(CALLER)))
+            .containsExactlyInAnyOrder("$CALLER.class", "$LAMBDA.class")
+    }
+
+    @Test
+    fun testInnerClassAffectsOuterClass() {
+        assertThat(index.affectedBy(listOf(LAMBDA)))
+            .containsExactlyInAnyOrder("$LAMBDA.class", "$CALLER.class")
+    }
+
+    @Test
+    fun testSubclassAffectsSuperclass() {
+        assertThat(index.affectedBy(listOf(SUBCLASS)))
+            .containsExactlyInAnyOrder("$SUBCLASS.class", "$SEALED.class")
+    }
+}
@@ -21,9 +21,9 @@ import java.util.zip.ZipEntry.*
  * - An uncompressed text file
  * - A directory entry
  *
- * The compression level is set to NO_COMPRESSION
- * in order to force the Gradle task to compress
- * the entries properly.
+ * The compression level is set to NO_COMPRESSION,
+ * so that we can tell which entries the Gradle task
+ * has compressed again.
  */
 class DummyJar(
     private val projectDir: Path,
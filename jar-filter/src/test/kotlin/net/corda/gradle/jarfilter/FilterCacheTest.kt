@@ -0,0 +1,63 @@
+package net.corda.gradle.jarfilter
+
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.nio.file.Files
+import java.nio.file.Path
+
+class FilterCacheTest {
+    private companion object {
+        private const val CONFIG_HASH = "config"
+        private const val CLASS_NAME = "org/testing/Example"
+        private const val ENTRY_NAME = "$CLASS_NAME.class"
+        private val DATA = ByteArray(100) { it.toByte() }
+        private val METHOD = MethodElement("unwanted", "()V")
+        private val STUBBED = MethodElement("stubbed", "()Ljava/lang/String;")
+    }
+
+    @TempDir
+    lateinit var cacheDir: Path
+
+    private val cacheFile: Path get() = cacheDir.resolve("example.jar.cache")
+
+    @Test
+    fun testMissingCache() {
+        assertTrue(FilterCache(cacheFile, CONFIG_HASH).load().isEmpty())
+    }
+
+    @Test
+    fun testSaveAndLoad() {
+        FilterCache(cacheFile, CONFIG_HASH).save(listOf(
+            CachedClass(ENTRY_NAME, CLASS_NAME, listOf("java/lang/Object"), hashOf(DATA), DATA, false, listOf(METHOD), listOf(STUBBED)),
+            CachedClass("Other.class", "Other", emptyList(), hashOf(), null, true, emptyList(), emptyList())
+        ))
+
+        val loaded = FilterCache(cacheFile, CONFIG_HASH).load()
+        assertEquals(listOf(ENTRY_NAME, "Other.class"), loaded.keys.toList())
+        with(loaded.getValue(ENTRY_NAME)) {
+            assertEquals(CLASS_NAME, className)
+            assertEquals(listOf("java/lang/Object"), supertypes)
+            assertEquals(hashOf(DATA), hash)
+            assertArrayEquals(DATA, data)
+            assertFalse(isUnwanted)
+            assertEquals(listOf(METHOD), unwantedMethods)
+            assertEquals(listOf(STUBBED), stubbedMethods)
+        }
+        with(loaded.getValue("Other.class")) {
+            assertNull(data)
+            assertTrue(isUnwanted)
+            assertTrue(unwantedMethods.isEmpty())
+            assertTrue(stubbedMethods.isEmpty())
+        }
+    }
+
+    @Test
+    fun testDifferentConfiguration() {
+        FilterCache(cacheFile, CONFIG_HASH).save(listOf(
+            CachedClass(ENTRY_NAME, CLASS_NAME, emptyList(), hashOf(DATA), ByteArray(0), true, emptyList(), emptyList())
+        ))
+        assertTrue(Files.isRegularFile(cacheFile))
+        assertTrue(FilterCache(cacheFile, "other-config").load().isEmpty())
+    }
+}
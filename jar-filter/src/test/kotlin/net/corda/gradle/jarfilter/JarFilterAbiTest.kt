@@ -0,0 +1,76 @@
+package net.corda.gradle.jarfilter
+
+import org.assertj.core.api.Assertions.*
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.lang.reflect.InvocationTargetException
+import java.nio.file.Path
+import kotlin.test.assertFailsWith
+
+class JarFilterAbiTest {
+    companion object {
+        private const val ABI_CLASS = "net.corda.gradle.HasAbi"
+        private const val LAMBDA_CLASS = "net.corda.gradle.HasAbi\$lambdaMessage\$1"
+
+        private lateinit var testProject: JarFilterProject
+
+        @BeforeAll
+        @JvmStatic
+        fun setup(@TempDir testProjectDir: Path) {
+            testProject = JarFilterProject(testProjectDir, "abi-jar").build()
+        }
+    }
+
+    @Test
+    fun publicFunctionIsStubbedOut() {
+        classLoaderFor(testProject.sourceJar).use { cl ->
+            cl.load<Any>(ABI_CLASS).apply {
+                assertEquals(MESSAGE, getMethod("publicMessage", String::class.java).invoke(null, MESSAGE))
+            }
+        }
+
+        classLoaderFor(testProject.filteredJar).use { cl ->
+            cl.load<Any>(ABI_CLASS).apply {
+                assertFailsWith<InvocationTargetException> {
+                    getMethod("publicMessage", String::class.java).invoke(null, MESSAGE)
+                }.also { ex ->
+                    assertThat(ex.targetException)
+                        .isInstanceOf(UnsupportedOperationException::class.java)
+                        .hasMessage("Method has been deleted")
+                }
+            }
+        }
+    }
+
+    @Test
+    fun privateFunctionIsDeleted() {
+        classLoaderFor(testProject.sourceJar).use { cl ->
+            cl.load<Any>(ABI_CLASS).apply {
+                assertNotNull(getDeclaredMethod("privateMessage", String::class.java))
+            }
+        }
+
+        classLoaderFor(testProject.filteredJar).use { cl ->
+            cl.load<Any>(ABI_CLASS).apply {
+                assertFailsWith<NoSuchMethodException> { getDeclaredMethod("privateMessage", String::class.java) }
+            }
+        }
+    }
+
+    @Test
+    fun inlineFunctionIsKept() {
+        classLoaderFor(testProject.filteredJar).use { cl ->
+            cl.load<Any>(ABI_CLASS).apply {
+                assertEquals(MESSAGE, getMethod("inlineMessage", String::class.java).invoke(null, MESSAGE))
+            }
+        }
+    }
+
+    @Test
+    fun lambdaClassIsDeleted() {
+        assertThat(testProject.sourceJar.getClassNames(ABI_CLASS)).contains(LAMBDA_CLASS)
+        assertThat(testProject.filteredJar.getClassNames(ABI_CLASS)).containsExactly(ABI_CLASS)
+    }
+}
@@ -0,0 +1,86 @@
+package net.corda.gradle.jarfilter
+
+import org.assertj.core.api.Assertions.*
+import org.gradle.testkit.runner.BuildResult
+import org.gradle.testkit.runner.GradleRunner
+import org.gradle.testkit.runner.TaskOutcome.*
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.nio.file.Files
+import java.nio.file.Path
+import kotlin.test.fail
+
+class JarFilterBuildCacheTest {
+    @Test
+    fun relocatedProjectLoadsOutputsFromCache(@TempDir testDir: Path) {
+        val cacheDir = testDir.resolve("build-cache")
+        val firstProjectDir = Files.createDirectories(testDir.resolve("first"))
+        val secondProjectDir = Files.createDirectories(testDir.resolve("second"))
+        val sourceJar = DummyJar(testDir, JarFilterBuildCacheTest::class.java, "cached").build()
+        createTestProject(firstProjectDir, sourceJar.path, cacheDir)
+        createTestProject(secondProjectDir, sourceJar.path, cacheDir)
+
+        with(runTasks(firstProjectDir)) {
+            assertEquals(SUCCESS, outcomeOf("jarFilter"))
+            assertEquals(SUCCESS, outcomeOf("metafix"))
+        }
+        with(runTasks(secondProjectDir)) {
+            assertEquals(FROM_CACHE, outcomeOf("jarFilter"))
+            assertEquals(FROM_CACHE, outcomeOf("metafix"))
+        }
+
+        for (fileName in listOf("cached-filtered.jar", "jarFilter-report.json")) {
+            val cached = secondProjectDir.pathOf("build", "filtered-libs", fileName)
+            assertThat(cached).isRegularFile()
+            assertArrayEquals(
+                Files.readAllBytes(firstProjectDir.pathOf("build", "filtered-libs", fileName)),
+                Files.readAllBytes(cached),
+                fileName
+            )
+        }
+        assertThat(secondProjectDir.pathOf("build", "metafixer-libs", "cached-metafixed.jar")).isRegularFile()
+    }
+
+    private fun createTestProject(testProjectDir: Path, source: Path, cacheDir: Path) {
+        testProjectDir.installResources("gradle.properties", "settings.gradle")
+        testProjectDir.resolve("settings.gradle").toFile().appendText("""
+            |buildCache {
+            |    local {
+            |        directory = file("${cacheDir.toUri()}")
+            |    }
+            |}
+            |""".trimMargin())
+        testProjectDir.resolve("build.gradle").toFile().writeText("""
+            |plugins {
+            |    id 'net.corda.plugins.jar-filter'
+            |}
+            |
+            |import net.corda.gradle.jarfilter.JarFilterTask
+            |import net.corda.gradle.jarfilter.MetaFixerTask
+            |
+            |task jarFilter(type: JarFilterTask) {
+            |    jars file("${source.toUri()}")
+            |    annotations {
+            |        forRemove = ["org.junit.jupiter.api.Test"]
+            |    }
+            |}
+            |
+            |task metafix(type: MetaFixerTask) {
+            |    jars file("${source.toUri()}")
+            |}
+            |""".trimMargin())
+    }
+
+    private fun runTasks(testProjectDir: Path): BuildResult {
+        val result = GradleRunner.create()
+            .withProjectDir(testProjectDir.toFile())
+            .withArguments(getGradleArgsForTasks("jarFilter", "metafix").apply { add("--build-cache") })
+            .withPluginClasspath()
+            .build()
+        println(result.output)
+        return result
+    }
+
+    private fun BuildResult.outcomeOf(taskName: String) = (task(":$taskName") ?: fail("No outcome for $taskName task")).outcome
+}
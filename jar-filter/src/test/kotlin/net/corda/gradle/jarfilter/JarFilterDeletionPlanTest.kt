@@ -0,0 +1,67 @@
+package net.corda.gradle.jarfilter
+
+import org.assertj.core.api.Assertions.*
+import org.gradle.testkit.runner.GradleRunner
+import org.gradle.testkit.runner.TaskOutcome.*
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.nio.file.Files
+import java.nio.file.Path
+import kotlin.test.fail
+
+class JarFilterDeletionPlanTest {
+    companion object {
+        private val FILTERED_JARS = listOf("deletion-plan-filtered.jar", "deletion-plan-variant-filtered.jar")
+
+        private lateinit var testProjectDir: Path
+        private lateinit var output: List<String>
+
+        @BeforeAll
+        @JvmStatic
+        fun setup(@TempDir projectDir: Path) {
+            testProjectDir = projectDir
+            projectDir.installResources(
+                "deletion-plan/build.gradle",
+                "repositories.gradle",
+                "gradle.properties",
+                "settings.gradle",
+                "kotlin.gradle"
+            )
+
+            val result = GradleRunner.create()
+                .withProjectDir(projectDir.toFile())
+                .withArguments(getGradleArgsForTasks("jarFilter", "jarFilterImport"))
+                .withPluginClasspath()
+                .build()
+            println(result.output)
+            output = result.output.lines()
+
+            for (taskName in listOf("jarFilter", "jarFilterExport", "jarFilterImport")) {
+                val task = result.task(":$taskName") ?: fail("No outcome for $taskName task")
+                assertEquals(SUCCESS, task.outcome, taskName)
+            }
+        }
+    }
+
+    @Test
+    fun importedPlanMatchesFilteringWithoutPlan() {
+        assertThat(testProjectDir.pathOf("build", "jar-filter-plans", "deletion.plan")).isRegularFile()
+        for (fileName in FILTERED_JARS) {
+            val filtered = testProjectDir.pathOf("build", "filtered-libs", fileName)
+            assertThat(filtered).isRegularFile()
+            val imported = testProjectDir.pathOf("build", "imported-libs", fileName)
+            assertThat(imported).isRegularFile()
+
+            assertArrayEquals(Files.readAllBytes(filtered), Files.readAllBytes(imported), fileName)
+        }
+    }
+
+    @Test
+    fun eachJarImportsItsOwnSection() {
+        assertThat(output)
+            .anyMatch { it.matches("Imported [1-9]\\d* of \\d+ classes from section deletion-plan\\.jar of .*".toRegex()) }
+            .anyMatch { it.matches("Imported 0 of \\d+ classes from section deletion-plan-variant\\.jar of .*".toRegex()) }
+    }
+}
@@ -0,0 +1,171 @@
+package net.corda.gradle.jarfilter
+
+import org.assertj.core.api.Assertions.*
+import org.gradle.testkit.runner.GradleRunner
+import org.gradle.testkit.runner.TaskOutcome.*
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.zip.ZipFile
+import kotlin.test.fail
+
+class JarFilterDirectoryTest {
+    companion object {
+        private lateinit var sourceJar: DummyJar
+        private lateinit var testProjectDir: Path
+        private lateinit var rerunOutput: List<String>
+
+        @BeforeAll
+        @JvmStatic
+        fun setup(@TempDir projectDir: Path) {
+            testProjectDir = projectDir
+            sourceJar = DummyJar(projectDir, JarFilterDirectoryTest::class.java, "classes").build()
+            val classesDir = projectDir.resolve("classes")
+            for (dir in listOf(classesDir, projectDir.pathOf("build", "classes", "java", "main"), projectDir.pathOf("build", "classes", "kotlin", "main"))) {
+                unpackJar(sourceJar.path, dir)
+            }
+            createTestProject(projectDir, sourceJar.path, classesDir)
+            rerunOutput = rerunTasks(projectDir)
+        }
+
+        private fun unpackJar(source: Path, dir: Path) {
+            ZipFile(source.toFile()).use { jar ->
+                for (entry in jar.entries()) {
+                    if (!entry.isDirectory) {
+                        val file = dir.resolve(entry.name)
+                        Files.createDirectories(file.parent)
+                        jar.getInputStream(entry).use { Files.copy(it, file) }
+                    }
+                }
+            }
+        }
+
+        private fun createTestProject(testProjectDir: Path, source: Path, classesDir: Path) {
+            testProjectDir.installResources("gradle.properties", "settings.gradle")
+            testProjectDir.resolve("build.gradle").toFile().writeText("""
+                |plugins {
+                |    id 'net.corda.plugins.jar-filter'
+                |}
+                |
+                |import net.corda.gradle.jarfilter.JarFilterTask
+                |import net.corda.gradle.jarfilter.MetaFixerTask
+                |
+                |task jarFilter(type: JarFilterTask) {
+                |    jars file("${source.toUri()}"), file("${classesDir.toUri()}")
+                |    annotations {
+                |        forRemove = ["org.junit.jupiter.api.Test"]
+                |    }
+                |}
+                |
+                |task metafix(type: MetaFixerTask) {
+                |    jars file("${classesDir.toUri()}")
+                |}
+                |
+                |task jarFilterBuildClasses(type: JarFilterTask) {
+                |    jars file("${'$'}buildDir/classes/java/main"), file("${'$'}buildDir/classes/kotlin/main")
+                |    outputDir file("${'$'}buildDir/filtered-build-classes")
+                |    annotations {
+                |        forRemove = ["org.junit.jupiter.api.Test"]
+                |    }
+                |}
+                |
+                |task metafixBuildClasses(type: MetaFixerTask) {
+                |    jars file("${'$'}buildDir/classes/java/main"), file("${'$'}buildDir/classes/kotlin/main")
+                |    outputDir file("${'$'}buildDir/metafixed-build-classes")
+                |}
+                |""".trimMargin())
+            val result = GradleRunner.create()
+                .withProjectDir(testProjectDir.toFile())
+                .withArguments(getGradleArgsForTasks("jarFilter", "metafix", "jarFilterBuildClasses", "metafixBuildClasses"))
+                .withPluginClasspath()
+                .build()
+            println(result.output)
+
+            val jarFilter = result.task(":jarFilter") ?: fail("No outcome for jarFilter task")
+            assertEquals(SUCCESS, jarFilter.outcome)
+            val metafix = result.task(":metafix") ?: fail("No outcome for metafix task")
+            assertEquals(SUCCESS, metafix.outcome)
+            val jarFilterBuildClasses = result.task(":jarFilterBuildClasses") ?: fail("No outcome for jarFilterBuildClasses task")
+            assertEquals(SUCCESS, jarFilterBuildClasses.outcome)
+            val metafixBuildClasses = result.task(":metafixBuildClasses") ?: fail("No outcome for metafixBuildClasses task")
+            assertEquals(SUCCESS, metafixBuildClasses.outcome)
+        }
+
+        private fun rerunTasks(testProjectDir: Path): List<String> {
+            val result = GradleRunner.create()
+                .withProjectDir(testProjectDir.toFile())
+                .withArguments(getGradleArgsForTasks("jarFilter", "metafix").apply { add("--rerun-tasks") })
+                .withPluginClasspath()
+                .build()
+            println(result.output)
+            return result.output.lines()
+        }
+    }
+
+    @Test
+    fun filteredDirectoryMatchesFilteredJar() {
+        val filteredJar = testProjectDir.pathOf("build", "filtered-libs", "classes-filtered.jar")
+        assertThat(filteredJar).isRegularFile()
+        val filteredDir = testProjectDir.pathOf("build", "filtered-libs", "classes-filtered")
+        assertThat(filteredDir).isDirectory()
+
+        ZipFile(filteredJar.toFile()).use { jar ->
+            val fileNames = jar.entries().asSequence().filterNot { it.isDirectory }.map { it.name }.toList()
+            assertThat(filteredDir.directoryEntries()).containsExactlyInAnyOrderElementsOf(fileNames)
+            for (fileName in fileNames) {
+                val data = jar.getInputStream(jar.getEntry(fileName)).use { it.readBytes() }
+                assertArrayEquals(data, Files.readAllBytes(filteredDir.resolve(fileName)), fileName)
+            }
+        }
+    }
+
+    @Test
+    fun buildDirectoriesWithSameNameHaveDistinctOutputs() {
+        val classesDir = testProjectDir.resolve("classes")
+        for (outputDir in listOf(
+            testProjectDir.pathOf("build", "filtered-build-classes", "classes-java-main-filtered"),
+            testProjectDir.pathOf("build", "filtered-build-classes", "classes-kotlin-main-filtered"),
+            testProjectDir.pathOf("build", "metafixed-build-classes", "classes-java-main-metafixed"),
+            testProjectDir.pathOf("build", "metafixed-build-classes", "classes-kotlin-main-metafixed")
+        )) {
+            assertThat(outputDir).isDirectory()
+            assertThat(outputDir.directoryEntries()).containsExactlyElementsOf(classesDir.directoryEntries())
+        }
+    }
+
+    @Test
+    fun outputDirectoriesAreNotLinkedToSource() {
+        val classesDir = testProjectDir.resolve("classes")
+        for (outputDir in listOf(
+            testProjectDir.pathOf("build", "filtered-libs", "classes-filtered"),
+            testProjectDir.pathOf("build", "metafixer-libs", "classes-metafixed")
+        )) {
+            for (fileName in outputDir.directoryEntries()) {
+                assertFalse(Files.isSameFile(classesDir.resolve(fileName), outputDir.resolve(fileName)), fileName)
+            }
+        }
+    }
+
+    @Test
+    fun rerunDoesNotRewriteOutputDirectories() {
+        assertThat(rerunOutput)
+            .anyMatch { it.matches("Updated 0 of \\d+ files in .*classes-filtered".toRegex()) }
+            .anyMatch { it.matches("Updated 0 of \\d+ files in .*classes-metafixed".toRegex()) }
+    }
+
+    @Test
+    fun metaFixedDirectoryIsUnchanged() {
+        val classesDir = testProjectDir.resolve("classes")
+        val metafixedDir = testProjectDir.pathOf("build", "metafixer-libs", "classes-metafixed")
+        assertThat(metafixedDir).isDirectory()
+
+        val fileNames = classesDir.directoryEntries()
+        assertThat(metafixedDir.directoryEntries()).containsExactlyElementsOf(fileNames)
+        for (fileName in fileNames) {
+            assertArrayEquals(Files.readAllBytes(classesDir.resolve(fileName)), Files.readAllBytes(metafixedDir.resolve(fileName)), fileName)
+        }
+    }
+}
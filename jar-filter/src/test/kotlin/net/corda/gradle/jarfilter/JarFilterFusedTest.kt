@@ -0,0 +1,81 @@
+package net.corda.gradle.jarfilter
+
+import org.assertj.core.api.Assertions.*
+import org.gradle.testkit.runner.GradleRunner
+import org.gradle.testkit.runner.TaskOutcome.*
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.net.URI
+import java.nio.file.Files
+import java.nio.file.Path
+import kotlin.test.fail
+
+class JarFilterFusedTest {
+    companion object {
+        private lateinit var sourceJar: DummyJar
+        private lateinit var testProjectDir: Path
+
+        @BeforeAll
+        @JvmStatic
+        fun setup(@TempDir projectDir: Path) {
+            testProjectDir = projectDir
+            sourceJar = DummyJar(projectDir, JarFilterFusedTest::class.java, "fused").build()
+            createTestProject(projectDir, sourceJar.path.toUri())
+        }
+
+        private fun createTestProject(testProjectDir: Path, source: URI) {
+            testProjectDir.installResources("gradle.properties", "settings.gradle")
+            testProjectDir.resolve("build.gradle").toFile().writeText("""
+                |plugins {
+                |    id 'net.corda.plugins.jar-filter'
+                |}
+                |
+                |import net.corda.gradle.jarfilter.JarFilterTask
+                |import net.corda.gradle.jarfilter.MetaFixerTask
+                |
+                |task jarFilter(type: JarFilterTask) {
+                |    jars file("$source")
+                |    annotations {
+                |        forRemove = ["org.junit.jupiter.api.Test"]
+                |    }
+                |}
+                |
+                |task metafix(type: MetaFixerTask) {
+                |    jars jarFilter.filtered
+                |}
+                |
+                |task jarFilterFused(type: JarFilterTask) {
+                |    jars file("$source")
+                |    outputDir file("${'$'}buildDir/fused")
+                |    annotations {
+                |        forRemove = ["org.junit.jupiter.api.Test"]
+                |    }
+                |    fixMetadata = true
+                |}
+                |""".trimMargin())
+            val result = GradleRunner.create()
+                .withProjectDir(testProjectDir.toFile())
+                .withArguments(getGradleArgsForTasks("metafix", "jarFilterFused"))
+                .withPluginClasspath()
+                .build()
+            println(result.output)
+
+            val metafix = result.task(":metafix") ?: fail("No outcome for metafix task")
+            assertEquals(SUCCESS, metafix.outcome)
+            val jarFilterFused = result.task(":jarFilterFused") ?: fail("No outcome for jarFilterFused task")
+            assertEquals(SUCCESS, jarFilterFused.outcome)
+        }
+    }
+
+    @Test
+    fun fusedOutputMatchesMetaFixedOutput() {
+        val metafixed = testProjectDir.pathOf("build", "metafixer-libs", "fused-filtered-metafixed.jar")
+        assertThat(metafixed).isRegularFile()
+        val fused = testProjectDir.pathOf("build", "fused", "fused-filtered.jar")
+        assertThat(fused).isRegularFile()
+
+        assertArrayEquals(Files.readAllBytes(metafixed), Files.readAllBytes(fused))
+    }
+}
@@ -0,0 +1,102 @@
+package net.corda.gradle.jarfilter
+
+import org.assertj.core.api.Assertions.*
+import org.gradle.testkit.runner.GradleRunner
+import org.gradle.testkit.runner.TaskOutcome.*
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.net.URI
+import java.nio.file.Files
+import java.nio.file.Path
+import kotlin.test.fail
+
+class JarFilterParallelTest {
+    companion object {
+        private lateinit var sourceJar: DummyJar
+        private lateinit var otherJar: DummyJar
+        private lateinit var testProjectDir: Path
+
+        @BeforeAll
+        @JvmStatic
+        fun setup(@TempDir projectDir: Path) {
+            testProjectDir = projectDir
+            sourceJar = DummyJar(projectDir, JarFilterParallelTest::class.java, "parallel").build()
+            otherJar = DummyJar(projectDir, JarFilterParallelTest::class.java, "other").build()
+            createTestProject(projectDir, sourceJar.path.toUri(), otherJar.path.toUri())
+        }
+
+        private fun createTestProject(testProjectDir: Path, source: URI, other: URI) {
+            testProjectDir.installResources("gradle.properties", "settings.gradle")
+            testProjectDir.resolve("build.gradle").toFile().writeText("""
+                |plugins {
+                |    id 'net.corda.plugins.jar-filter'
+                |}
+                |
+                |import net.corda.gradle.jarfilter.JarFilterTask
+                |task jarFilter(type: JarFilterTask) {
+                |    jars file("$source")
+                |    outputDir file("${'$'}buildDir/sequential")
+                |    annotations {
+                |        forRemove = ["org.junit.jupiter.api.Test"]
+                |    }
+                |}
+                |
+                |task jarFilterParallel(type: JarFilterTask) {
+                |    jars file("$source")
+                |    outputDir file("${'$'}buildDir/parallel")
+                |    annotations {
+                |        forRemove = ["org.junit.jupiter.api.Test"]
+                |    }
+                |    parallel = true
+                |    maxInFlight = 2
+                |}
+                |
+                |task jarFilterConcurrent(type: JarFilterTask) {
+                |    jars file("$source"), file("$other")
+                |    outputDir file("${'$'}buildDir/concurrent")
+                |    annotations {
+                |        forRemove = ["org.junit.jupiter.api.Test"]
+                |    }
+                |    maxConcurrentJars = 2
+                |}
+                |""".trimMargin())
+            val result = GradleRunner.create()
+                .withProjectDir(testProjectDir.toFile())
+                .withArguments(getGradleArgsForTasks("jarFilter", "jarFilterParallel", "jarFilterConcurrent"))
+                .withPluginClasspath()
+                .build()
+            println(result.output)
+
+            val jarFilter = result.task(":jarFilter") ?: fail("No outcome for jarFilter task")
+            assertEquals(SUCCESS, jarFilter.outcome)
+            val jarFilterParallel = result.task(":jarFilterParallel") ?: fail("No outcome for jarFilterParallel task")
+            assertEquals(SUCCESS, jarFilterParallel.outcome)
+            val jarFilterConcurrent = result.task(":jarFilterConcurrent") ?: fail("No outcome for jarFilterConcurrent task")
+            assertEquals(SUCCESS, jarFilterConcurrent.outcome)
+        }
+    }
+
+    @Test
+    fun parallelOutputMatchesSequentialOutput() {
+        val sequential = testProjectDir.pathOf("build", "sequential", "parallel-filtered.jar")
+        assertThat(sequential).isRegularFile()
+        val parallel = testProjectDir.pathOf("build", "parallel", "parallel-filtered.jar")
+        assertThat(parallel).isRegularFile()
+
+        assertArrayEquals(Files.readAllBytes(sequential), Files.readAllBytes(parallel))
+    }
+
+    @Test
+    fun concurrentOutputMatchesSequentialOutput() {
+        val sequential = testProjectDir.pathOf("build", "sequential", "parallel-filtered.jar")
+        assertThat(sequential).isRegularFile()
+        val concurrent = testProjectDir.pathOf("build", "concurrent", "parallel-filtered.jar")
+        assertThat(concurrent).isRegularFile()
+        val other = testProjectDir.pathOf("build", "concurrent", "other-filtered.jar")
+        assertThat(other).isRegularFile()
+
+        assertArrayEquals(Files.readAllBytes(sequential), Files.readAllBytes(concurrent))
+    }
+}
@@ -0,0 +1,81 @@
+package net.corda.gradle.jarfilter
+
+import org.assertj.core.api.Assertions.*
+import org.gradle.testkit.runner.GradleRunner
+import org.gradle.testkit.runner.TaskOutcome.*
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.nio.file.Path
+import kotlin.test.fail
+
+class JarFilterReportTest {
+    companion object {
+        private lateinit var testProjectDir: Path
+
+        @BeforeAll
+        @JvmStatic
+        fun setup(@TempDir projectDir: Path) {
+            testProjectDir = projectDir
+            val sourceJar = DummyJar(projectDir, JarFilterReportTest::class.java, "report").build()
+            createTestProject(projectDir, sourceJar.path)
+        }
+
+        private fun createTestProject(testProjectDir: Path, source: Path) {
+            testProjectDir.installResources("gradle.properties", "settings.gradle")
+            testProjectDir.resolve("build.gradle").toFile().writeText("""
+                |plugins {
+                |    id 'net.corda.plugins.jar-filter'
+                |}
+                |
+                |import net.corda.gradle.jarfilter.JarFilterTask
+                |import net.corda.gradle.jarfilter.MetaFixerTask
+                |
+                |task jarFilter(type: JarFilterTask) {
+                |    jars file("${source.toUri()}")
+                |    annotations {
+                |        forRemove = ["org.junit.jupiter.api.Test"]
+                |    }
+                |}
+                |
+                |task metafix(type: MetaFixerTask) {
+                |    jars file("${source.toUri()}")
+                |}
+                |""".trimMargin())
+            val result = GradleRunner.create()
+                .withProjectDir(testProjectDir.toFile())
+                .withArguments(getGradleArgsForTasks("jarFilter", "metafix"))
+                .withPluginClasspath()
+                .build()
+            println(result.output)
+
+            val jarFilter = result.task(":jarFilter") ?: fail("No outcome for jarFilter task")
+            assertEquals(SUCCESS, jarFilter.outcome)
+            val metafix = result.task(":metafix") ?: fail("No outcome for metafix task")
+            assertEquals(SUCCESS, metafix.outcome)
+        }
+    }
+
+    @Test
+    fun jarFilterReport() {
+        val reportFile = testProjectDir.pathOf("build", "filtered-libs", "jarFilter-report.json")
+        assertThat(reportFile).isRegularFile()
+        assertThat(reportFile.toFile().readText())
+            .startsWith("{\"task\":\":jarFilter\",\"jars\":[{")
+            .contains("report-filtered.jar")
+            .contains("{\"pass\":1,\"kind\":\"remove-annotations\",\"classesVisited\":1,\"classesRewritten\":1,\"classesDeleted\":0,")
+            .contains("\"read\":{\"wallNanos\":", "\"transform\":{", "\"metadata\":{", "\"deflate\":{")
+    }
+
+    @Test
+    fun metaFixerReport() {
+        val reportFile = testProjectDir.pathOf("build", "metafixer-libs", "metafix-report.json")
+        assertThat(reportFile).isRegularFile()
+        assertThat(reportFile.toFile().readText())
+            .startsWith("{\"task\":\":metafix\",\"jars\":[{")
+            .contains("report-metafixed.jar")
+            .contains("{\"pass\":1,\"kind\":\"metafix\",")
+            .contains("\"classesRewritten\":0,")
+    }
+}
@@ -0,0 +1,89 @@
+package net.corda.gradle.jarfilter
+
+import org.assertj.core.api.Assertions.*
+import org.gradle.testkit.runner.GradleRunner
+import org.gradle.testkit.runner.TaskOutcome.*
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.net.URI
+import java.nio.file.Files
+import java.nio.file.Path
+import kotlin.test.fail
+
+class JarFilterTransformTest {
+    companion object {
+        private lateinit var sourceJar: DummyJar
+        private lateinit var testProjectDir: Path
+
+        @BeforeAll
+        @JvmStatic
+        fun setup(@TempDir projectDir: Path) {
+            testProjectDir = projectDir
+            sourceJar = DummyJar(projectDir, JarFilterTransformTest::class.java, "transform").build()
+            createTestProject(projectDir, sourceJar.path.toUri())
+        }
+
+        private fun createTestProject(testProjectDir: Path, source: URI) {
+            testProjectDir.installResources("gradle.properties", "settings.gradle")
+            testProjectDir.resolve("build.gradle").toFile().writeText("""
+                |plugins {
+                |    id 'net.corda.plugins.jar-filter'
+                |}
+                |
+                |import net.corda.gradle.jarfilter.JarFilterPlugin
+                |import net.corda.gradle.jarfilter.JarFilterTask
+                |
+                |configurations {
+                |    unfiltered
+                |}
+                |
+                |dependencies {
+                |    unfiltered files("$source")
+                |}
+                |
+                |jarFiltering.filterDependencies {
+                |    forRemove = ["org.junit.jupiter.api.Test"]
+                |}
+                |
+                |task jarFilter(type: JarFilterTask) {
+                |    jars file("$source")
+                |    annotations {
+                |        forRemove = ["org.junit.jupiter.api.Test"]
+                |    }
+                |}
+                |
+                |task transformed(type: Copy) {
+                |    from configurations.unfiltered.incoming.artifactView {
+                |        attributes {
+                |            attribute(JarFilterPlugin.ARTIFACT_TYPE, JarFilterPlugin.FILTERED_JAR_TYPE)
+                |        }
+                |    }.files
+                |    into file("${'$'}buildDir/transformed")
+                |}
+                |""".trimMargin())
+            val result = GradleRunner.create()
+                .withProjectDir(testProjectDir.toFile())
+                .withArguments(getGradleArgsForTasks("jarFilter", "transformed"))
+                .withPluginClasspath()
+                .build()
+            println(result.output)
+
+            val jarFilter = result.task(":jarFilter") ?: fail("No outcome for jarFilter task")
+            assertEquals(SUCCESS, jarFilter.outcome)
+            val transformed = result.task(":transformed") ?: fail("No outcome for transformed task")
+            assertEquals(SUCCESS, transformed.outcome)
+        }
+    }
+
+    @Test
+    fun transformOutputMatchesTaskOutput() {
+        val filtered = testProjectDir.pathOf("build", "filtered-libs", "transform-filtered.jar")
+        assertThat(filtered).isRegularFile()
+        val transformed = testProjectDir.pathOf("build", "transformed", "transform-filtered.jar")
+        assertThat(transformed).isRegularFile()
+
+        assertArrayEquals(Files.readAllBytes(filtered), Files.readAllBytes(transformed))
+    }
+}
@@ -0,0 +1,80 @@
+package net.corda.gradle.jarfilter
+
+import net.corda.gradle.jarfilter.asm.resourceName
+import org.assertj.core.api.Assertions.*
+import org.gradle.testkit.runner.GradleRunner
+import org.gradle.testkit.runner.TaskOutcome.*
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.net.URI
+import java.nio.file.Path
+import java.util.zip.ZipFile
+import kotlin.test.fail
+
+class JarFilterUnchangedTest {
+    companion object {
+        private lateinit var sourceJar: DummyJar
+        private lateinit var filteredJar: Path
+
+        @BeforeAll
+        @JvmStatic
+        fun setup(@TempDir testProjectDir: Path) {
+            sourceJar = DummyJar(testProjectDir, JarFilterUnchangedTest::class.java, "unchanged").build()
+            filteredJar = createTestProject(testProjectDir, sourceJar.path.toUri())
+        }
+
+        private fun createTestProject(testProjectDir: Path, source: URI): Path {
+            testProjectDir.installResources("gradle.properties", "settings.gradle")
+            testProjectDir.resolve("build.gradle").toFile().writeText("""
+                |plugins {
+                |    id 'net.corda.plugins.jar-filter'
+                |}
+                |
+                |import net.corda.gradle.jarfilter.JarFilterTask
+                |task jarFilter(type: JarFilterTask) {
+                |    jars file("$source")
+                |    annotations {
+                |        forDelete = ["net.corda.gradle.jarfilter.DoesNotExist"]
+                |    }
+                |}
+                |""".trimMargin())
+            val result = GradleRunner.create()
+                .withProjectDir(testProjectDir.toFile())
+                .withArguments(getGradleArgsForTasks("jarFilter"))
+                .withPluginClasspath()
+                .build()
+            println(result.output)
+
+            val jarFilter = result.task(":jarFilter") ?: fail("No outcome for jarFilter task")
+            assertEquals(SUCCESS, jarFilter.outcome)
+
+            val filtered = testProjectDir.pathOf("build", "filtered-libs", "unchanged-filtered.jar")
+            assertThat(filtered).isRegularFile()
+            return filtered
+        }
+    }
+
+    @Test
+    fun unchangedEntriesAreCopied() {
+        ZipFile(sourceJar.path.toFile()).use { source ->
+            ZipFile(filteredJar.toFile()).use { filtered ->
+                assertEquals(source.size(), filtered.size())
+                for (entry in source.entries()) {
+                    val copied = filtered.getEntry(entry.name) ?: fail("Entry ${entry.name} missing")
+                    assertEquals(entry.crc, copied.crc, "CRC for ${entry.name}")
+                    assertEquals(entry.compressedSize, copied.compressedSize, "Compressed size for ${entry.name}")
+                }
+            }
+        }
+    }
+
+    @Test
+    fun unchangedClassIsNotRecompressed() {
+        ZipFile(filteredJar.toFile()).use { filtered ->
+            val classEntry = filtered.getEntry(JarFilterUnchangedTest::class.java.resourceName)
+            assertThat(classEntry.compressedSize).isGreaterThan(classEntry.size)
+        }
+    }
+}
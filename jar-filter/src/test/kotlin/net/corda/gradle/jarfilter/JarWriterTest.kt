@@ -0,0 +1,189 @@
+package net.corda.gradle.jarfilter
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption.APPEND
+import java.nio.file.attribute.FileTime
+import java.util.concurrent.Executors
+import java.util.zip.CRC32
+import java.util.zip.Deflater.BEST_SPEED
+import java.util.zip.ZipEntry
+import java.util.zip.ZipEntry.DEFLATED
+import java.util.zip.ZipEntry.STORED
+import java.util.zip.ZipFile
+import java.util.zip.ZipOutputStream
+
+class JarWriterTest {
+    private companion object {
+        private const val JAR_COMMENT = "Test JAR"
+        private const val CLASS_NAME = "org/testing/Example.class"
+        private val MODIFIED_TIME: FileTime = FileTime.fromMillis(1500000000000)
+        private val STORED_DATA = "Stored data".toByteArray()
+        private val DEFLATED_DATA = "Deflated data ".repeat(100).toByteArray()
+    }
+
+    @TempDir
+    lateinit var testDir: Path
+
+    private lateinit var source: Path
+
+    @BeforeEach
+    fun setup() {
+        source = testDir.resolve("source.jar")
+        ZipOutputStream(Files.newOutputStream(source)).use { zip ->
+            zip.setComment(JAR_COMMENT)
+            zip.setLevel(BEST_SPEED)
+            zip.putNextEntry(ZipEntry("META-INF/").apply {
+                method = STORED
+                size = 0
+                crc = 0
+            })
+            zip.putNextEntry(ZipEntry("stored.txt").apply {
+                method = STORED
+                size = STORED_DATA.size.toLong()
+                crc = CRC32().apply { update(STORED_DATA) }.value
+                lastModifiedTime = MODIFIED_TIME
+            })
+            zip.write(STORED_DATA)
+            zip.putNextEntry(ZipEntry("deflated.txt"))
+            zip.write(DEFLATED_DATA)
+            zip.putNextEntry(ZipEntry(CLASS_NAME))
+            zip.write(DEFLATED_DATA)
+        }
+    }
+
+    @Test
+    fun testCopyingAndWritingEntries() {
+        val target = testDir.resolve("target.jar")
+        val newData = byteArrayOf(1, 2, 3, 4)
+        ZipFile(source.toFile()).use { inJar ->
+            RawZipFile(source).use { rawJar ->
+                JarWriter(target, Compression.BEST).use { outJar ->
+                    outJar.comment = inJar.comment
+                    for (entry in inJar.entries()) {
+                        if (entry.name == CLASS_NAME) {
+                            outJar.write(entry.asCompressed(), newData)
+                        } else {
+                            outJar.copy(inJar, rawJar, ZipEntry(entry))
+                        }
+                    }
+                }
+            }
+        }
+
+        ZipFile(target.toFile()).use { jar ->
+            assertThat(jar.comment).isEqualTo(JAR_COMMENT)
+            assertThat(jar.entries().toList().map(ZipEntry::getName))
+                .containsExactly("META-INF/", "stored.txt", "deflated.txt", CLASS_NAME)
+
+            val stored = jar.getEntry("stored.txt")
+            assertThat(stored.method).isEqualTo(STORED)
+            assertThat(stored.lastModifiedTime).isEqualTo(MODIFIED_TIME)
+            assertThat(jar.getInputStream(stored).readBytes()).isEqualTo(STORED_DATA)
+
+            val deflated = jar.getEntry("deflated.txt")
+            assertThat(deflated.method).isEqualTo(DEFLATED)
+            assertThat(jar.getInputStream(deflated).readBytes()).isEqualTo(DEFLATED_DATA)
+
+            val rewritten = jar.getEntry(CLASS_NAME)
+            assertThat(rewritten.method).isEqualTo(DEFLATED)
+            assertThat(jar.getInputStream(rewritten).readBytes()).isEqualTo(newData)
+        }
+    }
+
+    @Test
+    fun testCopiedEntriesAreNotRecompressed() {
+        val target = testDir.resolve("target.jar")
+        ZipFile(source.toFile()).use { inJar ->
+            RawZipFile(source).use { rawJar ->
+                JarWriter(target, Compression.BEST).use { outJar ->
+                    outJar.copy(inJar, rawJar, ZipEntry(inJar.getEntry("deflated.txt")))
+                }
+            }
+        }
+
+        ZipFile(source.toFile()).use { sourceJar ->
+            ZipFile(target.toFile()).use { targetJar ->
+                val original = sourceJar.getEntry("deflated.txt")
+                val copied = targetJar.getEntry("deflated.txt")
+                assertThat(copied.crc).isEqualTo(original.crc)
+                assertThat(copied.compressedSize).isEqualTo(original.compressedSize)
+            }
+        }
+    }
+
+    @Test
+    fun testReadingEntriesDirectlyFromFile() {
+        ZipFile(source.toFile()).use { inJar ->
+            RawZipFile(source).use { rawJar ->
+                assertThat(rawJar.readBytes(inJar, inJar.getEntry("stored.txt"))).isEqualTo(STORED_DATA)
+                assertThat(rawJar.readBytes(inJar, inJar.getEntry("deflated.txt"))).isEqualTo(DEFLATED_DATA)
+                assertThat(rawJar.readBytes(inJar, inJar.getEntry(CLASS_NAME))).isEqualTo(DEFLATED_DATA)
+            }
+        }
+    }
+
+    @Test
+    fun testReadingEntriesWithTrailingBytes() {
+        Files.write(source, ByteArray(100) { it.toByte() }, APPEND)
+        ZipFile(source.toFile()).use { inJar ->
+            RawZipFile(source).use { rawJar ->
+                assertThat(rawJar["deflated.txt"]).isNotNull
+                assertThat(rawJar.readBytes(inJar, inJar.getEntry("stored.txt"))).isEqualTo(STORED_DATA)
+                assertThat(rawJar.readBytes(inJar, inJar.getEntry("deflated.txt"))).isEqualTo(DEFLATED_DATA)
+            }
+        }
+    }
+
+    @Test
+    fun testStoredCompression() {
+        val target = testDir.resolve("target.jar")
+        JarWriter(target, Compression.STORED).use { outJar ->
+            outJar.write(ZipEntry(CLASS_NAME).asCompressed(), DEFLATED_DATA)
+        }
+
+        ZipFile(target.toFile()).use { jar ->
+            val stored = jar.getEntry(CLASS_NAME)
+            assertThat(stored.method).isEqualTo(STORED)
+            assertThat(jar.getInputStream(stored).readBytes()).isEqualTo(DEFLATED_DATA)
+        }
+    }
+
+    @Test
+    fun testParallelWritingIsReproducible() {
+        val serialJar = testDir.resolve("serial.jar")
+        val parallelJar = testDir.resolve("parallel.jar")
+        val executor = Executors.newFixedThreadPool(4)
+        try {
+            ZipFile(source.toFile()).use { inJar ->
+                RawZipFile(source).use { rawJar ->
+                    JarWriter(serialJar, Compression.BEST).use { outJar -> rewriteAll(inJar, rawJar, outJar) }
+                    JarWriter(parallelJar, Compression.BEST, executor, 2).use { outJar -> rewriteAll(inJar, rawJar, outJar) }
+                }
+            }
+        } finally {
+            executor.shutdownNow()
+        }
+
+        assertThat(Files.readAllBytes(parallelJar)).isEqualTo(Files.readAllBytes(serialJar))
+        ZipFile(parallelJar.toFile()).use { jar ->
+            assertThat(jar.entries().toList().map(ZipEntry::getName))
+                .containsExactly("META-INF/", "stored.txt", "deflated.txt", CLASS_NAME)
+            assertThat(jar.getInputStream(jar.getEntry(CLASS_NAME)).readBytes()).isEqualTo(DEFLATED_DATA)
+        }
+    }
+
+    private fun rewriteAll(inJar: ZipFile, rawJar: RawZipFile, outJar: JarWriter) {
+        for (entry in inJar.entries()) {
+            if (entry.name == CLASS_NAME) {
+                outJar.write(entry.asCompressed(), rawJar.readBytes(inJar, entry))
+            } else {
+                outJar.copy(inJar, rawJar, ZipEntry(entry))
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package net.corda.gradle.jarfilter
+
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import kotlin.test.assertFailsWith
+
+class LongHashSetTest {
+    @Test
+    fun testEmptySet() {
+        val set = LongHashSet()
+        assertEquals(0, set.size)
+        assertFalse(set.contains(1))
+    }
+
+    @Test
+    fun testAddingKeys() {
+        val set = LongHashSet()
+        assertTrue(set.add(1))
+        assertTrue(set.add(1L shl 32))
+        assertFalse(set.add(1))
+        assertEquals(2, set.size)
+        assertTrue(set.contains(1))
+        assertTrue(set.contains(1L shl 32))
+        assertFalse(set.contains(2))
+    }
+
+    @Test
+    fun testGrowing() {
+        val set = LongHashSet()
+        val symbols = SymbolTable()
+        val keys = (0 until 1000).map { idx -> symbols.keyOf(symbols.intern("method$idx"), symbols.intern("()V")) }
+        keys.forEach { assertTrue(set.add(it)) }
+        assertEquals(keys.size, set.size)
+        keys.forEach { assertTrue(set.contains(it)) }
+        assertFalse(set.contains(symbols.keyOf(symbols.intern("other"), symbols.intern("()V"))))
+    }
+
+    @Test
+    fun testEmptyKeyIsRejected() {
+        assertFailsWith<IllegalArgumentException> { LongHashSet().add(0) }
+    }
+}
@@ -43,6 +43,12 @@ class MetaFixFunctionTest {
         }
     }
 
+    @Test
+    fun testConsistentClassIsUnchanged() {
+        val bytecode = WithFunction::class.java.bytecode
+        assertSame(bytecode, bytecode.fixMetadata(logger, pathsOf(WithFunction::class)))
+    }
+
     class MetadataTemplate : HasLong {
         override fun longData(): Long = 0
         @Suppress("UNUSED") fun unwantedFun(str: String): String = "UNWANTED[$str]"
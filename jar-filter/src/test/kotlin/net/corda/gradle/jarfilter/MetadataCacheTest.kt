@@ -0,0 +1,51 @@
+package net.corda.gradle.jarfilter
+
+import kotlinx.metadata.jvm.KotlinClassHeader
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+
+class MetadataCacheTest {
+    private companion object {
+        private const val CLASS_NAME = "org/testing/Example"
+        private const val CLASS_KIND = 1
+        private const val FILE_FACADE_KIND = 2
+
+        private fun headerOf(kind: Int, vararg data: String) = KotlinClassHeader(kind, null, null, arrayOf(*data), arrayOf("x"), null, null, null)
+    }
+
+    private lateinit var cache: MetadataCache
+    private var decodeCount = 0
+
+    @BeforeEach
+    fun setup() {
+        cache = MetadataCache()
+        decodeCount = 0
+    }
+
+    private fun decode(): Any = Any().also { ++decodeCount }
+
+    @Test
+    fun testSameMetadataIsDecodedOnce() {
+        val model = cache.get(CLASS_NAME, headerOf(CLASS_KIND, "data"), ::decode)
+        assertSame(model, cache.get(CLASS_NAME, headerOf(CLASS_KIND, "data"), ::decode))
+        assertEquals(1, decodeCount)
+    }
+
+    @Test
+    fun testDifferentMetadataIsDecodedAgain() {
+        val model = cache.get(CLASS_NAME, headerOf(CLASS_KIND, "data"), ::decode)
+        assertNotSame(model, cache.get(CLASS_NAME, headerOf(CLASS_KIND, "other"), ::decode))
+        assertNotSame(model, cache.get(CLASS_NAME, headerOf(FILE_FACADE_KIND, "data"), ::decode))
+        assertEquals(3, decodeCount)
+    }
+
+    @Test
+    fun testEncodedModelIsReused() {
+        val model = cache.get(CLASS_NAME, headerOf(CLASS_KIND, "data"), ::decode)
+        cache.put(CLASS_NAME, headerOf(CLASS_KIND, "encoded"), model)
+        assertSame(model, cache.get(CLASS_NAME, headerOf(CLASS_KIND, "encoded"), ::decode))
+        assertNotSame(model, cache.get(CLASS_NAME, headerOf(CLASS_KIND, "data"), ::decode))
+        assertEquals(2, decodeCount)
+    }
+}
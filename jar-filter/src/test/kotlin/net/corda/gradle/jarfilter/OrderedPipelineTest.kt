@@ -0,0 +1,88 @@
+package net.corda.gradle.jarfilter
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import java.io.IOException
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.assertFailsWith
+
+class OrderedPipelineTest {
+    private companion object {
+        private const val ITEMS = 500
+        private const val WINDOW = 8
+    }
+
+    private lateinit var executor: ExecutorService
+
+    @BeforeEach
+    fun setup() {
+        executor = ForkJoinPool(4)
+    }
+
+    @AfterEach
+    fun done() {
+        executor.shutdownNow()
+    }
+
+    @Test
+    fun testResultsAreDeliveredInOrder() {
+        val results = mutableListOf<Pair<Int, String?>>()
+        OrderedPipeline<Int, String>(executor, WINDOW, { item ->
+            Callable {
+                // Make the later items finish first.
+                Thread.sleep(((ITEMS - item) % 3).toLong())
+                "item-$item"
+            }
+        }, { item, result ->
+            results.add(item to result)
+        }).run((0 until ITEMS).iterator())
+
+        assertThat(results).hasSize(ITEMS)
+        results.forEachIndexed { idx, (item, result) ->
+            assertThat(item).isEqualTo(idx)
+            assertThat(result).isEqualTo("item-$idx")
+        }
+    }
+
+    @Test
+    fun testItemsWithoutWork() {
+        val results = mutableListOf<String?>()
+        OrderedPipeline<Int, String>(executor, WINDOW, { item ->
+            if (item % 2 == 0) Callable { "even-$item" } else null
+        }, { _, result ->
+            results.add(result)
+        }).run((0 until 4).iterator())
+
+        assertThat(results).containsExactly("even-0", null, "even-2", null)
+    }
+
+    @Test
+    fun testWindowIsRespected() {
+        val inFlight = AtomicInteger()
+        var maxInFlight = 0
+        OrderedPipeline<Int, Int>(executor, WINDOW, { item ->
+            maxInFlight = maxOf(maxInFlight, inFlight.incrementAndGet())
+            Callable { item }
+        }, { _, _ ->
+            inFlight.decrementAndGet()
+        }).run((0 until ITEMS).iterator())
+
+        assertThat(maxInFlight).isLessThanOrEqualTo(WINDOW)
+        assertThat(inFlight.get()).isZero()
+    }
+
+    @Test
+    fun testFailureIsRethrown() {
+        val ex = assertFailsWith<IOException> {
+            OrderedPipeline<Int, Int>(executor, WINDOW, { item ->
+                Callable { if (item == 10) throw IOException(MESSAGE) else item }
+            }, { _, _ -> }).run((0 until ITEMS).iterator())
+        }
+        assertThat(ex).hasMessage(MESSAGE)
+    }
+}
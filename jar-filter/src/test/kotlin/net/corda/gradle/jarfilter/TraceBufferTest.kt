@@ -0,0 +1,48 @@
+package net.corda.gradle.jarfilter
+
+import net.corda.gradle.jarfilter.TraceEvent.*
+import org.assertj.core.api.Assertions.*
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.nio.file.Files
+import java.nio.file.Path
+
+class TraceBufferTest {
+    @Test
+    fun testWritesEventsInOrder(@TempDir dir: Path) {
+        val buffer = TraceBuffer(8)
+        buffer.record(CLASS, "com/example/Foo", null, null, null, null)
+        buffer.record(DELETED_METHOD, "bar", "()V", null, null, null)
+        assertEquals(0, buffer.droppedCount)
+
+        val lines = dir.resolve("trace.jsonl").let { file ->
+            buffer.writeTo(file.toFile())
+            Files.readAllLines(file)
+        }
+        assertThat(lines).hasSize(2)
+        assertThat(lines[0])
+            .startsWith("{\"seq\":0,")
+            .endsWith(",\"event\":\"CLASS\",\"args\":[\"com/example/Foo\"]}")
+        assertThat(lines[1])
+            .startsWith("{\"seq\":1,")
+            .endsWith(",\"event\":\"DELETED_METHOD\",\"args\":[\"bar\",\"()V\"]}")
+    }
+
+    @Test
+    fun testOverwritesOldestEvents(@TempDir dir: Path) {
+        val buffer = TraceBuffer(3)
+        for (i in 0 until 5) {
+            buffer.record(INVENTORY_METHOD, "method$i", "()V", null, null, null)
+        }
+        assertEquals(2, buffer.droppedCount)
+
+        val lines = dir.resolve("trace.jsonl").let { file ->
+            buffer.writeTo(file.toFile())
+            Files.readAllLines(file)
+        }
+        assertThat(lines).hasSize(3)
+        assertThat(lines[0]).startsWith("{\"seq\":2,").contains("\"method2\"")
+        assertThat(lines[2]).startsWith("{\"seq\":4,").contains("\"method4\"")
+    }
+}
@@ -3,11 +3,14 @@ package net.corda.gradle.jarfilter
 import org.junit.jupiter.api.Assertions.*
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
 
 
 class UnwantedCacheTest {
     private companion object {
         private const val CLASS_NAME = "org.testing.MyClass"
+        private const val OTHER_CLASS_NAME = "org.testing.OtherClass"
         private const val LONG_ARG = "(J)V"
         private const val NO_ARG = "()V"
     }
@@ -43,6 +46,8 @@ class UnwantedCacheTest {
         assertFalse(cache.containsMethod(CLASS_NAME, null, null))
         assertFalse(cache.containsMethod(CLASS_NAME, "nonsense", null))
         assertFalse(cache.containsClass(CLASS_NAME))
+        assertEquals(setOf(MethodElement("<init>", LONG_ARG)), cache.methodsOf(CLASS_NAME))
+        assertNull(cache.methodsOf(OTHER_CLASS_NAME))
     }
 
     @Test
@@ -51,5 +56,46 @@ class UnwantedCacheTest {
         cache.addClass(CLASS_NAME)
         assertTrue(cache.containsMethod(CLASS_NAME, "<init>", LONG_ARG))
         assertEquals(0, cache.classMethods.size)
+        assertNull(cache.methodsOf(CLASS_NAME))
     }
-}
\ No newline at end of file
+
+    @Test
+    fun testAddingStubbedMethodFollowedByClass() {
+        cache.addStubbedMethod(CLASS_NAME, MethodElement("stubbed", NO_ARG))
+        assertEquals(setOf(MethodElement("stubbed", NO_ARG)), cache.stubbedMethodsOf(CLASS_NAME))
+        cache.addClass(CLASS_NAME)
+        assertNull(cache.stubbedMethodsOf(CLASS_NAME))
+    }
+
+    @Test
+    fun testDrainingChanges() {
+        cache.addMethod(CLASS_NAME, MethodElement("<init>", LONG_ARG))
+        cache.addMethod(CLASS_NAME, MethodElement("<init>", LONG_ARG))
+        cache.addClass(OTHER_CLASS_NAME)
+        assertEquals(setOf(CLASS_NAME, OTHER_CLASS_NAME), cache.drainChanges())
+        assertEquals(emptySet<String>(), cache.drainChanges())
+
+        cache.addClass(OTHER_CLASS_NAME)
+        assertEquals(emptySet<String>(), cache.drainChanges())
+    }
+
+    @Test
+    fun testConcurrentUpdates() {
+        val executor = Executors.newFixedThreadPool(4)
+        try {
+            executor.invokeAll((0 until 100).map { idx ->
+                Callable {
+                    cache.addMethod("$CLASS_NAME$idx", MethodElement("<init>", LONG_ARG))
+                    cache.addClass("$CLASS_NAME${idx % 10}")
+                }
+            }).forEach { it.get() }
+        } finally {
+            executor.shutdown()
+        }
+
+        for (idx in 0 until 100) {
+            assertTrue(cache.containsMethod("$CLASS_NAME$idx", "<init>", LONG_ARG))
+        }
+        assertEquals(10, cache.classes.size)
+    }
+}
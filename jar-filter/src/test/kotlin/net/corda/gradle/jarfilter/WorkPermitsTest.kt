@@ -0,0 +1,63 @@
+package net.corda.gradle.jarfilter
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+class WorkPermitsTest {
+    private companion object {
+        private const val ITEMS = 40
+        private const val PERMITS = 3
+    }
+
+    private lateinit var executor: ExecutorService
+
+    @BeforeEach
+    fun setup() {
+        executor = Executors.newFixedThreadPool(ITEMS / 2)
+    }
+
+    @AfterEach
+    fun done() {
+        executor.shutdownNow()
+    }
+
+    private fun maxRunningFor(key: String?): Int {
+        val running = AtomicInteger()
+        val maxRunning = AtomicInteger()
+        val tasks = (1..ITEMS).map {
+            Callable {
+                WorkPermits.withPermit(key) {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), ::maxOf)
+                    Thread.sleep(10)
+                    running.decrementAndGet()
+                }
+            }
+        }
+        executor.invokeAll(tasks).forEach { it.get() }
+        return maxRunning.get()
+    }
+
+    @Test
+    fun testPermitsLimitConcurrentWork() {
+        WorkPermits(PERMITS).use { permits ->
+            assertThat(maxRunningFor(permits.key)).isBetween(1, PERMITS)
+        }
+    }
+
+    @Test
+    fun testWorkWithoutKeyIsUnlimited() {
+        assertThat(maxRunningFor(null)).isGreaterThan(PERMITS)
+    }
+
+    @Test
+    fun testClosedPermitsNoLongerLimitWork() {
+        val key = WorkPermits(1).use { it.key }
+        assertThat(maxRunningFor(key)).isGreaterThan(1)
+    }
+}
@@ -0,0 +1,18 @@
+@file:Suppress("unused", "PackageDirectoryMismatch")
+@file:JvmName("HasAbi")
+package net.corda.gradle
+
+fun publicMessage(message: String): String = privateMessage(message)
+
+private fun privateMessage(message: String): String = message
+
+inline fun inlineMessage(message: String): String = message
+
+/**
+ * Do NOT inline this lambda!
+ */
+fun lambdaMessage(message: String): String = Holder { message }.value
+
+class Holder(factory: () -> String) {
+    val value: String = factory()
+}
@@ -0,0 +1,19 @@
+@file:Suppress("unused", "PackageDirectoryMismatch")
+package net.corda.gradle
+
+import net.corda.gradle.jarfilter.DeleteMe
+import net.corda.gradle.jarfilter.StubMeOut
+
+@DeleteMe
+class UnwantedHelper {
+    fun message(): String = "unwanted"
+}
+
+class HasPlan {
+    fun helper(): String = UnwantedHelper().message()
+
+    @StubMeOut
+    fun stubbed(): String = "stubbed"
+
+    fun wanted(): String = "wanted"
+}
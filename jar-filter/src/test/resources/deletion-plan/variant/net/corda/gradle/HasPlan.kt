@@ -0,0 +1,22 @@
+@file:Suppress("unused", "PackageDirectoryMismatch")
+package net.corda.gradle
+
+/**
+ * This variant of [HasPlan] has nothing to delete or stub out, although
+ * its entry has the same name as the [HasPlan] in the other JAR.
+ */
+class HasPlan {
+    fun helper(): String = "helper"
+
+    fun stubbed(): String = "not stubbed"
+
+    fun wanted(): String = "wanted"
+}
+
+/**
+ * The [UnwantedHelper] class only exists in the other JAR, and so
+ * nothing should delete this function when filtering this JAR.
+ */
+class UsesHelper {
+    fun helper(): String = UnwantedHelper().message()
+}